@@ -1,9 +1,22 @@
 #!/usr/bin/env bash
 
 #BASH SCRIPT TO START THE CLI INTERFACE FOR THE IV1351 PROJECT
+#RECOMPILES ONLY WHEN A SOURCE FILE CHANGED AND STARTS THE JVM DIRECTLY (NO MAVEN AT RUN TIME)
 
 echo "Starting IV1351 CLI interface..."
 
-mvn clean compile
+cd "$(dirname "$0")/.." || exit 1
 
-mvn exec:java 
+STAMP="target/.compiled"
+CLASSPATH_FILE="target/classpath.txt"
+
+# Compile (and resolve the dependency classpath) only if sources or pom.xml are newer than the last build
+if [ ! -f "$STAMP" ] || [ ! -f "$CLASSPATH_FILE" ] \
+   || [ -n "$(find src/main pom.xml -newer "$STAMP" -print -quit)" ]; then
+    mvn -q compile dependency:build-classpath -Dmdep.outputFile="$CLASSPATH_FILE" || exit 1
+    touch "$STAMP"
+fi
+
+exec java -XX:TieredStopAtLevel=1 -Xshare:auto \
+     -cp "target/classes:$(cat "$CLASSPATH_FILE")" \
+     kth.iv1351.coursealloc.StartUp --fast-start
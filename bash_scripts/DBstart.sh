@@ -18,6 +18,7 @@ psql -h "$DB_HOST" -U "$DB_USER" -d "$DB_NAME" <<EOF
 \\i /Users/panayiwthzz/IV1351_project/sql/functions.sql
 \\i /Users/panayiwthzz/IV1351_project/sql/triggers.sql
 \\i /Users/panayiwthzz/IV1351_project/sql/seeds.sql
+\\i /Users/panayiwthzz/IV1351_project/sql/partitioning.sql
 \\i /Users/panayiwthzz/IV1351_project/sql/indexes.sql
 \\i /Users/panayiwthzz/IV1351_project/sql/olap.sql
 EOF
@@ -16,15 +16,22 @@ $$ LANGUAGE plpgsql;
 
 -- B) When inserting a new salary for an employee with is_current = TRUE
 -- Ensure only one row per employee has is_current = TRUE
+-- and close the validity range of the superseded row at the new row's created_at,
+-- so "as of" lookups can probe [created_at, valid_to) directly.
+-- A bulk salary revision (revise_salaries, J) closes the current rows before it
+-- inserts the new ones, so there the UPDATE below finds nothing left to close.
 CREATE OR REPLACE FUNCTION enforce_single_current_salary()
 RETURNS TRIGGER AS $$
 BEGIN
   IF NEW.is_current THEN
     -- Mark any existing current salary for this employee as not current
     UPDATE salary
-      SET is_current = FALSE
+      SET is_current = FALSE,
+          valid_to   = NEW.created_at
     WHERE employment_id = NEW.employment_id
-      AND is_current = TRUE;
+      AND is_current = TRUE
+      AND id IS DISTINCT FROM NEW.id;
+    NEW.valid_to := 'infinity';
   END IF;
 
   RETURN NEW;
@@ -38,22 +45,29 @@ $$ LANGUAGE plpgsql;
 --  - The limit ("4") is per teacher, per (study_year, study_period),
 --    and we count DISTINCT instances (so multiple activities in the same instance
 --    do not inflate the count).
+--  - A row on an instance the teacher already has never adds an instance, so it
+--    is always accepted. This also makes the set-based bulk move (one INSERT for
+--    many rows) pass: rows inserted earlier by the same statement are visible here.
 
 CREATE OR REPLACE FUNCTION trg_check_max4_allocations()
 RETURNS TRIGGER AS $$
 DECLARE
   v_year   INT;             -- the year of the instance we are trying to assign
   v_period study_period_t;  -- the period (P1..P4) of that instance
-  v_count  INT;             -- how many distinct instances the teacher already has in that (year, period)
+  v_count  INT;             -- how many other distinct instances the teacher already has in that (year, period)
 BEGIN
 
   -- 1) Resolve the (year, period) of the target instance from the NEW row.
   --    NEW.instance_id is being inserted; we look it up in course_instance.
 
+  --    NEW.study_year is part of the key, so both lookups below stay inside
+  --    one study_year partition when the tables are partitioned.
+
   SELECT ci.study_year, ci.study_period
     INTO v_year, v_period
   FROM course_instance ci
-  WHERE ci.instance_id = NEW.instance_id;
+  WHERE ci.study_year  = NEW.study_year
+    AND ci.instance_id = NEW.instance_id;
 
   -- Defensive check: if someone passed a non-existent instance_id, stop early.
   IF v_year IS NULL THEN
@@ -63,18 +77,23 @@ BEGIN
   END IF;
 
 
-  -- 2) Count how many DISTINCT instances this teacher is already allocated to
-  --    within the SAME (study_year, study_period).
+  -- 2) Count how many DISTINCT OTHER instances this teacher is already allocated
+  --    to within the SAME (study_year, study_period).
   --
   --    We use COUNT(DISTINCT a.instance_id) so that if the teacher has multiple
   --    allocations for different activities within the same instance, that
   --    instance is still counted only ONCE toward the "max 4" rule.
+  --    The target instance itself is left out: if the teacher already has it,
+  --    this row does not add an instance.
   
   SELECT COUNT(DISTINCT a.instance_id)
     INTO v_count
   FROM allocations a
-  JOIN course_instance ci2 ON ci2.instance_id = a.instance_id
+  JOIN course_instance ci2 ON ci2.study_year  = a.study_year
+                          AND ci2.instance_id = a.instance_id
   WHERE a.employment_id = NEW.employment_id
+    AND a.study_year     = v_year
+    AND a.instance_id   <> NEW.instance_id
     AND ci2.study_year   = v_year
     AND ci2.study_period = v_period;
 
@@ -91,3 +110,364 @@ BEGIN
   RETURN NEW;
 END;
 $$ LANGUAGE plpgsql;
+
+
+-- D) Change-notification feed for application caches.
+--    Every committed change to allocations, planned_activity, course_instance
+--    and salary sends a compact message on channel 'coursealloc_changes':
+--
+--      <table>|<op>|<instance_id>|<employment_id>
+--
+--    table: A = allocations, P = planned_activity, I = course_instance, S = salary,
+--           K = skill data (see trg_notify_skill_change below)
+--    op:    I = insert, U = update, D = delete
+--    Keys that do not apply to a table are left empty. Salary changes are sent
+--    per statement (trg_notify_salary_change below), so a bulk salary revision
+--    sends one message without an employee instead of one per row.
+--    pg_notify is transactional: listeners only see changes that commit,
+--    and identical messages within one transaction are delivered once.
+
+CREATE OR REPLACE FUNCTION trg_notify_change()
+RETURNS TRIGGER AS $$
+DECLARE
+  r          RECORD;
+  v_table    TEXT;
+  v_instance TEXT := '';
+  v_employee TEXT := '';
+BEGIN
+  IF TG_OP = 'DELETE' THEN
+    r := OLD;
+  ELSE
+    r := NEW;
+  END IF;
+
+  PERFORM nextval('change_seq'); -- change marker, see I)
+
+  CASE TG_TABLE_NAME
+    WHEN 'allocations' THEN
+      v_table := 'A'; v_instance := r.instance_id; v_employee := r.employment_id;
+    WHEN 'planned_activity' THEN
+      v_table := 'P'; v_instance := r.instance_id;
+    WHEN 'course_instance' THEN
+      v_table := 'I'; v_instance := r.instance_id;
+  END CASE;
+
+  PERFORM pg_notify('coursealloc_changes',
+                    v_table || '|' || left(TG_OP, 1) || '|' || v_instance || '|' || v_employee);
+  RETURN NULL; -- AFTER trigger: return value is ignored
+END;
+$$ LANGUAGE plpgsql;
+
+-- Statement triggers for salary (one per event, with the transition table of
+-- the changed rows as changed_rows): one 'S|<op>||<employment_id>' when the
+-- statement changed one employee's salaries, one 'S|<op>||' when it changed several.
+
+CREATE OR REPLACE FUNCTION trg_notify_salary_change()
+RETURNS TRIGGER AS $$
+DECLARE
+  v_employees INT;
+  v_employee  TEXT;
+BEGIN
+  SELECT COUNT(DISTINCT employment_id), MIN(employment_id)
+    INTO v_employees, v_employee
+  FROM changed_rows;
+
+  IF v_employees = 0 THEN
+    RETURN NULL;
+  END IF;
+
+  PERFORM nextval('change_seq'); -- change marker, see I)
+  PERFORM pg_notify('coursealloc_changes',
+                    'S|' || left(TG_OP, 1) || '||' ||
+                    CASE WHEN v_employees = 1 THEN v_employee ELSE '' END);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Statement trigger for the tables the teacher skill index is built from
+-- (employee, person, employee_skills, course_skill, teaching_activity):
+-- one 'K|<op>||' per statement, without keys; the application reloads the index.
+-- Not counted in change_seq here: employee, person and teaching_activity already
+-- move it (I), and skills are not part of the warm-state file.
+
+CREATE OR REPLACE FUNCTION trg_notify_skill_change()
+RETURNS TRIGGER AS $$
+BEGIN
+  PERFORM pg_notify('coursealloc_changes',
+                    'K|' || CASE TG_OP WHEN 'TRUNCATE' THEN 'D' ELSE left(TG_OP, 1) END || '||');
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- E) Study-year partitions (see partitioning.sql).
+--    Creates the course_instance / planned_activity / allocations partitions
+--    for one study year if they do not exist yet. Does nothing while the
+--    tables still use the unpartitioned layout of schema.sql.
+
+CREATE OR REPLACE FUNCTION create_study_year_partitions(p_year INT)
+RETURNS VOID AS $$
+DECLARE
+  v_table TEXT;
+BEGIN
+  FOREACH v_table IN ARRAY ARRAY['course_instance', 'planned_activity', 'allocations'] LOOP
+    IF EXISTS (SELECT 1 FROM pg_class
+               WHERE oid = to_regclass(v_table) AND relkind = 'p') THEN
+      EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES IN (%s)',
+                     v_table || '_' || p_year, v_table, p_year);
+    END IF;
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Keeps partitions ready ahead of time: current study year and the next one.
+-- Called by the application at startup (and safe to call from cron).
+CREATE OR REPLACE FUNCTION ensure_study_year_partitions()
+RETURNS VOID AS $$
+DECLARE
+  v_year INT := EXTRACT(YEAR FROM CURRENT_DATE)::INT;
+BEGIN
+  PERFORM create_study_year_partitions(v_year);
+  PERFORM create_study_year_partitions(v_year + 1);
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- F) Allocation fast path: the whole "allocate teaching" use case in one call
+--    (TeachingService.allocateTeaching via DBHandler.allocateTeachingServerSide).
+--    Same steps as the Java version, but server-side, so the transaction holds
+--    its locks for the duration of the statements, not of five network round trips:
+--      1. resolve activity id and the instance's (study_year, study_period)
+--      2. lock the teacher's employee row (concurrent allocations of the same
+--         teacher queue here, so the max-4 check below cannot race)
+--      3. max-4 check, unless the teacher is already on this instance
+--      4. upsert planned_activity and allocations
+--    The per-row trigger (C) still checks the allocation insert; step 3 only turns
+--    its exception into a status.
+--    Returns a status instead of raising, so the caller can map it to its own
+--    exception: OK, OVERLOADED, UNKNOWN_ACTIVITY, UNKNOWN_INSTANCE,
+--    AMBIGUOUS_INSTANCE (instance_id found in more than one study year), UNKNOWN_EMPLOYEE.
+--    Year, period and current instance count are returned for the error message.
+
+CREATE OR REPLACE FUNCTION allocate_teaching(
+  p_instance_id   VARCHAR,
+  p_employment_id VARCHAR,
+  p_activity_name VARCHAR,
+  p_hours         DOUBLE PRECISION,
+  OUT status          TEXT,
+  OUT study_year      INT,
+  OUT study_period    TEXT,
+  OUT instance_count  INT)
+AS $$
+DECLARE
+  v_activity_id BIGINT;
+  v_period      study_period_t;
+BEGIN
+  SELECT ta.id INTO v_activity_id
+  FROM teaching_activity ta
+  WHERE ta.activity_name = p_activity_name;
+  IF v_activity_id IS NULL THEN
+    status := 'UNKNOWN_ACTIVITY';
+    RETURN;
+  END IF;
+
+  BEGIN
+    SELECT ci.study_year, ci.study_period INTO STRICT study_year, v_period
+    FROM course_instance ci
+    WHERE ci.instance_id = p_instance_id;
+  EXCEPTION
+    WHEN NO_DATA_FOUND THEN
+      status := 'UNKNOWN_INSTANCE';
+      RETURN;
+    WHEN TOO_MANY_ROWS THEN
+      status := 'AMBIGUOUS_INSTANCE';
+      study_year := NULL;
+      RETURN;
+  END;
+  study_period := v_period::text;
+
+  PERFORM 1 FROM employee e WHERE e.employment_id = p_employment_id FOR UPDATE;
+  IF NOT FOUND THEN
+    status := 'UNKNOWN_EMPLOYEE';
+    RETURN;
+  END IF;
+
+  SELECT COUNT(DISTINCT a.instance_id) INTO instance_count
+  FROM allocations a
+  JOIN course_instance ci ON ci.study_year  = a.study_year
+                         AND ci.instance_id = a.instance_id
+  WHERE a.employment_id = p_employment_id
+    AND a.study_year    = allocate_teaching.study_year
+    AND ci.study_year   = allocate_teaching.study_year
+    AND ci.study_period = v_period;
+
+  IF instance_count >= 4 AND NOT EXISTS (
+       SELECT 1 FROM allocations a
+       WHERE a.study_year    = allocate_teaching.study_year
+         AND a.instance_id   = p_instance_id
+         AND a.employment_id = p_employment_id) THEN
+    status := 'OVERLOADED';
+    RETURN;
+  END IF;
+
+  INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours, study_year)
+  VALUES (p_instance_id, v_activity_id, p_hours, allocate_teaching.study_year)
+  ON CONFLICT ON CONSTRAINT planned_activity_pkey
+  DO UPDATE SET planned_hours = EXCLUDED.planned_hours;
+
+  INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours, study_year)
+  VALUES (p_instance_id, v_activity_id, p_employment_id, p_hours, allocate_teaching.study_year)
+  ON CONFLICT ON CONSTRAINT allocations_pkey
+  DO UPDATE SET allocated_hours = EXCLUDED.allocated_hours;
+
+  status := 'OK';
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- G) audit_log is append-only: rows can be inserted, never changed or removed.
+
+CREATE OR REPLACE FUNCTION trg_audit_log_append_only()
+RETURNS TRIGGER AS $$
+BEGIN
+  RAISE EXCEPTION 'audit_log is append-only (% not allowed)', TG_OP;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- H) Archival of closed study years (ArchiveService, see allocation_archive).
+--    Once every instance of a year has been moved to the archive, its now empty
+--    partitions are detached and dropped (children first), so the hot tables and
+--    their indexes only hold open years. Refuses to drop a partition that still
+--    has rows. Does nothing while the tables are unpartitioned.
+
+CREATE OR REPLACE FUNCTION drop_study_year_partitions(p_year INT)
+RETURNS VOID AS $$
+DECLARE
+  v_table     TEXT;
+  v_partition TEXT;
+  v_has_rows  BOOLEAN;
+BEGIN
+  FOREACH v_table IN ARRAY ARRAY['allocations', 'planned_activity', 'course_instance'] LOOP
+    v_partition := v_table || '_' || p_year;
+    CONTINUE WHEN to_regclass(v_partition) IS NULL;
+
+    EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I)', v_partition) INTO v_has_rows;
+    IF v_has_rows THEN
+      RAISE EXCEPTION 'Partition % still has rows', v_partition;
+    END IF;
+
+    -- Detach first: a partition referenced by a foreign key cannot be dropped directly
+    EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', v_table, v_partition);
+    EXECUTE format('DROP TABLE %I', v_partition);
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- I) Change marker for the application's warm-state file (change_seq).
+--    trg_notify_change draws a number for every row it reports (trg_notify_salary_change
+--    one per statement); this statement trigger does the same for the reference
+--    tables that are cached but not on the change feed (activity names, course
+--    codes and hp, teacher names).
+--    A saved state is only reused while the sequence has not moved; it is only
+--    saved for data read after the marker with no write in progress (see schema.sql).
+
+CREATE OR REPLACE FUNCTION trg_bump_change_seq()
+RETURNS TRIGGER AS $$
+BEGIN
+  PERFORM nextval('change_seq');
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- J) Bulk salary revision (SalaryService via DBHandler.reviseSalariesBy...).
+--    Gives every selected employee with a current salary a new current version:
+--      - p_percent set:     new salary = current * (1 + p_percent / 100)
+--      - p_percent NULL:    new salary from the (p_job_titles, p_salaries) table;
+--                           employees with other job titles keep theirs
+--    for one department (p_department_name) or everyone (NULL), rounded to öre.
+--    Two set-based statements: the current rows are closed first, then the new
+--    versions inserted. The triggers all stay on: enforce_single_current_salary
+--    finds nothing left to close, and the salary notification is sent once per
+--    statement. Returns the number of employees revised.
+--    SECURITY DEFINER: a role allowed to revise salaries needs EXECUTE on this
+--    function only, not INSERT/UPDATE on salary.
+
+CREATE OR REPLACE FUNCTION revise_salaries(
+  p_department_name VARCHAR,
+  p_percent         NUMERIC,
+  p_job_titles      VARCHAR[],
+  p_salaries        NUMERIC[])
+RETURNS INT
+SECURITY DEFINER
+SET search_path = public, pg_temp
+AS $$
+DECLARE
+  v_now       TIMESTAMP := LOCALTIMESTAMP;
+  v_employees VARCHAR[];
+  v_salaries  NUMERIC[];
+  v_revised   INT;
+BEGIN
+  WITH target AS (
+    SELECT s.id, s.employment_id, s.salary,
+           CASE WHEN p_percent IS NOT NULL
+                THEN round(s.salary * (1 + p_percent / 100), 2)
+                ELSE round(r.salary, 2)
+           END AS new_salary
+    FROM salary s
+    JOIN employee e ON e.employment_id = s.employment_id
+    LEFT JOIN job_title jt ON jt.id = e.job_title_id
+    LEFT JOIN unnest(p_job_titles, p_salaries) AS r(job_title, salary) ON r.job_title = jt.job_title
+    WHERE s.is_current
+      AND (p_percent IS NOT NULL OR r.salary IS NOT NULL)
+      AND (p_department_name IS NULL OR EXISTS (
+             SELECT 1 FROM department d
+             WHERE d.id = e.department_id AND d.department_name = p_department_name))
+    FOR UPDATE OF s
+  ), closed AS (
+    UPDATE salary s
+    SET is_current = FALSE, valid_to = v_now
+    FROM target t
+    WHERE s.id = t.id AND t.new_salary <> t.salary
+    RETURNING t.employment_id, t.new_salary
+  )
+  SELECT array_agg(employment_id), array_agg(new_salary)
+    INTO v_employees, v_salaries
+  FROM closed;
+
+  INSERT INTO salary (employment_id, salary, created_at, valid_to, is_current)
+  SELECT employment_id, new_salary, v_now, 'infinity', TRUE
+  FROM unnest(v_employees, v_salaries) AS n(employment_id, new_salary);
+  GET DIAGNOSTICS v_revised = ROW_COUNT;
+
+  RETURN v_revised;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- K) instance_id stays unique across study years.
+--    Partitioned, course_instance's key is (study_year, instance_id), and a unique
+--    index on a partitioned table must contain the partition key, so nothing else
+--    stops the same instance_id from appearing in two years. Statements keyed by
+--    instance_id alone (DBHandler.YEAR_OF_INSTANCE, allocate_teaching) rely on it.
+--    The advisory lock on the id serializes concurrent inserts of the same id, so
+--    the second one sees the first once it has committed (READ COMMITTED).
+--    Served by idx_course_instance_instance_id (indexes.sql).
+
+CREATE OR REPLACE FUNCTION trg_unique_instance_id()
+RETURNS TRIGGER AS $$
+BEGIN
+  PERFORM pg_advisory_xact_lock(hashtext('course_instance.instance_id'), hashtext(NEW.instance_id));
+
+  IF EXISTS (SELECT 1 FROM course_instance ci
+             WHERE ci.instance_id = NEW.instance_id
+               AND ci.study_year <> NEW.study_year) THEN
+    RAISE EXCEPTION 'course_instance.instance_id % already exists in another study year', NEW.instance_id
+      USING ERRCODE = 'unique_violation';
+  END IF;
+
+  RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
@@ -1,7 +1,53 @@
 -- Indexes to optimize query performance for the database
 
+-- instance_id as last key: "instances <year> [period]" pages in index order (keyset pagination).
+-- The listings compare their keys COLLATE "C" (same order on every shard), so the
+-- key columns are indexed with that collation, or the index could not serve them.
 CREATE INDEX idx_course_instance_year_period
-ON course_instance(study_year, study_period);
+ON course_instance(study_year, study_period, instance_id COLLATE "C");
 
+CREATE INDEX idx_course_instance_year_instance
+ON course_instance(study_year, instance_id COLLATE "C");
+
+-- Allocations of a teacher, in the order "allocations teacher <id>" pages through them
 CREATE INDEX idx_allocations_employment_id
-ON allocations(employment_id);
+ON allocations(employment_id, study_year, instance_id, teaching_activity_id);
+
+-- Teacher listings by department / by skill, paged by employment_id (COLLATE "C", as above)
+CREATE INDEX idx_employee_department
+ON employee(department_id, employment_id COLLATE "C");
+
+CREATE INDEX idx_employee_skills_skill
+ON employee_skills(skill_id, employment_id COLLATE "C");
+
+-- Lookups by instance_id alone (without study_year): once partitioned, the
+-- primary key leads with study_year, so this index serves those probes.
+CREATE INDEX idx_course_instance_instance_id
+ON course_instance(instance_id);
+
+-- "As of" salary lookups: per-employee probe by created_at (valid_to/salary in the index),
+-- and a range index for "all salaries valid at time T" (average hourly salary as of T).
+CREATE INDEX idx_salary_employee_validity
+ON salary(employment_id, created_at) INCLUDE (valid_to, salary);
+
+CREATE INDEX idx_salary_validity_range
+ON salary USING gist (tsrange(created_at, valid_to));
+
+-- audit_log is appended in commit order, so a tiny BRIN index serves time-range reads
+CREATE INDEX idx_audit_log_committed_at
+ON audit_log USING brin (committed_at);
+
+-- Archive (closed years): rows arrive year by year in instance order, so a BRIN
+-- index is enough for year filters; instance_id serves lookups by instance.
+CREATE INDEX idx_allocation_archive_year
+ON allocation_archive USING brin (study_year);
+
+CREATE INDEX idx_allocation_archive_instance
+ON allocation_archive(instance_id);
+
+-- Same "as of" probes as on salary, for archived salary versions
+CREATE INDEX idx_salary_archive_employee_validity
+ON salary_archive(employment_id, created_at) INCLUDE (valid_to, salary);
+
+CREATE INDEX idx_salary_archive_validity_range
+ON salary_archive USING gist (tsrange(created_at, valid_to));
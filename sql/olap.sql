@@ -6,6 +6,10 @@
 
 \echo 'Creating helper view'
 -- View: per-allocation, factor-adjusted hours, enriched with course & teacher info
+-- Joins include study_year, so a filter on study_year prunes all three
+-- year-partitioned tables (see partitioning.sql).
+-- Archived (closed) years come from allocation_archive; filters on study_year or
+-- instance_id are pushed into both branches of the UNION ALL.
 CREATE OR REPLACE VIEW v_allocation_hours AS
 SELECT ci.instance_id, cl.course_code, cl.hp, ci.study_year, ci.study_period, ci.num_students,
     pa.teaching_activity_id, ta.activity_name, ta.factor, pa.planned_hours, a.employment_id,
@@ -13,18 +17,47 @@ SELECT ci.instance_id, cl.course_code, cl.hp, ci.study_year, ci.study_period, ci
     pa.planned_hours * ta.factor AS allocated_hours
 FROM course_instance      ci
 JOIN course_layout        cl ON cl.id = ci.course_layout_id
-JOIN planned_activity     pa ON pa.instance_id = ci.instance_id
+JOIN planned_activity     pa ON pa.study_year = ci.study_year
+                             AND pa.instance_id = ci.instance_id
 JOIN teaching_activity    ta ON ta.id = pa.teaching_activity_id
-LEFT JOIN allocations     a  ON a.instance_id = pa.instance_id
+LEFT JOIN allocations     a  ON a.study_year = pa.study_year
+                             AND a.instance_id = pa.instance_id
                              AND a.teaching_activity_id = pa.teaching_activity_id
 LEFT JOIN employee        e  ON e.employment_id = a.employment_id
+LEFT JOIN person          p  ON p.id = e.person_id
+UNION ALL
+SELECT ar.instance_id, ar.course_code, ar.hp, ar.study_year, ar.study_period, ar.num_students,
+    ar.teaching_activity_id, ta.activity_name, ta.factor, ar.planned_hours, ar.employment_id,
+    p.first_name || ' ' || p.last_name AS teacher_name,
+    ar.planned_hours * ta.factor AS allocated_hours
+FROM allocation_archive   ar
+JOIN teaching_activity    ta ON ta.id = ar.teaching_activity_id
+LEFT JOIN employee        e  ON e.employment_id = ar.employment_id
 LEFT JOIN person          p  ON p.id = e.person_id;
 
+-- Study year of every instance, live or archived ("as of" costs of any year)
+CREATE OR REPLACE VIEW v_instance_year AS
+SELECT instance_id, study_year FROM course_instance
+UNION ALL
+SELECT DISTINCT instance_id, study_year FROM allocation_archive;
+
+-- Every salary version, live or archived ("as of" lookups)
+CREATE OR REPLACE VIEW v_salary_history AS
+SELECT id, employment_id, salary, created_at, valid_to, is_current FROM salary
+UNION ALL
+SELECT id, employment_id, salary, created_at, valid_to, is_current FROM salary_archive;
+
+
+-- query1 and query3 are materialized for every live study year (years not yet archived,
+-- see ArchiveService); read them with WHERE "Study Year" = ... . The application keeps
+-- them fresh: MaterializedViewRefresher runs REFRESH MATERIALIZED VIEW CONCURRENTLY
+-- shortly after allocations, planned activities or instances change, which needs the
+-- unique index created with each view and never blocks readers.
 
 \echo 'running query 1'
 DROP MATERIALIZED VIEW IF EXISTS "query1";
 CREATE MATERIALIZED VIEW "query1" AS
-SELECT course_code AS "Course Code", instance_id AS "Course Instance ID", hp AS "HP", study_period AS "Period", num_students AS "Students",
+SELECT study_year AS "Study Year", course_code AS "Course Code", instance_id AS "Course Instance ID", hp AS "HP", study_period AS "Period", num_students AS "Students",
     ROUND(SUM(CASE WHEN activity_name = 'Lecture' THEN allocated_hours ELSE 0 END)::numeric, 2) AS lecture_hours,
     ROUND(SUM(CASE WHEN activity_name = 'Tutorial' THEN allocated_hours ELSE 0 END)::numeric, 2) AS tutorial_hours,
     ROUND(SUM(CASE WHEN activity_name = 'Lab' THEN allocated_hours ELSE 0 END)::numeric, 2) AS lab_hours,
@@ -40,17 +73,20 @@ SELECT course_code AS "Course Code", instance_id AS "Course Instance ID", hp AS
     + ROUND((2*hp + 28 + 0.2*num_students)::numeric, 2)
     + ROUND((32 + 0.725*num_students)::numeric, 2)
     )::numeric, 2) AS total_hours
-FROM v_allocation_hours WHERE study_year = 2025
-GROUP BY course_code, instance_id, hp, study_period, num_students ORDER BY course_code, instance_id;
+FROM v_allocation_hours WHERE study_year >= (SELECT MIN(study_year) FROM course_instance)
+GROUP BY study_year, course_code, instance_id, hp, study_period, num_students ORDER BY study_year, course_code, instance_id;
+
+CREATE UNIQUE INDEX idx_query1_key ON "query1" ("Study Year", "Course Instance ID");
 
-SELECT * FROM "query1";
+SELECT * FROM "query1" WHERE "Study Year" = 2025;
 
 
 \echo 'running query 2'
-DROP VIEW IF EXISTS "query2";
-CREATE VIEW "query2" AS
+-- Per-teacher, per-instance hours for ALL study years. query2 is the current-year
+-- slice of it; historical ("as of") cost reconstructions read it directly by instance.
+CREATE OR REPLACE VIEW v_instance_teacher_hours AS
 SELECT b.course_code AS "Course Code", b.instance_id AS "Course Instance ID", b.hp AS "HP", b.employment_id AS "Employment ID", 
-  b.study_period AS "Period", b.teacher_name AS "Teacher Name", jt.job_title AS "Designation",
+  b.study_year AS "Study Year", b.study_period AS "Period", b.teacher_name AS "Teacher Name", jt.job_title AS "Designation",
   ROUND(b.lecture_hours::numeric, 2) AS "Lecture Hours", ROUND(b.tutorial_hours::numeric, 2) AS "Tutorial Hours",
   ROUND(b.lab_hours::numeric, 2) AS "Lab Hours", ROUND(b.seminar_hours::numeric, 2) AS "Seminar Hours",
   ROUND(b.other_overhead_hours::numeric, 2) AS "Other Overhead Hours",
@@ -60,7 +96,7 @@ SELECT b.course_code AS "Course Code", b.instance_id AS "Course Instance ID", b.
   ROUND((b.lecture_hours + b.tutorial_hours + b.lab_hours + b.seminar_hours + b.other_overhead_hours +
     ((2*b.hp + 28 + 0.2*b.num_students) / b.teacher_count) + ((32 + 0.725*b.num_students) / b.teacher_count))::numeric, 2) AS "Total Hours"
 FROM (
-  SELECT v.course_code, v.instance_id, v.hp, v.study_period, v.teacher_name, v.employment_id,
+  SELECT v.course_code, v.instance_id, v.hp, v.study_year, v.study_period, v.teacher_name, v.employment_id,
     MAX(v.num_students) AS num_students,
     SUM(CASE WHEN v.activity_name = 'Lecture' THEN v.allocated_hours ELSE 0 END) AS lecture_hours,
     SUM(CASE WHEN v.activity_name = 'Tutorial' THEN v.allocated_hours ELSE 0 END) AS tutorial_hours,
@@ -68,22 +104,34 @@ FROM (
     SUM(CASE WHEN v.activity_name = 'Seminar' THEN v.allocated_hours ELSE 0 END) AS seminar_hours,
     SUM(CASE WHEN v.activity_name = 'Others' THEN v.allocated_hours ELSE 0 END) AS other_overhead_hours,
     -- how many teachers are allocated on this course instance
-    COUNT(*) OVER (PARTITION BY v.course_code, v.instance_id) AS teacher_count
+    -- (study_year is listed so filters on "Study Year" can be pushed below the window)
+    COUNT(*) OVER (PARTITION BY v.study_year, v.course_code, v.instance_id) AS teacher_count
   FROM v_allocation_hours v
-  WHERE v.study_year = EXTRACT(YEAR FROM CURRENT_DATE)::INT
-  GROUP BY v.course_code, v.instance_id, v.hp, v.study_period, v.teacher_name, v.employment_id
+  GROUP BY v.course_code, v.instance_id, v.hp, v.study_year, v.study_period, v.teacher_name, v.employment_id
 ) b
 JOIN employee  e  ON e.employment_id = b.employment_id
-JOIN job_title jt ON jt.id = e.job_title_id
-ORDER BY b.teacher_name, b.course_code, b.instance_id;
+JOIN job_title jt ON jt.id = e.job_title_id;
+
+DROP VIEW IF EXISTS "query2";
+CREATE VIEW "query2" AS
+SELECT "Course Code", "Course Instance ID", "HP", "Employment ID", "Period", "Teacher Name", "Designation",
+  "Lecture Hours", "Tutorial Hours", "Lab Hours", "Seminar Hours", "Other Overhead Hours",
+  "Admin", "Exam", "Total Hours"
+FROM v_instance_teacher_hours
+WHERE "Study Year" = EXTRACT(YEAR FROM CURRENT_DATE)::INT
+ORDER BY "Teacher Name", "Course Code", "Course Instance ID";
 
 SELECT * FROM "query2";
 
 \echo 'running query 3'
 DROP MATERIALIZED VIEW IF EXISTS "query3";
+-- One row per teacher (employment_id; NULL for planned activities nobody teaches yet).
+-- "Teacher Key" is the employment_id with '' for that row: the unique index for
+-- REFRESH ... CONCURRENTLY must be on plain, non-null columns (no expression, and
+-- NULLS NOT DISTINCT needs PostgreSQL 15).
 CREATE MATERIALIZED VIEW "query3" AS
-SELECT b.course_code AS "Course Code", b.instance_id AS "Course Instance ID", b.hp AS "HP",
-  b.study_period AS "Period", b.teacher_name AS "Teacher Name",
+SELECT b.study_year AS "Study Year", b.course_code AS "Course Code", b.instance_id AS "Course Instance ID", b.hp AS "HP",
+  b.study_period AS "Period", b.employment_id AS "Employment ID", b.teacher_name AS "Teacher Name",
   ROUND(b.lecture_hours::numeric, 2) AS "Lecture Hours",
   ROUND(b.tutorial_hours::numeric, 2) AS "Tutorial Hours",
   ROUND(b.lab_hours::numeric, 2) AS "Lab Hours",
@@ -94,22 +142,26 @@ SELECT b.course_code AS "Course Code", b.instance_id AS "Course Instance ID", b.
   ROUND(((32 + 0.725*b.num_students) / b.teacher_count)::numeric, 2) AS "Exam",
   ROUND((b.lecture_hours + b.tutorial_hours + b.lab_hours + b.seminar_hours + b.other_overhead_hours +
     ((2*b.hp + 28 + 0.2*b.num_students) / b.teacher_count) +
-    ((32 + 0.725*b.num_students) / b.teacher_count))::numeric, 2) AS "Total Hours"
+    ((32 + 0.725*b.num_students) / b.teacher_count))::numeric, 2) AS "Total Hours",
+  COALESCE(b.employment_id, '') AS "Teacher Key"
 FROM (
-  SELECT course_code, instance_id, hp, study_period, teacher_name, MAX(num_students) AS num_students,
+  SELECT study_year, course_code, instance_id, hp, study_period, employment_id, teacher_name,
+    MAX(num_students) AS num_students,
     SUM(CASE WHEN activity_name = 'Lecture' THEN allocated_hours ELSE 0 END) AS lecture_hours,
     SUM(CASE WHEN activity_name = 'Tutorial' THEN allocated_hours ELSE 0 END) AS tutorial_hours,
     SUM(CASE WHEN activity_name = 'Lab' THEN allocated_hours ELSE 0 END) AS lab_hours,
     SUM(CASE WHEN activity_name = 'Seminar' THEN allocated_hours ELSE 0 END) AS seminar_hours,
     SUM(CASE WHEN activity_name = 'Others' THEN allocated_hours ELSE 0 END) AS other_overhead_hours,
     -- number of teachers per course instance
-    COUNT(*) OVER (PARTITION BY course_code, instance_id) AS teacher_count
-  FROM v_allocation_hours v WHERE study_year = 2025
-  GROUP BY course_code, instance_id, hp, study_period, teacher_name
+    COUNT(*) OVER (PARTITION BY study_year, course_code, instance_id) AS teacher_count
+  FROM v_allocation_hours v WHERE study_year >= (SELECT MIN(study_year) FROM course_instance)
+  GROUP BY study_year, course_code, instance_id, hp, study_period, employment_id, teacher_name
 ) b
-ORDER BY b.teacher_name, b.course_code, b.instance_id;
+ORDER BY b.study_year, b.teacher_name, b.course_code, b.instance_id;
+
+CREATE UNIQUE INDEX idx_query3_key ON "query3" ("Study Year", "Course Instance ID", "Teacher Key");
 
-SELECT * FROM "query3";
+SELECT * FROM "query3" WHERE "Study Year" = 2025;
 
 
 \echo 'running query 4'
@@ -0,0 +1,151 @@
+-- PARTITIONING MIGRATION
+-- Converts course_instance, planned_activity and allocations from the plain
+-- layout of schema.sql to tables LIST-partitioned by study_year
+-- (one partition per year, e.g. allocations_2025).
+--
+-- Every hot query filters on study_year, so with one partition per year the
+-- planner only touches the relevant year and current-year latency stays flat
+-- while history accumulates.
+--
+-- Run after schema.sql, functions.sql, triggers.sql and seeds.sql, and BEFORE
+-- indexes.sql and olap.sql (the old tables are dropped with CASCADE, which also
+-- drops the views that olap.sql creates).
+-- Also works on databases created from an older schema.sql without the
+-- study_year columns on planned_activity / allocations: they are added and
+-- filled in step 1. Running it again on partitioned tables does nothing.
+--
+-- Partitions for the current and next year are created here and by
+-- ensure_study_year_partitions(), which the application calls at startup.
+-- instance_id stays unique across years: the primary key can only cover
+-- (study_year, instance_id), so trigger unique_instance_id (functions.sql K)
+-- checks the other years; statements keyed by instance_id alone rely on it.
+
+SELECT relkind = 'p' AS already_partitioned
+FROM pg_class
+WHERE oid = to_regclass('course_instance') \gset
+
+\if :already_partitioned
+\echo '==> course_instance is already partitioned, nothing to do'
+\else
+
+BEGIN;
+
+-- 1) Make sure the partition key exists on all three tables
+
+\echo '==> Adding/filling study_year on planned_activity and allocations'
+ALTER TABLE planned_activity ADD COLUMN IF NOT EXISTS study_year INT;
+ALTER TABLE allocations      ADD COLUMN IF NOT EXISTS study_year INT;
+
+UPDATE planned_activity pa
+SET study_year = ci.study_year
+FROM course_instance ci
+WHERE ci.instance_id = pa.instance_id
+  AND pa.study_year IS NULL;
+
+UPDATE allocations a
+SET study_year = ci.study_year
+FROM course_instance ci
+WHERE ci.instance_id = a.instance_id
+  AND a.study_year IS NULL;
+
+-- 2) Keep the rows aside and drop the plain tables
+--    (CASCADE also removes dependent views and triggers; they are recreated below / by olap.sql)
+
+\echo '==> Copying rows aside'
+CREATE TEMP TABLE mig_course_instance  ON COMMIT DROP AS
+  SELECT instance_id, num_students, study_period, study_year, course_layout_id FROM course_instance;
+CREATE TEMP TABLE mig_planned_activity ON COMMIT DROP AS
+  SELECT instance_id, planned_hours, teaching_activity_id, study_year FROM planned_activity;
+CREATE TEMP TABLE mig_allocations      ON COMMIT DROP AS
+  SELECT instance_id, teaching_activity_id, employment_id, allocated_hours, study_year FROM allocations;
+
+DROP TABLE allocations CASCADE;
+DROP TABLE planned_activity CASCADE;
+DROP TABLE course_instance CASCADE;
+
+-- 3) Partitioned tables (same columns as schema.sql; keys lead with study_year)
+
+\echo '==> Creating partitioned tables'
+CREATE TABLE course_instance (
+  instance_id       VARCHAR(100) NOT NULL,
+  num_students      INT,
+  study_period      study_period_t,
+  study_year        INT NOT NULL,
+  course_layout_id  INT NOT NULL
+                      REFERENCES course_layout(id)
+                      ON DELETE RESTRICT,
+  PRIMARY KEY (study_year, instance_id)
+) PARTITION BY LIST (study_year);
+
+CREATE TABLE planned_activity (
+  instance_id        VARCHAR(100) NOT NULL,
+  planned_hours      DOUBLE PRECISION,
+  teaching_activity_id BIGINT NOT NULL
+                       REFERENCES teaching_activity(id)
+                       ON DELETE RESTRICT,
+  study_year         INT NOT NULL,
+  FOREIGN KEY (study_year, instance_id) REFERENCES course_instance(study_year, instance_id) ON DELETE CASCADE,
+  PRIMARY KEY (study_year, instance_id, teaching_activity_id)
+) PARTITION BY LIST (study_year);
+
+CREATE TABLE allocations (
+  instance_id          VARCHAR(100) NOT NULL,
+  teaching_activity_id BIGINT      NOT NULL,
+  employment_id        VARCHAR(500) NOT NULL REFERENCES employee(employment_id) ON DELETE CASCADE,
+  allocated_hours DOUBLE PRECISION NOT NULL,
+  study_year           INT         NOT NULL,
+  FOREIGN KEY (study_year, instance_id, teaching_activity_id)
+    REFERENCES planned_activity(study_year, instance_id, teaching_activity_id) ON DELETE CASCADE,
+  PRIMARY KEY (study_year, instance_id, teaching_activity_id, employment_id)
+) PARTITION BY LIST (study_year);
+
+-- 4) One partition per existing year, plus current and next year
+
+\echo '==> Creating yearly partitions'
+SELECT create_study_year_partitions(y)
+FROM (SELECT DISTINCT study_year AS y FROM mig_course_instance) years;
+
+SELECT ensure_study_year_partitions();
+
+-- 5) Move the rows back (parents before children)
+
+\echo '==> Reloading rows into partitions'
+INSERT INTO course_instance  SELECT * FROM mig_course_instance;
+INSERT INTO planned_activity SELECT * FROM mig_planned_activity;
+
+-- The rows were already validated when first inserted; skip the per-row max-4
+-- trigger by loading before it is recreated below.
+INSERT INTO allocations      SELECT * FROM mig_allocations;
+
+-- 6) Triggers that were dropped with the old tables (same as triggers.sql)
+
+\echo '==> Recreating triggers'
+CREATE TRIGGER check_max4_allocations
+BEFORE INSERT ON allocations
+FOR EACH ROW
+EXECUTE FUNCTION trg_check_max4_allocations();
+
+CREATE TRIGGER notify_allocations_change
+AFTER INSERT OR UPDATE OR DELETE ON allocations
+FOR EACH ROW
+EXECUTE FUNCTION trg_notify_change();
+
+CREATE TRIGGER notify_planned_activity_change
+AFTER INSERT OR UPDATE OR DELETE ON planned_activity
+FOR EACH ROW
+EXECUTE FUNCTION trg_notify_change();
+
+CREATE TRIGGER notify_course_instance_change
+AFTER INSERT OR UPDATE OR DELETE ON course_instance
+FOR EACH ROW
+EXECUTE FUNCTION trg_notify_change();
+
+CREATE TRIGGER unique_instance_id
+BEFORE INSERT OR UPDATE OF instance_id, study_year ON course_instance
+FOR EACH ROW
+EXECUTE FUNCTION trg_unique_instance_id();
+
+COMMIT;
+
+\echo '==> Partitioning complete.'
+\endif
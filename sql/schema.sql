@@ -71,6 +71,8 @@ CREATE TABLE salary (
       REFERENCES employee(employment_id) ON DELETE CASCADE,
   salary        NUMERIC(10,2) NOT NULL CHECK (salary >= 0),
   created_at    TIMESTAMP NOT NULL DEFAULT now(),
+  -- validity range [created_at, valid_to): closed when a newer salary becomes current
+  valid_to      TIMESTAMP NOT NULL DEFAULT 'infinity',
   is_current    BOOLEAN NOT NULL DEFAULT TRUE
 );
 
@@ -79,7 +81,8 @@ DROP TABLE IF EXISTS teaching_activity CASCADE;
 CREATE TABLE teaching_activity (
   id            INT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,                           
   activity_name VARCHAR(500) UNIQUE NOT NULL,
-  factor        DOUBLE PRECISION                                  
+  factor        DOUBLE PRECISION,
+  min_skill_level skill_level_t                                  -- lowest level that may teach it (NULL = any)
 );
 
 -- ---------- course_layout ----------
@@ -96,28 +99,32 @@ CREATE TABLE course_layout (
 );
 
 -- ---------- course_instance ----------
+-- study_year is the partition key of course_instance, planned_activity and
+-- allocations (see partitioning.sql), so the two child tables carry it too and
+-- every key/foreign key leads with it.
 DROP TABLE IF EXISTS course_instance CASCADE;
 CREATE TABLE course_instance (
   instance_id       VARCHAR(100) PRIMARY KEY,                    
   num_students      INT,
   study_period      study_period_t,                              -- "study_period AS ENUM('P1','P2','P3','P4')"
-  study_year        INT,
+  study_year        INT NOT NULL,
   course_layout_id  INT NOT NULL
                       REFERENCES course_layout(id)
-                      ON DELETE RESTRICT                        
+                      ON DELETE RESTRICT,
+  UNIQUE (study_year, instance_id)
 );
 
 -- ---------- planned_activity ----------
 DROP TABLE IF EXISTS planned_activity CASCADE;
 CREATE TABLE planned_activity (
-  instance_id        VARCHAR(100) NOT NULL
-                       REFERENCES course_instance(instance_id)
-                       ON DELETE CASCADE,                        
+  instance_id        VARCHAR(100) NOT NULL,
   planned_hours      DOUBLE PRECISION,                           
   teaching_activity_id BIGINT NOT NULL
                        REFERENCES teaching_activity(id)
                        ON DELETE RESTRICT,                       
-  PRIMARY KEY (instance_id, teaching_activity_id)
+  study_year         INT NOT NULL,
+  FOREIGN KEY (study_year, instance_id) REFERENCES course_instance(study_year, instance_id) ON DELETE CASCADE,
+  PRIMARY KEY (study_year, instance_id, teaching_activity_id)
 );
 
 -- ---------- allocations ----------
@@ -126,9 +133,11 @@ CREATE TABLE allocations (
   teaching_activity_id BIGINT      NOT NULL,
   employment_id        VARCHAR(500) NOT NULL REFERENCES employee(employment_id) ON DELETE CASCADE,
   allocated_hours DOUBLE PRECISION NOT NULL,
-  FOREIGN KEY (instance_id, teaching_activity_id) REFERENCES planned_activity(instance_id, teaching_activity_id) ON DELETE CASCADE,
+  study_year           INT         NOT NULL,
+  FOREIGN KEY (study_year, instance_id, teaching_activity_id)
+    REFERENCES planned_activity(study_year, instance_id, teaching_activity_id) ON DELETE CASCADE,
   -- One row per (instance, activity, teacher)
-  PRIMARY KEY (instance_id, teaching_activity_id, employment_id)
+  PRIMARY KEY (study_year, instance_id, teaching_activity_id, employment_id)
 );
 
 -- ---------- skill ----------
@@ -145,3 +154,88 @@ CREATE TABLE employee_skills (
   skill_id INT NOT NULL REFERENCES skill(id) ON DELETE RESTRICT,
   PRIMARY KEY (employment_id, skill_id)
 );
+
+-- ---------- course_skill (cross table) ----------
+-- Skills a teacher needs to teach a course (all of them); course_code is not
+-- unique in course_layout (versions), so it is not a foreign key.
+DROP TABLE IF EXISTS course_skill CASCADE;
+CREATE TABLE course_skill (
+  course_code VARCHAR(6) NOT NULL,
+  skill_id    INT NOT NULL REFERENCES skill(id) ON DELETE CASCADE,
+  PRIMARY KEY (course_code, skill_id)
+);
+
+-- ---------- audit_log (append-only) ----------
+-- One row per committed use case that changed allocations or student counts,
+-- written asynchronously in batches by the application (AuditLogWriter).
+-- No foreign keys: the trail must outlive the rows it describes.
+DROP TABLE IF EXISTS audit_log CASCADE;
+CREATE TABLE audit_log (
+  id             BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+  committed_at   TIMESTAMPTZ  NOT NULL,
+  actor          VARCHAR(200) NOT NULL,
+  use_case       VARCHAR(50)  NOT NULL,
+  instance_id    VARCHAR(100),
+  employment_id  VARCHAR(500),
+  activity_name  VARCHAR(500),
+  details        TEXT
+);
+
+-- ---------- change_seq ----------
+-- Database change marker for the application's warm-state file (WarmStateFile):
+-- every change that can affect the cached data draws a number (see trg_notify_change
+-- and trg_bump_change_seq). Sequences are not transactional and take no row lock,
+-- so writers never wait for each other here; a rolled-back change only makes a
+-- saved state look stale. The number is drawn BEFORE the writer commits, so a
+-- marker alone does not prove that its changes are visible: the application reads
+-- the marker first and then accepts a REPEATABLE READ snapshot only if
+-- pg_snapshot_xip(pg_current_snapshot()) is empty (DBHandler.noWriteInProgress).
+DROP SEQUENCE IF EXISTS change_seq;
+CREATE SEQUENCE change_seq;
+
+-- ---------- archive of closed study years ----------
+-- Filled by the "archive <year>" use case (ArchiveService): a closed year leaves the
+-- hot, partitioned tables and is kept here, read-only. The views in olap.sql read
+-- both sides, so reports and "as of" costs do not depend on where a year lives.
+-- No foreign keys, few indexes, rows written once in instance order.
+
+-- One flat row per (instance, planned activity, teacher), the shape of
+-- v_allocation_hours, with the course data it needs copied in.
+DROP TABLE IF EXISTS allocation_archive CASCADE;
+CREATE TABLE allocation_archive (
+  study_year           INT          NOT NULL,
+  instance_id          VARCHAR(100) NOT NULL,
+  study_period         study_period_t,
+  num_students         INT,
+  course_layout_id     INT          NOT NULL,
+  course_code          VARCHAR(6)   NOT NULL,
+  hp                   DOUBLE PRECISION,
+  teaching_activity_id BIGINT,            -- NULL: instance without planned activities
+  planned_hours        DOUBLE PRECISION,
+  employment_id        VARCHAR(500),      -- NULL: planned activity without a teacher
+  allocated_hours      DOUBLE PRECISION
+);
+
+-- Superseded salary versions that closed before the archived years ended
+DROP TABLE IF EXISTS salary_archive CASCADE;
+CREATE TABLE salary_archive (
+  id            INT PRIMARY KEY,
+  employment_id VARCHAR(500) NOT NULL,
+  salary        NUMERIC(10,2) NOT NULL,
+  created_at    TIMESTAMP NOT NULL,
+  valid_to      TIMESTAMP NOT NULL,
+  is_current    BOOLEAN NOT NULL
+);
+
+-- Superseded course_layout versions no live instance refers to any more
+DROP TABLE IF EXISTS course_layout_archive CASCADE;
+CREATE TABLE course_layout_archive (
+  id            INT PRIMARY KEY,
+  course_code   VARCHAR(6) NOT NULL,
+  course_name   VARCHAR(500),
+  min_students  INT,
+  max_students  INT,
+  hp            DOUBLE PRECISION,
+  created_at    TIMESTAMPTZ NOT NULL,
+  is_current    BOOLEAN NOT NULL
+);
@@ -118,6 +118,13 @@ CREATE TABLE stage.employee_skills (
   skill_id INT
 );
 
+-- course_skill (by skill name)
+DROP TABLE IF EXISTS stage.course_skill CASCADE;
+CREATE TABLE stage.course_skill (
+  course_code VARCHAR(6),
+  skill_name  VARCHAR(200)
+);
+
 -- 2) LOAD CSVs INTO STAGING
 
 \echo '==> Loading CSVs into staging...'
@@ -135,6 +142,7 @@ CREATE TABLE stage.employee_skills (
 \copy stage.allocations       FROM 'allocations.csv'       CSV HEADER ENCODING 'UTF8'
 \copy stage.skill             FROM 'skills.csv'            CSV HEADER ENCODING 'UTF8'
 \copy stage.employee_skills   FROM 'employee_skills.csv'   CSV HEADER ENCODING 'UTF8'
+\copy stage.course_skill      FROM 'course_skills.csv'     CSV HEADER ENCODING 'UTF8'
 
 
 -- 4) INSERT INTO REAL TABLES (parents → children)
@@ -164,6 +172,15 @@ INSERT INTO teaching_activity (activity_name, factor)
 SELECT DISTINCT activity_name, factor
 FROM stage.teaching_activity;
 
+-- Lowest skill level allowed to teach each activity (used by the candidates lookup)
+UPDATE teaching_activity
+SET min_skill_level = CASE activity_name
+                        WHEN 'Lecture'  THEN 'advanced'::skill_level_t
+                        WHEN 'Seminar'  THEN 'intermediate'::skill_level_t
+                        WHEN 'Lab'      THEN 'beginner'::skill_level_t
+                        WHEN 'Tutorial' THEN 'beginner'::skill_level_t
+                      END;
+
 \echo '==> Inserting: course_layout (versioned; trigger handles is_current)'
 INSERT INTO course_layout (course_code, course_name, min_students, max_students, hp, created_at)
 SELECT course_code, course_name, min_students, max_students, hp, COALESCE(created_at, now())
@@ -181,10 +198,11 @@ JOIN course_layout cl
      );
 
 \echo '==> Inserting: planned_activity'
-INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours)
-SELECT pa.instance_id, ta.id, pa.planned_hours
+INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours, study_year)
+SELECT pa.instance_id, ta.id, pa.planned_hours, ci.study_year
 FROM stage.planned_activity pa
-JOIN teaching_activity ta ON ta.activity_name = pa.activity_name;
+JOIN teaching_activity ta ON ta.activity_name = pa.activity_name
+JOIN course_instance   ci ON ci.instance_id   = pa.instance_id;
 
 \echo '==> Inserting: employee (resolve dept/title by name, person by personal_number)'
 INSERT INTO employee (employment_id, person_id, skill_level,
@@ -211,9 +229,21 @@ INSERT INTO salary (employment_id, salary, created_at, is_current)
 SELECT s.employment_id, s.salary, COALESCE(s.created_at, now()), COALESCE(s.is_current, TRUE)
 FROM stage.salary s;
 
+\echo '==> Deriving salary validity ranges (valid_to = next version''s created_at)'
+UPDATE salary s
+SET valid_to = v.next_created_at
+FROM (
+  SELECT id, LEAD(created_at) OVER (PARTITION BY employment_id
+                                    ORDER BY created_at, is_current, id) AS next_created_at
+  FROM salary
+) v
+WHERE v.id = s.id
+  AND NOT s.is_current
+  AND v.next_created_at IS NOT NULL;
+
 \echo '==> Inserting: allocations (validated against planned_activity)'
-INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours)
-SELECT al.instance_id, ta.id, al.employment_id, al.allocated_hours
+INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours, study_year)
+SELECT al.instance_id, ta.id, al.employment_id, al.allocated_hours, pa.study_year
 FROM stage.allocations al
 JOIN teaching_activity ta ON ta.activity_name = al.activity_name
 JOIN planned_activity  pa ON pa.instance_id = al.instance_id
@@ -234,6 +264,11 @@ JOIN employee e ON e.employment_id = ses.employment_id
 JOIN skill    s ON s.id = ses.skill_id
 ON CONFLICT (employment_id, skill_id) DO NOTHING;
 
+INSERT INTO course_skill (course_code, skill_id)
+SELECT DISTINCT scs.course_code, s.id
+FROM stage.course_skill scs
+JOIN skill s ON s.name = scs.skill_name;
+
 COMMIT;
 
 \echo '==> Seed complete.'
@@ -0,0 +1,100 @@
+-- SHARD SPLIT
+-- Turns a full copy of the database into one department shard (see ShardRouter):
+-- keeps the given departments, their employees, and the course instances they own;
+-- everything else is removed. Reference data (course_layout, teaching_activity,
+-- skill) stays on every shard.
+--
+-- Usage, once per shard database (after the usual DBstart.sh setup):
+--   psql -d iv1351_east -v departments='Computer Science' -v keep_unallocated=true -f sql/shard_split.sql
+--   psql -d iv1351_west -v departments='Mathematics' -f sql/shard_split.sql
+--
+-- An instance is owned by the department whose teachers have the most allocated
+-- hours on it (ties: lowest department id). Instances without allocations have no
+-- owner; they are kept only where keep_unallocated=true (set it on ONE shard).
+-- Shards do not share allocations, so a teacher allocated to an instance owned by
+-- another department would lose that allocation. The split then stops before
+-- changing anything and lists those allocations: reassign them first (CLI
+-- 'reassign' on the full database). The check covers every department, so the
+-- first shard split already finds them.
+
+\set ON_ERROR_STOP on
+
+\if :{?departments}
+\else
+\echo 'Set -v departments=''Dept A,Dept B'''
+\quit
+\endif
+
+\if :{?keep_unallocated}
+\else
+\set keep_unallocated false
+\endif
+
+BEGIN;
+
+CREATE TEMP TABLE keep_department ON COMMIT DROP AS
+SELECT id
+FROM department
+WHERE department_name = ANY (string_to_array(:'departments', ','));
+
+\echo '==> Owning department of every allocated instance'
+CREATE TEMP TABLE instance_owner ON COMMIT DROP AS
+SELECT DISTINCT ON (a.study_year, a.instance_id)
+       a.study_year, a.instance_id, e.department_id
+FROM allocations a
+JOIN employee e ON e.employment_id = a.employment_id
+GROUP BY a.study_year, a.instance_id, e.department_id
+ORDER BY a.study_year, a.instance_id, SUM(a.allocated_hours) DESC, e.department_id;
+
+\echo '==> Checking for allocations across departments (they would be lost)'
+CREATE TEMP TABLE cross_allocation ON COMMIT DROP AS
+SELECT a.study_year, a.instance_id, a.employment_id, a.allocated_hours,
+       owner.department_name AS owning_department,
+       teacher.department_name AS teacher_department
+FROM allocations a
+JOIN employee e        ON e.employment_id = a.employment_id
+JOIN instance_owner o  ON o.study_year = a.study_year AND o.instance_id = a.instance_id
+JOIN department owner   ON owner.id = o.department_id
+JOIN department teacher ON teacher.id = e.department_id
+WHERE e.department_id <> o.department_id;
+
+SELECT study_year, instance_id, employment_id, allocated_hours, owning_department, teacher_department
+FROM cross_allocation
+ORDER BY study_year, instance_id, employment_id
+LIMIT 20;
+
+DO $$
+DECLARE
+  v_count BIGINT;
+BEGIN
+  SELECT COUNT(*) INTO v_count FROM cross_allocation;
+  IF v_count > 0 THEN
+    RAISE EXCEPTION '% allocation(s) of teachers on instances owned by another department (listed above); reassign them before splitting', v_count;
+  END IF;
+END$$;
+
+\echo '==> Removing instances owned by other departments (planned activities and allocations cascade)'
+DELETE FROM course_instance ci
+WHERE NOT EXISTS (SELECT 1
+                  FROM instance_owner o
+                  WHERE o.study_year  = ci.study_year
+                    AND o.instance_id = ci.instance_id
+                    AND o.department_id IN (SELECT id FROM keep_department))
+  AND (EXISTS (SELECT 1
+               FROM instance_owner o
+               WHERE o.study_year  = ci.study_year
+                 AND o.instance_id = ci.instance_id)
+       OR NOT :keep_unallocated);
+
+\echo '==> Removing employees of other departments (salaries, skills, allocations, phones cascade)'
+DELETE FROM person p
+USING employee e
+WHERE e.person_id = p.id
+  AND e.department_id NOT IN (SELECT id FROM keep_department);
+
+DELETE FROM department
+WHERE id NOT IN (SELECT id FROM keep_department);
+
+COMMIT;
+
+\echo '==> Shard split complete.'
@@ -23,3 +23,121 @@ CREATE TRIGGER check_max4_allocations
 BEFORE INSERT ON allocations
 FOR EACH ROW
 EXECUTE FUNCTION trg_check_max4_allocations();
+
+
+-- D) Publish compact change notifications (see trg_notify_change)
+DROP TRIGGER IF EXISTS notify_allocations_change ON allocations;
+CREATE TRIGGER notify_allocations_change
+AFTER INSERT OR UPDATE OR DELETE ON allocations
+FOR EACH ROW
+EXECUTE FUNCTION trg_notify_change();
+
+DROP TRIGGER IF EXISTS notify_planned_activity_change ON planned_activity;
+CREATE TRIGGER notify_planned_activity_change
+AFTER INSERT OR UPDATE OR DELETE ON planned_activity
+FOR EACH ROW
+EXECUTE FUNCTION trg_notify_change();
+
+DROP TRIGGER IF EXISTS notify_course_instance_change ON course_instance;
+CREATE TRIGGER notify_course_instance_change
+AFTER INSERT OR UPDATE OR DELETE ON course_instance
+FOR EACH ROW
+EXECUTE FUNCTION trg_notify_change();
+
+-- Salary: one message per statement, so a bulk revision sends one (see trg_notify_salary_change).
+-- A trigger with a transition table handles one event, hence three.
+DROP TRIGGER IF EXISTS notify_salary_change ON salary;
+DROP TRIGGER IF EXISTS notify_salary_insert ON salary;
+CREATE TRIGGER notify_salary_insert
+AFTER INSERT ON salary
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_salary_change();
+
+DROP TRIGGER IF EXISTS notify_salary_update ON salary;
+CREATE TRIGGER notify_salary_update
+AFTER UPDATE ON salary
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_salary_change();
+
+DROP TRIGGER IF EXISTS notify_salary_delete ON salary;
+CREATE TRIGGER notify_salary_delete
+AFTER DELETE ON salary
+REFERENCING OLD TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_salary_change();
+
+
+-- Skill index sources: one message per statement (see trg_notify_skill_change)
+DROP TRIGGER IF EXISTS notify_employee_skill_change ON employee;
+CREATE TRIGGER notify_employee_skill_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON employee
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_skill_change();
+
+DROP TRIGGER IF EXISTS notify_person_skill_change ON person;
+CREATE TRIGGER notify_person_skill_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON person
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_skill_change();
+
+DROP TRIGGER IF EXISTS notify_employee_skills_change ON employee_skills;
+CREATE TRIGGER notify_employee_skills_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON employee_skills
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_skill_change();
+
+DROP TRIGGER IF EXISTS notify_course_skill_change ON course_skill;
+CREATE TRIGGER notify_course_skill_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON course_skill
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_skill_change();
+
+DROP TRIGGER IF EXISTS notify_teaching_activity_skill_change ON teaching_activity;
+CREATE TRIGGER notify_teaching_activity_skill_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON teaching_activity
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_notify_skill_change();
+
+
+-- G) Keep audit_log append-only
+DROP TRIGGER IF EXISTS audit_log_append_only ON audit_log;
+CREATE TRIGGER audit_log_append_only
+BEFORE UPDATE OR DELETE ON audit_log
+FOR EACH ROW
+EXECUTE FUNCTION trg_audit_log_append_only();
+
+
+-- I) Move the change marker on changes to cached reference tables (see trg_bump_change_seq)
+DROP TRIGGER IF EXISTS bump_teaching_activity_change ON teaching_activity;
+CREATE TRIGGER bump_teaching_activity_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON teaching_activity
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_bump_change_seq();
+
+DROP TRIGGER IF EXISTS bump_course_layout_change ON course_layout;
+CREATE TRIGGER bump_course_layout_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON course_layout
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_bump_change_seq();
+
+DROP TRIGGER IF EXISTS bump_employee_change ON employee;
+CREATE TRIGGER bump_employee_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON employee
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_bump_change_seq();
+
+DROP TRIGGER IF EXISTS bump_person_change ON person;
+CREATE TRIGGER bump_person_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON person
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_bump_change_seq();
+
+
+-- K) instance_id unique across study years (needed once course_instance is partitioned)
+DROP TRIGGER IF EXISTS unique_instance_id ON course_instance;
+CREATE TRIGGER unique_instance_id
+BEFORE INSERT OR UPDATE OF instance_id, study_year ON course_instance
+FOR EACH ROW
+EXECUTE FUNCTION trg_unique_instance_id();
@@ -1,37 +1,118 @@
 package kth.iv1351.coursealloc;
 
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import kth.iv1351.coursealloc.controller.Controller;
-import kth.iv1351.coursealloc.integration.DBHandler;
+import kth.iv1351.coursealloc.integration.ShardRouter;
 import kth.iv1351.coursealloc.view.CommandLineInterpreter;
 
 /**
  * Application entry point, similar to StartUp in jdbc-intro.
+ * With --fast-start the prompt is shown right away: the database connection is
+ * opened lazily and partitions, reference data and the reporting snapshot are
+ * loaded by a background warm-up thread instead of before the prompt.
+ * With a shards.properties file, every department shard gets its own
+ * DBHandler, change listener and audit writer (see ShardRouter).
+ * On quit (and on Ctrl+C) the caches are saved to warm-state files in target/
+ * (-Dcoursealloc.warmstate=<dir>, empty to disable); the next start maps them
+ * instead of reading the database, as long as the database has not changed.
+ * -Dcoursealloc.record=<trace_file> records the use case calls from the start
+ * (see the CLI command "record" and tools.WorkloadReplay).
  */
 
 public class StartUp {
 
+    private static final AtomicBoolean shutDown = new AtomicBoolean();
+
     public static void main(String[] args) {
         try {
+            boolean fastStart = args.length > 0 && args[0].equals("--fast-start");
+
             // 1. Define URL / user / password
             String url = "jdbc:postgresql://localhost:5432/iv1351";
             String user = "postgres";      
             String password = "Panas1";  
 
-            // 2. Create DBHandler
-            DBHandler db = new DBHandler(url, user, password);
+            // 2. Create one DBHandler per shard (shards.properties if present, otherwise
+            //    just the database above); lazy connections on fast start
+            ShardRouter router = ShardRouter.fromConfig(url, user, password, fastStart);
+
+            if (!fastStart) {
+                for (ShardRouter.Shard shard : router.getShards()) {
+                    // 3. (Temporary) test connection
+                    shard.db.testConnection();
 
-            // 3. (Temporary) test connection
-            db.testConnection();
+                    // 3b. Make sure this and next year's study_year partitions exist
+                    shard.db.ensureYearPartitions();
+                }
+            }
 
-            // 4. Create controller & view & start view
-            Controller contr = new Controller(db);
+            // 4. Start the change feed listeners and audit log writers (own connections,
+            //    background threads); audit logs are flushed on quit and, as far as possible, on Ctrl+C
+            router.start();
+
+            // 5. Create controller & view & start view
+            String warmStateDir = System.getProperty("coursealloc.warmstate", "target");
+            Controller contr = new Controller(router, warmStateDir.isEmpty() ? null : Path.of(warmStateDir));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(contr, router), "shard-shutdown"));
+            String traceFile = System.getProperty("coursealloc.record");
+            if (traceFile != null && !traceFile.isEmpty()) {
+                contr.startRecording(Path.of(traceFile));
+            }
+            if (fastStart) {
+                startWarmUp(contr);
+                long sinceJvmStart = System.currentTimeMillis()
+                        - ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("Ready in " + sinceJvmStart + " ms (warming up in background)");
+            } else {
+                int restored = contr.restoreWarmState();
+                if (restored > 0) {
+                    System.out.println("Restored warm state of " + restored + " shard(s)");
+                }
+            }
             CommandLineInterpreter cli = new CommandLineInterpreter(contr);
             cli.start();
+            shutdown(contr, router);
 
         } catch (Exception e) {
             System.out.println("Fatal error during startup: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    // Saves the warm state for the next start, then stops the shards. Runs once: on quit or on Ctrl+C.
+    private static void shutdown(Controller contr, ShardRouter router) {
+        if (!shutDown.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            contr.saveWarmState();
+        } catch (Exception e) {
+            System.out.println("[warm state not saved: " + e.getMessage() + "]");
+        }
+        try {
+            contr.stopRecording();
+        } catch (Exception e) {
+            System.out.println("[workload trace incomplete: " + e.getMessage() + "]");
+        }
+        router.stop();
+    }
+
+    // Runs the warm-up on a daemon thread; failures only cost speed, the use cases load on demand.
+    private static void startWarmUp(Controller contr) {
+        Thread warmUp = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                contr.warmUp();
+                System.out.println("[warm-up done in " + (System.nanoTime() - start) / 1_000_000 + " ms]");
+            } catch (Exception e) {
+                System.out.println("[warm-up failed: " + e.getMessage() + "]");
+            }
+        }, "warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
 }
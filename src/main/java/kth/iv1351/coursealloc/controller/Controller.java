@@ -1,21 +1,58 @@
 package kth.iv1351.coursealloc.controller;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import kth.iv1351.coursealloc.integration.DBHandler;
+import kth.iv1351.coursealloc.integration.ShardRouter;
+import kth.iv1351.coursealloc.integration.ShardRouter.Shard;
+import kth.iv1351.coursealloc.integration.WarmStateFile;
+import kth.iv1351.coursealloc.integration.WorkloadTrace;
+import kth.iv1351.coursealloc.model.AllocationHoursSnapshot;
+import kth.iv1351.coursealloc.model.AllocationSummary;
+import kth.iv1351.coursealloc.model.ArchiveResult;
+import kth.iv1351.coursealloc.model.BudgetExceededException;
+import kth.iv1351.coursealloc.model.BulkAllocationResult;
+import kth.iv1351.coursealloc.model.ChangeEvent;
 import kth.iv1351.coursealloc.model.CourseInstanceCost;
 import kth.iv1351.coursealloc.model.ExerciseAllocationInfo;
+import kth.iv1351.coursealloc.model.InstanceSummary;
+import kth.iv1351.coursealloc.model.LatencyBudget;
+import kth.iv1351.coursealloc.model.LockProfile;
+import kth.iv1351.coursealloc.model.Page;
+import kth.iv1351.coursealloc.model.SalaryRevisionResult;
+import kth.iv1351.coursealloc.model.TeacherCandidate;
 import kth.iv1351.coursealloc.model.TeacherOverloadedException;
+import kth.iv1351.coursealloc.model.TeacherPeriodLoad;
+import kth.iv1351.coursealloc.model.TeacherSummary;
+import kth.iv1351.coursealloc.model.ViewRefreshStatus;
 
 import kth.iv1351.coursealloc.model.CourseService;
 import kth.iv1351.coursealloc.model.AllocationService;
 import kth.iv1351.coursealloc.model.TeachingService;
+import kth.iv1351.coursealloc.model.ReportingService;
+import kth.iv1351.coursealloc.model.BrowsingService;
+import kth.iv1351.coursealloc.model.WarmUpService;
+import kth.iv1351.coursealloc.model.CandidateService;
+import kth.iv1351.coursealloc.model.ArchiveService;
+import kth.iv1351.coursealloc.model.SalaryService;
 
 /**
  * Controller
  * Responsibilities:
  *   - Expose use-case methods to the CLI.
  *   - Delegate each use case to the appropriate domain service.
+ *   - Route each call to the shard (database) that owns the instance, teacher or
+ *     department; cross-shard reports ask all shards in parallel and merge.
+ *   - Optionally record every use case call to a workload trace (startRecording).
  *   - Perform NO business logic.
  *   - Perform NO transaction management (no begin/commit/rollback).
  * All business rules live in the model/domain layer (services).
@@ -23,31 +60,148 @@ import kth.iv1351.coursealloc.model.TeachingService;
  */
 public class Controller {
 
-    private final CourseService courseService;
-    private final AllocationService allocationService;
-    private final TeachingService teachingService;
+    // The domain services of one shard, all bound to that shard's DBHandler
+    private static class ShardServices {
+        final CourseService courseService;
+        final AllocationService allocationService;
+        final TeachingService teachingService;
+        final ReportingService reportingService;
+        final WarmUpService warmUpService;
+        final BrowsingService browsingService;
+        final CandidateService candidateService;
+        final ArchiveService archiveService;
+        final SalaryService salaryService;
 
-    public Controller(DBHandler db) {
-        this.courseService = new CourseService(db);
-        this.allocationService = new AllocationService(db);
-        this.teachingService = new TeachingService(db);
+        ShardServices(DBHandler db, WarmStateFile warmState) {
+            this.reportingService = new ReportingService(db);
+            this.courseService = new CourseService(db, reportingService);
+            this.allocationService = new AllocationService(db);
+            this.teachingService = new TeachingService(db);
+            this.warmUpService = new WarmUpService(db, reportingService, warmState);
+            this.browsingService = new BrowsingService(db);
+            this.candidateService = new CandidateService(db);
+            this.archiveService = new ArchiveService(db);
+            this.salaryService = new SalaryService(db);
+        }
+    }
+
+    // A use case call that may be recorded (see startRecording); X: its business exception, if any
+    @FunctionalInterface
+    private interface RecordedCall<T, X extends Exception> {
+        T call() throws SQLException, X;
+    }
+
+    private final ShardRouter router;
+    private final Map<Shard, ShardServices> services = new IdentityHashMap<>();
+    private volatile WorkloadTrace.Writer recorder; // null: not recording
+
+    public Controller(ShardRouter router) {
+        this(router, null);
+    }
+
+    /**
+     * @param warmStateDir directory for the per-shard warm-state files
+     *                     (warm-state-&lt;shard&gt;.bin), null to start cold every time
+     */
+    public Controller(ShardRouter router, Path warmStateDir) {
+        this.router = router;
+        for (Shard shard : router.getShards()) {
+            WarmStateFile warmState = warmStateDir == null ? null
+                    : new WarmStateFile(warmStateDir.resolve("warm-state-" + shard.name + ".bin"));
+            ShardServices s = new ShardServices(shard.db, warmState);
+            services.put(shard, s);
+            shard.changes.subscribe(s.reportingService::onChange);
+            shard.changes.subscribe(shard.db::onChange);
+            shard.changes.subscribe(shard.views::onChange);
+            shard.changes.subscribe(s.candidateService::onChange);
+        }
+    }
+
+    // Runs the call; while recording, also writes op, arguments, outcome and latency to the trace.
+    private <T, X extends Exception> T recorded(String op, RecordedCall<T, X> call, Object... args)
+            throws SQLException, X {
+        WorkloadTrace.Writer writer = recorder;
+        if (writer == null) {
+            return call.call();
+        }
+        long start = System.nanoTime();
+        byte outcome = WorkloadTrace.ERROR;
+        try {
+            T result = call.call();
+            outcome = WorkloadTrace.OK;
+            return result;
+        } catch (Exception e) {
+            if (e instanceof BudgetExceededException) {
+                outcome = WorkloadTrace.OVER_BUDGET;
+            } else if (e instanceof TeacherOverloadedException) {
+                outcome = WorkloadTrace.REJECTED;
+            }
+            throw e; // precise rethrow: only SQLException, X or unchecked
+        } finally {
+            writer.write(op, args, start, System.nanoTime(), outcome);
+        }
+    }
+
+    /**
+     * Starts recording the use case calls (cost, allocations, student counts, reports,
+     * candidates; not listings or admin commands) to a new trace file, for
+     * tools.WorkloadReplay. A running recording is finished first.
+     */
+    public synchronized void startRecording(Path traceFile) throws IOException {
+        stopRecording();
+        recorder = new WorkloadTrace.Writer(traceFile);
+    }
+
+    /** Finishes the recording; returns the number of calls recorded, -1 if none was running. */
+    public synchronized long stopRecording() throws IOException {
+        WorkloadTrace.Writer writer = recorder;
+        if (writer == null) {
+            return -1;
+        }
+        recorder = null;
+        writer.close();
+        return writer.getCalls();
+    }
+
+    /** The trace file being written, null if not recording. */
+    public Path recordingPath() {
+        WorkloadTrace.Writer writer = recorder;
+        return writer == null ? null : writer.getPath();
+    }
+
+    private ShardServices forInstance(String instanceId) throws SQLException {
+        return services.get(router.forInstance(instanceId));
+    }
+
+    private ShardServices forEmployee(String employmentId) throws SQLException {
+        return services.get(router.forEmployee(employmentId));
     }
 
     public CourseInstanceCost computeCourseCost(String instanceId)
             throws SQLException {
-        return courseService.computeCourseCost(instanceId);
+        return recorded("cost", () -> forInstance(instanceId).courseService.computeCourseCost(instanceId),
+                instanceId);
+    }
+
+    public CourseInstanceCost computeCourseCostAsOf(String instanceId, LocalDateTime asOf)
+            throws SQLException {
+        return recorded("cost_as_of", () -> forInstance(instanceId).courseService.computeCourseCostAsOf(instanceId, asOf),
+                instanceId, asOf);
     }
 
     public int increaseStudents(String instanceId, int delta)
             throws SQLException {
-        return courseService.increaseStudents(instanceId, delta);
+        return recorded("inc_students", () -> forInstance(instanceId).courseService.increaseStudents(instanceId, delta),
+                instanceId, delta);
     }
 
     public ExerciseAllocationInfo addExercise(String instanceId,
                                               String employmentId,
                                               double plannedHours)
             throws SQLException {
-        return allocationService.addExercise(instanceId, employmentId, plannedHours);
+        return recorded("add_exercise", () ->
+                        forInstance(instanceId).allocationService.addExercise(instanceId, employmentId, plannedHours),
+                instanceId, employmentId, plannedHours);
     }
 
     public void allocateTeaching(String instanceId,
@@ -55,13 +209,274 @@ public class Controller {
                                  String activityName,
                                  double allocatedHours)
             throws SQLException, TeacherOverloadedException {
-        teachingService.allocateTeaching(instanceId, employmentId, activityName, allocatedHours);
+        recorded("alloc", () -> {
+            forInstance(instanceId).teachingService.allocateTeaching(instanceId, employmentId, activityName, allocatedHours);
+            return null;
+        }, instanceId, employmentId, activityName, allocatedHours);
     }
 
     public void deallocateTeaching(String instanceId,
                                    String employmentId,
                                    String activityName)
             throws SQLException {
-        allocationService.deallocateTeaching(instanceId, employmentId, activityName);
+        recorded("dealloc", () -> {
+            forInstance(instanceId).allocationService.deallocateTeaching(instanceId, employmentId, activityName);
+            return null;
+        }, instanceId, employmentId, activityName);
+    }
+
+    public BulkAllocationResult reassignTeacher(String fromEmploymentId,
+                                                String toEmploymentId,
+                                                int studyYear,
+                                                String studyPeriod,
+                                                String instanceId,
+                                                String activityName)
+            throws SQLException, TeacherOverloadedException {
+        return recorded("reassign", () -> forEmployee(fromEmploymentId).teachingService.reassignTeacher(
+                        fromEmploymentId, toEmploymentId, studyYear, studyPeriod, instanceId, activityName),
+                fromEmploymentId, toEmploymentId, studyYear, studyPeriod, instanceId, activityName);
+    }
+
+    public BulkAllocationResult deallocateAll(String employmentId,
+                                              int studyYear,
+                                              String studyPeriod,
+                                              String instanceId,
+                                              String activityName)
+            throws SQLException {
+        return recorded("dealloc_all", () -> forEmployee(employmentId).allocationService.deallocateAll(
+                        employmentId, studyYear, studyPeriod, instanceId, activityName),
+                employmentId, studyYear, studyPeriod, instanceId, activityName);
+    }
+
+    /**
+     * Reloads the snapshot, the skill index and the candidate loads of every shard
+     * (in parallel); one snapshot per shard.
+     */
+    public List<AllocationHoursSnapshot> refreshSnapshot() throws SQLException {
+        return router.fanOut(shard -> {
+            ShardServices s = services.get(shard);
+            s.candidateService.refresh();
+            return s.reportingService.refreshSnapshot();
+        });
+    }
+
+    public List<TeacherCandidate> candidates(String instanceId, String activityName, int limit)
+            throws SQLException {
+        return recorded("candidates", () ->
+                        forInstance(instanceId).candidateService.candidates(instanceId, activityName, limit),
+                instanceId, activityName, limit);
+    }
+
+    public CourseInstanceCost computeCourseCostFromSnapshot(String instanceId)
+            throws SQLException {
+        return recorded("snap_cost", () -> forInstance(instanceId).reportingService.computeCourseCost(instanceId),
+                instanceId);
+    }
+
+    public double teacherHours(String employmentId, int studyYear)
+            throws SQLException {
+        return recorded("teacher_hours", () -> forEmployee(employmentId).reportingService.teacherHours(employmentId, studyYear),
+                employmentId, studyYear);
+    }
+
+    public List<TeacherPeriodLoad> periodLoad(int studyYear, String studyPeriod)
+            throws SQLException {
+        return recorded("period_load", () -> mergedPeriodLoad(studyYear, studyPeriod), studyYear, studyPeriod);
+    }
+
+    private List<TeacherPeriodLoad> mergedPeriodLoad(int studyYear, String studyPeriod)
+            throws SQLException {
+        List<TeacherPeriodLoad> merged = new ArrayList<>();
+        for (List<TeacherPeriodLoad> part : router.fanOut(shard ->
+                services.get(shard).reportingService.periodLoad(studyYear, studyPeriod))) {
+            merged.addAll(part);
+        }
+        // Same order as a single snapshot: most instances first, then by name
+        merged.sort(Comparator.comparingInt(TeacherPeriodLoad::getNumInstances).reversed()
+                .thenComparing(load -> String.valueOf(load.getTeacherName())));
+        return merged;
+    }
+
+    // Listings: pass the last item of the previous page as 'after' (null for the first page).
+    // Listings over all shards fetch one page per shard after the same key and merge them.
+
+    public Page<InstanceSummary> listInstances(int studyYear, String studyPeriod,
+                                               InstanceSummary after, int pageSize)
+            throws SQLException {
+        return Page.merge(router.fanOut(shard ->
+                        services.get(shard).browsingService.listInstances(studyYear, studyPeriod, after, pageSize)),
+                Comparator.comparing(InstanceSummary::getInstanceId, Page.CODE_POINT_ORDER), pageSize);
+    }
+
+    public Page<AllocationSummary> listAllocationsByTeacher(String employmentId,
+                                                            AllocationSummary after, int pageSize)
+            throws SQLException {
+        return forEmployee(employmentId).browsingService.listAllocationsByTeacher(employmentId, after, pageSize);
+    }
+
+    public Page<AllocationSummary> listAllocationsByInstance(String instanceId,
+                                                             AllocationSummary after, int pageSize)
+            throws SQLException {
+        return forInstance(instanceId).browsingService.listAllocationsByInstance(instanceId, after, pageSize);
+    }
+
+    public Page<TeacherSummary> listTeachersByDepartment(String departmentName,
+                                                         TeacherSummary after, int pageSize)
+            throws SQLException {
+        Shard shard = router.forDepartment(departmentName);
+        if (shard != null) {
+            return services.get(shard).browsingService.listTeachersByDepartment(departmentName, after, pageSize);
+        }
+        return Page.merge(router.fanOut(s ->
+                        services.get(s).browsingService.listTeachersByDepartment(departmentName, after, pageSize)),
+                Comparator.comparing(TeacherSummary::getEmploymentId, Page.CODE_POINT_ORDER), pageSize);
+    }
+
+    public Page<TeacherSummary> listTeachersBySkill(String skillName,
+                                                    TeacherSummary after, int pageSize)
+            throws SQLException {
+        return Page.merge(router.fanOut(shard ->
+                        services.get(shard).browsingService.listTeachersBySkill(skillName, after, pageSize)),
+                Comparator.comparing(TeacherSummary::getEmploymentId, Page.CODE_POINT_ORDER), pageSize);
+    }
+
+    /** Archives a closed study year on every shard (in parallel); one result per shard. */
+    public List<ArchiveResult> archiveYear(int studyYear) throws SQLException {
+        return router.fanOut(shard -> services.get(shard).archiveService.archiveYear(studyYear));
+    }
+
+    /**
+     * Raises all current salaries of a department (null = everyone) by a percentage:
+     * on the department's shard, or on every shard in parallel; one result per shard.
+     */
+    public List<SalaryRevisionResult> raiseSalaries(String departmentName, double percent)
+            throws SQLException {
+        return forDepartment(departmentName, shard ->
+                services.get(shard).salaryService.raiseByPercent(departmentName, percent));
+    }
+
+    /** New salaries per job title for a department (null = everyone); one result per shard. */
+    public List<SalaryRevisionResult> setSalariesByJobTitle(String departmentName,
+                                                            Map<String, Double> salaryByJobTitle)
+            throws SQLException {
+        return forDepartment(departmentName, shard ->
+                services.get(shard).salaryService.setByJobTitle(departmentName, salaryByJobTitle));
+    }
+
+    // Runs a call on the department's shard if it is configured, otherwise on all shards
+    private <T> List<T> forDepartment(String departmentName, ShardRouter.ShardCall<T> call)
+            throws SQLException {
+        Shard shard = departmentName == null ? null : router.forDepartment(departmentName);
+        if (shard != null) {
+            return List.of(call.call(shard));
+        }
+        return router.fanOut(call);
+    }
+
+    /** Refresh state of the materialized report views, all shards in shard order. */
+    public List<ViewRefreshStatus> viewStatus() {
+        List<ViewRefreshStatus> status = new ArrayList<>();
+        for (Shard shard : router.getShards()) {
+            status.addAll(shard.views.status());
+        }
+        return status;
+    }
+
+    /** Schedules a refresh of every materialized report view on every shard. */
+    public void refreshViews() {
+        for (Shard shard : router.getShards()) {
+            shard.views.refreshAll();
+        }
+    }
+
+    /** Starts (on) or stops (off) lock profiling on every shard; the numbers are kept. */
+    public void setLockProfiling(boolean on) {
+        for (Shard shard : router.getShards()) {
+            if (on) {
+                shard.locks.start();
+            } else {
+                shard.locks.stop();
+            }
+        }
+    }
+
+    public void resetLockProfiles() {
+        for (Shard shard : router.getShards()) {
+            shard.locks.reset();
+        }
+    }
+
+    /** Lock contention report of every shard, in shard order. */
+    public List<LockProfile> lockProfiles() {
+        List<LockProfile> profiles = new ArrayList<>();
+        for (Shard shard : router.getShards()) {
+            profiles.add(shard.locks.report());
+        }
+        return profiles;
+    }
+
+    /** Latency budgets per use case with their counters (shared by all shards). */
+    public List<LatencyBudget> latencyBudgets() {
+        return router.getBudgets().report();
+    }
+
+    /** Sets the budget of a use case in ms (0 = none), for all shards. */
+    public void setLatencyBudget(String useCase, long millis) {
+        router.getBudgets().setBudget(useCase, millis);
+    }
+
+    public void resetLatencyCounters() {
+        router.getBudgets().reset();
+    }
+
+    /** Warms up all shards in parallel. */
+    public void warmUp() throws SQLException {
+        router.fanOut(shard -> {
+            services.get(shard).warmUpService.warmUp();
+            return null;
+        });
+    }
+
+    /**
+     * Loads the warm-state files saved at the last shutdown (one cheap marker
+     * query per shard, no data read). Returns the number of shards restored.
+     */
+    public int restoreWarmState() throws SQLException {
+        int restored = 0;
+        for (boolean ok : router.fanOut(shard -> services.get(shard).warmUpService.restoreWarmState())) {
+            restored += ok ? 1 : 0;
+        }
+        return restored;
+    }
+
+    /** Saves the warm state of every shard for the next start. Returns the number of files written. */
+    public int saveWarmState() throws SQLException {
+        int saved = 0;
+        for (boolean ok : router.fanOut(shard -> {
+            try {
+                return services.get(shard).warmUpService.saveWarmState();
+            } catch (IOException e) {
+                throw new SQLException("Could not write warm-state file: " + e.getMessage(), e);
+            }
+        })) {
+            saved += ok ? 1 : 0;
+        }
+        return saved;
+    }
+
+    /**
+     * Subscribes to committed changes made by any session (this or other app instances),
+     * on all shards. Close the returned handle to stop receiving events.
+     */
+    public AutoCloseable watchChanges(Consumer<ChangeEvent> subscriber) {
+        List<AutoCloseable> subscriptions = new ArrayList<>();
+        for (Shard shard : router.getShards()) {
+            subscriptions.add(shard.changes.subscribe(subscriber));
+        }
+        return () -> {
+            for (AutoCloseable subscription : subscriptions) {
+                subscription.close();
+            }
+        };
     }
 }
@@ -0,0 +1,266 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.AuditEvent;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.postgresql.PGConnection;
+
+/**
+ * AuditLogWriter (Integration Layer)
+ * ----------------------------------
+ * Responsibilities:
+ *   - Accepts committed audit events from DBHandler in a bounded, lock-free
+ *     queue: record(...) is a CAS on a counter plus a queue append, no I/O.
+ *   - Owns its OWN JDBC Connection and one daemon thread that drains the queue
+ *     in batches and appends them to audit_log with COPY (one round trip per batch).
+ *   - Backpressure: when the queue is full, record(...) waits (briefly) for the
+ *     writer to make room; only if the database stays unreachable are events
+ *     dropped, and the drop count is reported.
+ *   - A batch the database rejects for its data (SQLState class 22 or 23) is not
+ *     retried as a whole: it is written again one event at a time, and the events
+ *     that still fail are dropped and printed (dead letters), so one bad event
+ *     cannot block the ones behind it.
+ *   - stop() flushes everything still queued before returning.
+ */
+public class AuditLogWriter {
+    private static final int CAPACITY = 10_000;
+    private static final int BATCH_SIZE = 500;
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final long FULL_WAIT_MS = 500;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    private static final String COPY_SQL =
+            "COPY audit_log (committed_at, actor, use_case, instance_id, employment_id, activity_name, details) " +
+            "FROM STDIN (FORMAT csv)";
+
+    // One queued event with the commit time of its transaction
+    private static class Entry {
+        final AuditEvent event;
+        final long committedAtMillis;
+
+        Entry(AuditEvent event, long committedAtMillis) {
+            this.event = event;
+            this.committedAtMillis = committedAtMillis;
+        }
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String actor;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();  // bounds the queue to CAPACITY
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();  // dead letters: refused by the database
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /** @param actor who is recorded as having made the changes (e.g. the OS user) */
+    public AuditLogWriter(String url, String user, String password, String actor) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.actor = actor;
+    }
+
+    /** Starts the background writer thread. Calling it twice has no effect. */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops the writer after it has flushed all queued events (waits at most 10 s). */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        long lost = queue.size() + dropped.get();
+        if (lost > 0) {
+            System.out.println("Audit log: " + lost + " events could not be written.");
+        }
+        if (rejected.get() > 0) {
+            System.out.println("Audit log: " + rejected.get() + " events were rejected by the database.");
+        }
+    }
+
+    /**
+     * Queues one committed event. Called by DBHandler right after commit.
+     * Returns false if the event had to be dropped (queue stayed full).
+     */
+    public boolean record(AuditEvent event, long committedAtMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FULL_WAIT_MS);
+        while (true) {
+            int n = queued.get();
+            if (n < CAPACITY) {
+                if (queued.compareAndSet(n, n + 1)) {
+                    queue.add(new Entry(event, committedAtMillis));
+                    if (n + 1 >= BATCH_SIZE) {
+                        wakeWriter();
+                    }
+                    return true;
+                }
+                continue; // lost the race for the slot, try again
+            }
+            // Full: let the writer catch up, but never block the caller indefinitely
+            wakeWriter();
+            if (!running || System.nanoTime() > deadline) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void wakeWriter() {
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // Writer loop: drain the queue batch by batch, connecting only when there is
+    // something to write; on shutdown keep going until the queue is empty.
+    private void run() {
+        long backoffMs = 500;
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        Connection conn = null;
+        try {
+            while (running || !queue.isEmpty() || !batch.isEmpty()) {
+                if (batch.isEmpty()) {
+                    drainTo(batch);
+                }
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+                    continue;
+                }
+                try {
+                    if (conn == null) {
+                        conn = DriverManager.getConnection(url, user, password);
+                        conn.setAutoCommit(true); // every COPY is its own small transaction
+                    }
+                    try {
+                        copy(conn, batch);
+                    } catch (SQLException e) {
+                        if (!isDataError(e)) {
+                            throw e;
+                        }
+                        copyOneByOne(conn, batch);
+                    }
+                    batch.clear();
+                    backoffMs = 500;
+                } catch (Exception e) {
+                    // The failed batch is kept and written again after reconnecting
+                    closeQuietly(conn);
+                    conn = null;
+                    if (!running) {
+                        // shutting down without a database: stop() reports what is lost
+                        dropped.addAndGet(batch.size());
+                        return;
+                    }
+                    System.out.println("Audit writer lost its connection: " + e.getMessage()
+                            + " (retrying in " + backoffMs + " ms)");
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs));
+                    backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                }
+            }
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    private void copy(Connection conn, List<Entry> entries) throws SQLException, IOException {
+        conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL, new StringReader(toCsv(entries)));
+    }
+
+    // After a data error: every event on its own; the ones the database rejects are dropped.
+    // Removes the written and dropped events from the batch, so a lost connection
+    // half-way only retries the rest.
+    private void copyOneByOne(Connection conn, List<Entry> batch) throws SQLException, IOException {
+        while (!batch.isEmpty()) {
+            List<Entry> one = batch.subList(0, 1);
+            try {
+                copy(conn, one);
+            } catch (SQLException e) {
+                if (!isDataError(e)) {
+                    throw e;
+                }
+                rejected.incrementAndGet();
+                System.out.println("Audit log rejected an event (" + e.getSQLState() + ": " + e.getMessage()
+                        + "), dropped: " + toCsv(one).trim());
+            }
+            one.clear();
+        }
+    }
+
+    // Class 22 (data exception) or 23 (integrity constraint violation): retrying cannot help
+    private static boolean isDataError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    private static void closeQuietly(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+                // nothing left to do with a broken connection
+            }
+        }
+    }
+
+    private void drainTo(List<Entry> batch) {
+        Entry e;
+        while (batch.size() < BATCH_SIZE && (e = queue.poll()) != null) {
+            batch.add(e);
+        }
+        queued.addAndGet(-batch.size());
+    }
+
+    private String toCsv(List<Entry> batch) {
+        StringBuilder sb = new StringBuilder(batch.size() * 96);
+        for (Entry e : batch) {
+            AuditEvent ev = e.event;
+            sb.append(Instant.ofEpochMilli(e.committedAtMillis)).append(',');
+            appendCsv(sb, actor).append(',');
+            appendCsv(sb, ev.getUseCase()).append(',');
+            appendCsv(sb, ev.getInstanceId()).append(',');
+            appendCsv(sb, ev.getEmploymentId()).append(',');
+            appendCsv(sb, ev.getActivityName()).append(',');
+            appendCsv(sb, ev.getDetails()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // null -> empty unquoted field (CSV NULL); values are always quoted
+    private static StringBuilder appendCsv(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb;
+        }
+        return sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
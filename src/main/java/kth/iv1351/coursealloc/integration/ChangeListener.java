@@ -0,0 +1,168 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.ChangeEvent;
+
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * ChangeListener (Integration Layer)
+ * ----------------------------------
+ * Responsibilities:
+ *   - Owns its OWN JDBC Connection that LISTENs on 'coursealloc_changes'
+ *     (the channel fed by trg_notify_change, see sql/functions.sql).
+ *   - Runs one daemon thread that decodes the compact payloads into
+ *     ChangeEvent objects and publishes them to in-process subscribers.
+ *   - Reconnects with a small back-off if the connection is lost. Notifications
+ *     sent meanwhile are gone, so after every re-LISTEN a resync event
+ *     (ChangeEvent.resync) tells the subscribers to invalidate everything.
+ *
+ * Subscribers are called on the listener thread, so they must be quick and
+ * must not use DBHandler's connection directly.
+ */
+public class ChangeListener {
+    private static final String CHANNEL = "coursealloc_changes";
+    private static final int POLL_TIMEOUT_MS = 500;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final List<Consumer<ChangeEvent>> subscribers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public ChangeListener(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    /** Starts the background listener thread. Calling it twice has no effect. */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops the listener thread and closes its connection. */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Registers a subscriber for all change events.
+     * Closing the returned handle unsubscribes again.
+     */
+    public AutoCloseable subscribe(Consumer<ChangeEvent> subscriber) {
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    // Listener loop: (re)connect, LISTEN, then poll for notifications.
+    private void run() {
+        long backoffMs = 500;
+        boolean listenedBefore = false;
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(url, user, password)) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL);
+                }
+                backoffMs = 500;
+                if (listenedBefore) {
+                    publish(ChangeEvent.resync(System.currentTimeMillis()));
+                }
+                listenedBefore = true;
+
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification n : notifications) {
+                        ChangeEvent event = decode(n.getParameter());
+                        if (event != null) {
+                            publish(event);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                System.out.println("Change listener lost its connection: " + e.getMessage()
+                        + " (retrying in " + backoffMs + " ms)");
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    // Delivers an event that did not come from this database (ShardRouter) to the subscribers.
+    void forward(ChangeEvent event) {
+        publish(event);
+    }
+
+    private void publish(ChangeEvent event) {
+        for (Consumer<ChangeEvent> subscriber : subscribers) {
+            try {
+                subscriber.accept(event);
+            } catch (RuntimeException e) {
+                // One broken subscriber must not stop the feed for the others
+                System.out.println("Change subscriber failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Decodes "<table>|<op>|<instance_id>|<employment_id>".
+     * Returns null for payloads this version does not understand.
+     */
+    static ChangeEvent decode(String payload) {
+        String[] parts = payload.split("\\|", -1);
+        if (parts.length != 4 || parts[0].length() != 1 || parts[1].length() != 1) {
+            return null;
+        }
+
+        ChangeEvent.Table table;
+        switch (parts[0].charAt(0)) {
+            case 'A': table = ChangeEvent.Table.ALLOCATIONS; break;
+            case 'P': table = ChangeEvent.Table.PLANNED_ACTIVITY; break;
+            case 'I': table = ChangeEvent.Table.COURSE_INSTANCE; break;
+            case 'S': table = ChangeEvent.Table.SALARY; break;
+            case 'K': table = ChangeEvent.Table.SKILLS; break;
+            default: return null;
+        }
+
+        ChangeEvent.Operation op;
+        switch (parts[1].charAt(0)) {
+            case 'I': op = ChangeEvent.Operation.INSERT; break;
+            case 'U': op = ChangeEvent.Operation.UPDATE; break;
+            case 'D': op = ChangeEvent.Operation.DELETE; break;
+            default: return null;
+        }
+
+        String instanceId = parts[2].isEmpty() ? null : parts[2];
+        String employmentId = parts[3].isEmpty() ? null : parts[3];
+        return new ChangeEvent(table, op, instanceId, employmentId, System.currentTimeMillis());
+    }
+}
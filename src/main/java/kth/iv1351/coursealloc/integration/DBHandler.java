@@ -1,15 +1,41 @@
 package kth.iv1351.coursealloc.integration;
 
+import kth.iv1351.coursealloc.model.AllocationHoursSnapshot;
+import kth.iv1351.coursealloc.model.AllocationSummary;
+import kth.iv1351.coursealloc.model.AuditEvent;
+import kth.iv1351.coursealloc.model.BudgetExceededException;
+import kth.iv1351.coursealloc.model.ChangeEvent;
 import kth.iv1351.coursealloc.model.CourseInstanceCost;
 import kth.iv1351.coursealloc.model.ExerciseAllocationInfo;
+import kth.iv1351.coursealloc.model.InstanceSummary;
+import kth.iv1351.coursealloc.model.Page;
+import kth.iv1351.coursealloc.model.SkillIndex;
+import kth.iv1351.coursealloc.model.TeacherLoadIndex;
+import kth.iv1351.coursealloc.model.TeacherSummary;
 
+import java.math.BigDecimal;
 import java.sql.*;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * DBHandler (DAO / Integration Layer)
  * -----------------------------------
  * Responsibilities:
- *   - Owns a single JDBC Connection (auto-commit disabled).
+ *   - Owns a small pool of JDBC Connections (auto-commit disabled), opened
+ *     eagerly (the first one) or lazily on first use (fast startup).
  *   - Provides CRUD and query methods for the rest of the application.
  *   - Provides a generic transaction wrapper (executeInTransaction) that
  *     begins, commits and rolls back transactions.
@@ -19,13 +45,112 @@ import java.sql.*;
  *   - Controllers do NOT call begin/commit/rollback directly anymore.
  *   - Instead, domain services call executeInTransaction(...) when they
  *     need a multi-statement operation to be atomic.
+ *   - Every transaction borrows a pooled connection for its duration (bound
+ *     to the calling thread); with a pool of one, transactions are serialized,
+ *     so a background thread (warm-up) can always share the DBHandler with the CLI.
+ *   - Collects audit events during a transaction and hands them to the
+ *     AuditLogWriter only after commit (nothing is audited on rollback),
+ *     once the connection is free for the next transaction.
+ *   - Caches immutable-ish reference data (activity ids, instance periods);
+ *     entries are dropped by onChange(...) when the change feed reports them.
+ *   - Reports lock and queue waiting per use case to the LockProfiler, when it runs.
+ *   - Averages salaries over the salaries of other databases too, when it is one
+ *     shard of several (setOtherSalaries), so costs match a single database.
  */
 public class DBHandler {
-    private final Connection connection;
+    /**
+     * Resolves the study_year of an instance inside the statement itself, so
+     * statements keyed only by instance_id still prune the year-partitioned
+     * tables at run time without an extra round trip.
+     * At most one row: instance_id is unique across study years (trigger
+     * unique_instance_id, sql/functions.sql K).
+     */
+    private static final String YEAR_OF_INSTANCE =
+            "(SELECT study_year FROM course_instance WHERE instance_id = ?)";
+
+    /** Same as YEAR_OF_INSTANCE, but also finds instances of archived years. */
+    private static final String YEAR_OF_ANY_INSTANCE =
+            "(SELECT study_year FROM v_instance_year WHERE instance_id = ? LIMIT 1)";
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private static final String QUERY_CANCELED = "57014"; // cancel request (watchdog) or statement_timeout
+
+    // Connection pool: one permit per connection; idle connections are reused, the
+    // rest opened on demand. The running transaction's connection is bound to its thread.
+    private final Semaphore permits;
+    private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private final ThreadLocal<Transaction> current = new ThreadLocal<>();
+
+    private volatile AuditLogWriter auditLog;
+    private volatile LockProfiler lockProfiler;
+    private volatile LatencyBudgets latencyBudgets;
+    private volatile OtherSalaries otherSalaries;
+
+    // Reference data caches (see getTeachingActivityIdByName / getInstancePeriod)
+    private final Map<String, Long> activityIds = new ConcurrentHashMap<>();
+    private final Map<String, InstancePeriod> instancePeriods = new ConcurrentHashMap<>();
 
     public DBHandler(String url, String user, String password) throws SQLException {
-        this.connection = DriverManager.getConnection(url, user, password);
-        this.connection.setAutoCommit(false); // manual transaction control
+        this(url, user, password, false);
+    }
+
+    /**
+     * @param lazy if true, the connection is opened on first use instead of here,
+     *             so the application can show its prompt before the database answers.
+     */
+    public DBHandler(String url, String user, String password, boolean lazy) throws SQLException {
+        this(url, user, password, lazy, 1);
+    }
+
+    /**
+     * @param poolSize at most this many connections, i.e. transactions running at once
+     */
+    public DBHandler(String url, String user, String password, boolean lazy, int poolSize)
+            throws SQLException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1: " + poolSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.permits = new Semaphore(poolSize, true);
+        if (!lazy) {
+            idle.add(openConnection());
+        }
+    }
+
+    // One transaction's connection and the audit events it has recorded so far.
+    private static class Transaction {
+        final Connection connection;
+        final List<AuditEvent> pendingAudit = new ArrayList<>();
+
+        Transaction(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        Connection c = DriverManager.getConnection(url, user, password);
+        c.setAutoCommit(false); // manual transaction control
+        return c;
+    }
+
+    // The connection of the calling thread's transaction (see executeInTransaction).
+    private Connection connection() {
+        Transaction tx = current.get();
+        if (tx == null) {
+            throw new IllegalStateException("No transaction: call inside executeInTransaction(...)");
+        }
+        return tx.connection;
+    }
+
+    // An idle pooled connection, or a new one. The caller holds a permit.
+    private Connection borrowConnection() throws SQLException {
+        Connection c = idle.pollFirst();
+        return c != null ? c : openConnection();
     }
 
     /**
@@ -47,14 +172,192 @@ public class DBHandler {
      * This is the ONLY place where commit/rollback is done.
      */
     public <T> T executeInTransaction(TransactionCallback<T> action) throws SQLException {
+        return executeInTransaction(null, null, null, action);
+    }
+
+    /**
+     * Same, labelled with the use case and the instance / teacher it works on
+     * (null if not applicable). While the LockProfiler runs, the label becomes the
+     * transaction's application_name and waiting times are reported to it.
+     * If the use case has a latency budget (LatencyBudgets), waiting for the
+     * connection and running the transaction together may take at most that long;
+     * otherwise the transaction is cancelled, rolled back and BudgetExceededException thrown.
+     */
+    public <T> T executeInTransaction(String useCase, String instanceId, String employmentId,
+                                      TransactionCallback<T> action) throws SQLException {
+        return executeInTransaction(useCase, instanceId, employmentId, false, action);
+    }
+
+    /**
+     * Same, but REPEATABLE READ: every statement of the callback sees the database
+     * as of the transaction's first query, and pg_current_snapshot() describes
+     * exactly that view (see noWriteInProgress()). For consistent multi-statement reads.
+     */
+    public <T> T executeInSnapshotTransaction(String useCase, TransactionCallback<T> action)
+            throws SQLException {
+        return executeInTransaction(useCase, null, null, true, action);
+    }
+
+    private <T> T executeInTransaction(String useCase, String instanceId, String employmentId,
+                                       boolean repeatableRead, TransactionCallback<T> action)
+            throws SQLException {
+        LockProfiler profiler = lockProfiler;
+        boolean profiling = profiler != null && profiler.isRunning();
+        LatencyBudgets budgets = latencyBudgets;
+        long budgetMillis = budgets == null ? 0 : budgets.budgetMillis(useCase);
+        long requested = System.nanoTime();
+
+        // Nested call (this thread is inside a transaction already): runs on, and commits, its connection
+        Transaction outer = current.get();
+        if (outer == null) {
+            if (budgetMillis > 0) {
+                if (!acquirePermit(budgetMillis)) {
+                    budgets.transactionFinished(useCase, System.nanoTime() - requested, true);
+                    throw new BudgetExceededException(useCase, budgetMillis, null);
+                }
+            } else {
+                permits.acquireUninterruptibly();
+            }
+            try {
+                current.set(new Transaction(borrowConnection()));
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+        Transaction tx = current.get();
+        long acquired = System.nanoTime();
+        LatencyBudgets.Watch watch = null;
+        boolean exceeded = false;
+        List<AuditEvent> committedAudit = null;
+        long committedAt = 0;
         try {
-            beginTransaction();
+            beginTransaction(repeatableRead);
+            if (profiling) {
+                labelTransaction(LockProfiler.label(useCase, instanceId, employmentId));
+            }
+            if (budgetMillis > 0) {
+                long remainingMillis = budgetMillis - (acquired - requested) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    throw new BudgetExceededException(useCase, budgetMillis, null);
+                }
+                watch = budgets.watch(connection(), remainingMillis);
+            }
             T result = action.execute();
+            if (watch != null) {
+                watch.finish(); // done in time (or just after): commit is never cancelled
+                watch = null;
+            }
             commit();
+            committedAt = System.currentTimeMillis();
+            committedAudit = takePendingAudit(tx);
             return result;
-        } catch (SQLException e) {
+        } catch (SQLException | RuntimeException e) {
+            boolean fired = watch != null && watch.finish();
+            tx.pendingAudit.clear();
             rollback();
+            if (e instanceof BudgetExceededException) {
+                exceeded = true;
+            } else if (budgetMillis > 0 && (fired || QUERY_CANCELED.equals(sqlState(e)))) {
+                exceeded = true;
+                throw new BudgetExceededException(useCase, budgetMillis, e);
+            }
             throw e;
+        } finally {
+            long now = System.nanoTime();
+            if (profiling) {
+                profiler.transactionFinished(useCase, acquired - requested, now - requested);
+            }
+            if (budgets != null && useCase != null) {
+                budgets.transactionFinished(useCase, now - requested, exceeded);
+            }
+            if (outer == null) {
+                current.remove();
+                idle.offerFirst(tx.connection);
+                permits.release();
+            }
+            // Connection given back: a full audit queue must not hold up other transactions
+            publishAudit(committedAudit, committedAt);
+        }
+    }
+
+    /** Where transactions find their latency budgets; without it nothing is limited or counted. */
+    public void setLatencyBudgets(LatencyBudgets latencyBudgets) {
+        this.latencyBudgets = latencyBudgets;
+    }
+
+    /** A service answered the use case from a cache because its budget was exceeded. */
+    public void recordFallback(String useCase) {
+        LatencyBudgets budgets = latencyBudgets;
+        if (budgets != null) {
+            budgets.recordFallback(useCase);
+        }
+    }
+
+    // Waits for a pooled connection at most the budget; false if all stayed busy.
+    private boolean acquirePermit(long budgetMillis) throws SQLException {
+        try {
+            return permits.tryAcquire(budgetMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database connection", e);
+        }
+    }
+
+    private static String sqlState(Exception e) {
+        return e instanceof SQLException ? ((SQLException) e).getSQLState() : null;
+    }
+
+    /** Where transactions report their waiting times; without a profiler nothing is measured. */
+    public void setLockProfiler(LockProfiler lockProfiler) {
+        this.lockProfiler = lockProfiler;
+    }
+
+    // application_name for this transaction only (SET LOCAL), visible in pg_stat_activity
+    private void labelTransaction(String label) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT set_config('application_name', ?, true)")) {
+            ps.setString(1, label);
+            ps.execute();
+        }
+    }
+
+    /** Where committed audit events go; without a writer, audit(...) is a no-op. */
+    public void setAuditLog(AuditLogWriter auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Records an audit event for the current transaction. It is queued for the
+     * background writer when the transaction commits and discarded on rollback,
+     * so auditing adds no statement to the transaction itself.
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public void audit(AuditEvent event) {
+        Transaction tx = current.get();
+        if (auditLog != null && tx != null) {
+            tx.pendingAudit.add(event);
+        }
+    }
+
+    // After commit, still holding the connection: the transaction's audit events (null if none)
+    private static List<AuditEvent> takePendingAudit(Transaction tx) {
+        if (tx.pendingAudit.isEmpty()) {
+            return null;
+        }
+        List<AuditEvent> events = new ArrayList<>(tx.pendingAudit);
+        tx.pendingAudit.clear();
+        return events;
+    }
+
+    // After the connection is given back: hand committed audit events to the writer (queue append only)
+    private void publishAudit(List<AuditEvent> events, long committedAt) {
+        AuditLogWriter writer = auditLog;
+        if (events == null || writer == null) {
+            return;
+        }
+        for (AuditEvent event : events) {
+            writer.record(event, committedAt);
         }
     }
 
@@ -62,19 +365,24 @@ public class DBHandler {
      * Starts a transaction.
      * Private: only used by executeInTransaction().
      */
-    private void beginTransaction() throws SQLException {
-        // With autoCommit=false, we're already in a transaction by default,
-        // but this method is kept for semantic clarity and future extension.
+    private void beginTransaction(boolean repeatableRead) throws SQLException {
+        // With autoCommit=false, we're already in a transaction by default;
+        // only the isolation level may have to be set, before the first query.
+        if (repeatableRead) {
+            try (Statement st = connection().createStatement()) {
+                st.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            }
+        }
     }
 
     // Commits the current transaction. Private: all callers go through executeInTransaction().
     private void commit() throws SQLException {
-        connection.commit();
+        connection().commit();
     }
 
     // Rolls back the current transaction. Private: all callers go through executeInTransaction().
     private void rollback() throws SQLException {
-        connection.rollback();
+        connection().rollback();
     }
 
     /**
@@ -82,12 +390,35 @@ public class DBHandler {
      */
     public void testConnection() throws SQLException {
         String sql = "SELECT 1";
-        try (PreparedStatement ps = connection.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            if (rs.next()) {
-                System.out.println("DB test OK, SELECT 1 returned: " + rs.getInt(1));
+        executeInTransaction(() -> {
+            try (PreparedStatement ps = connection().prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    System.out.println("DB test OK, SELECT 1 returned: " + rs.getInt(1));
+                }
             }
-        }
+            return null;
+        });
+    }
+
+    /**
+     * Makes sure the study_year partitions for the current and next year exist
+     * (ensure_study_year_partitions in sql/functions.sql), so inserts for a new
+     * year never fail for lack of a partition. No-op on the unpartitioned layout.
+     */
+    public void ensureYearPartitions() throws SQLException {
+        executeInTransaction("warm_up", null, null, () -> {
+            try (PreparedStatement ps = connection().prepareStatement("SELECT ensure_study_year_partitions()")) {
+                ps.execute();
+            }
+            return null;
+        });
+    }
+
+    // The "current year" used by the cost use case, passed as a parameter so the
+    // planner can prune partitions (EXTRACT(YEAR FROM CURRENT_DATE) cannot be pruned at plan time).
+    private static int currentStudyYear() {
+        return Year.now().getValue();
     }
 
     // ============================================================================
@@ -99,13 +430,32 @@ public class DBHandler {
      * NOTE: This method does NOT contain transaction code itself.
      * Domain services can choose to call it inside executeInTransaction(...) if
      * they want a consistent snapshot. For this use case, it is read-only.
+     * Averages the salaries of this database only; shards use the overload below.
      */
     public CourseInstanceCost computeCostForInstance(String instanceId) throws SQLException {
+        return computeCostForInstance(instanceId, null, SalaryTotals.NONE);
+    }
+
+    /**
+     * Same as computeCostForInstance(instanceId), but with the salaries that were valid
+     * at the given point in time ("as of"). With asOf == null the current salaries and
+     * the current-year restriction are used; with a timestamp the instance may belong
+     * to any study year, archived ones included, which is what historical cost
+     * reconstructions need.
+     * Salary versions are found through their validity range [created_at, valid_to),
+     * which is indexed (see sql/indexes.sql), so every lookup is an index probe.
+     * The average hourly salary includes otherShards (from otherSalaryTotals(asOf),
+     * read before the transaction); SalaryTotals.NONE for this database alone.
+     */
+    public CourseInstanceCost computeCostForInstance(String instanceId, Timestamp asOf,
+                                                     SalaryTotals otherShards) throws SQLException {
         // 1. Planned part: total planned hours * average hourly salary
-        PlannedAggregate planned = fetchPlannedPart(instanceId);
+        PlannedAggregate planned = fetchPlannedPart(instanceId, asOf, otherShards);
 
         // 2. Actual part: SUM(allocated_hours * hourly_salary) for all teachers
-        double actualCostKsek = fetchActualPart(instanceId);
+        double actualCostKsek = asOf == null
+                ? fetchActualPart(instanceId)
+                : fetchActualPartAsOf(instanceId, asOf);
 
         // 3. Build the DTO used by Controller/View
         return new CourseInstanceCost(
@@ -133,38 +483,151 @@ public class DBHandler {
         }
     }
 
-    // Computes the average hourly salary across all current salary rows.
-    private double fetchAverageHourlySalary() throws SQLException {
+    // ============================================================================
+    //  SALARY AVERAGE ACROSS SHARDS
+    // ============================================================================
+
+    /** Sum and number of salary rows: averages over several databases add these up. */
+    public static final class SalaryTotals {
+        public static final SalaryTotals NONE = new SalaryTotals(BigDecimal.ZERO, 0);
+
+        public final BigDecimal sum;
+        public final long count;
+
+        public SalaryTotals(BigDecimal sum, long count) {
+            this.sum = sum;
+            this.count = count;
+        }
+
+        public SalaryTotals plus(SalaryTotals other) {
+            return new SalaryTotals(sum.add(other.sum), count + other.count);
+        }
+    }
+
+    /**
+     * The salaries held by the other databases of a sharded deployment (ShardRouter).
+     * May query those databases: never call it inside a transaction of this one.
+     */
+    @FunctionalInterface
+    public interface OtherSalaries {
+        /** Totals of the current salaries (asOf == null) or of those valid at asOf. */
+        SalaryTotals totals(Timestamp asOf) throws SQLException;
+    }
+
+    /** Where the other shards' salaries come from; without it averages cover this database only. */
+    public void setOtherSalaries(OtherSalaries otherSalaries) {
+        this.otherSalaries = otherSalaries;
+    }
+
+    /** True if this database is one shard of several (setOtherSalaries). */
+    public boolean hasOtherSalaries() {
+        return otherSalaries != null;
+    }
+
+    /**
+     * The other shards' salary totals to pass to computeCostForInstance(...) and the
+     * snapshot loads, current (asOf == null) or as of the given time; NONE if this
+     * database is not a shard. Call it BEFORE the transaction: it may wait for the
+     * other shards' connections.
+     */
+    public SalaryTotals otherSalaryTotals(Timestamp asOf) throws SQLException {
+        OtherSalaries others = otherSalaries;
+        return others == null ? SalaryTotals.NONE : others.totals(asOf);
+    }
+
+    /**
+     * This database's share of the average hourly salary (ShardRouter): sum and number
+     * of the current salary rows (asOf == null) or of those valid at the given time.
+     */
+    public SalaryTotals salaryTotals(Timestamp asOf) throws SQLException {
+        String sql = asOf == null
+                ? "SELECT COALESCE(SUM(salary), 0) AS total, COUNT(salary) AS n " +
+                  "FROM salary " +
+                  "WHERE is_current = TRUE"
+                : "SELECT COALESCE(SUM(salary), 0) AS total, COUNT(salary) AS n " +
+                  "FROM v_salary_history " +
+                  "WHERE tsrange(created_at, valid_to) @> ?::timestamp";
+
+        return executeInTransaction("salary_totals", null, null, () -> {
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                if (asOf != null) {
+                    ps.setTimestamp(1, asOf);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return new SalaryTotals(rs.getBigDecimal("total"), rs.getLong("n"));
+                }
+            }
+        });
+    }
+
+    // Computes the average hourly salary across all current salary rows (here and in otherShards).
+    private double fetchAverageHourlySalary(SalaryTotals otherShards) throws SQLException {
         String sql =
-                "SELECT AVG(salary) AS avg_hourly " +
+                "SELECT (COALESCE(SUM(salary), 0) + ?) / NULLIF(COUNT(salary) + ?, 0) AS avg_hourly " +
                 "FROM salary " +
                 "WHERE is_current = TRUE";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-
-            if (!rs.next() || rs.getObject("avg_hourly") == null) {
-                throw new SQLException("Could not compute average hourly salary.");
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setBigDecimal(1, otherShards.sum);
+            ps.setLong(2, otherShards.count);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getObject("avg_hourly") == null) {
+                    throw new SQLException("Could not compute average hourly salary.");
+                }
+                return rs.getDouble("avg_hourly");
             }
-            return rs.getDouble("avg_hourly");
         }
     }
 
-    // Planned part of the cost:
-    private PlannedAggregate fetchPlannedPart(String instanceId) throws SQLException {
-        double avgHourlySalary = fetchAverageHourlySalary();
-
+    // Computes the average hourly salary across all salary rows valid at the given time (here and in otherShards).
+    private double fetchAverageHourlySalaryAsOf(Timestamp asOf, SalaryTotals otherShards) throws SQLException {
         String sql =
-                "SELECT h.course_code, h.study_period, " +
-                "       SUM(h.planned_hours) AS total_planned_hours " +
-                "FROM v_allocation_hours h " +
-                "JOIN course_instance ci ON ci.instance_id = h.instance_id " +
-                "WHERE h.instance_id = ? " +
-                "  AND ci.study_year = EXTRACT(YEAR FROM CURRENT_DATE)::INT " +
-                "GROUP BY h.course_code, h.study_period";
-
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                "SELECT (COALESCE(SUM(salary), 0) + ?) / NULLIF(COUNT(salary) + ?, 0) AS avg_hourly " +
+                "FROM v_salary_history " +
+                "WHERE tsrange(created_at, valid_to) @> ?::timestamp";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setBigDecimal(1, otherShards.sum);
+            ps.setLong(2, otherShards.count);
+            ps.setTimestamp(3, asOf);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getObject("avg_hourly") == null) {
+                    throw new SQLException("Could not compute average hourly salary as of " + asOf + ".");
+                }
+                return rs.getDouble("avg_hourly");
+            }
+        }
+    }
+
+    // Planned part of the cost (current salaries and year when asOf == null):
+    private PlannedAggregate fetchPlannedPart(String instanceId, Timestamp asOf, SalaryTotals otherShards)
+            throws SQLException {
+        double avgHourlySalary = asOf == null
+                ? fetchAverageHourlySalary(otherShards)
+                : fetchAverageHourlySalaryAsOf(asOf, otherShards);
+
+        String sql = asOf == null
+                ? "SELECT h.course_code, h.study_period, " +
+                  "       SUM(h.planned_hours) AS total_planned_hours " +
+                  "FROM v_allocation_hours h " +
+                  "WHERE h.instance_id = ? " +
+                  "  AND h.study_year = ? " +
+                  "GROUP BY h.course_code, h.study_period"
+                : "SELECT h.course_code, h.study_period, " +
+                  "       SUM(h.planned_hours) AS total_planned_hours " +
+                  "FROM v_allocation_hours h " +
+                  "WHERE h.instance_id = ? " +
+                  "  AND h.study_year = " + YEAR_OF_ANY_INSTANCE + " " +
+                  "GROUP BY h.course_code, h.study_period";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setString(1, instanceId);
+            if (asOf == null) {
+                ps.setInt(2, currentStudyYear());
+            } else {
+                ps.setString(2, instanceId);
+            }
 
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) {
@@ -187,13 +650,15 @@ public class DBHandler {
     private double fetchActualPart(String instanceId) throws SQLException {
         String sql =
                 "SELECT SUM(q.\"Total Hours\" * s.salary) AS total_cost " +
-                "FROM \"query2\" q " +
+                "FROM v_instance_teacher_hours q " +   // query2 without its stable year filter
                 "JOIN salary s ON s.employment_id = q.\"Employment ID\" " +
                 "WHERE q.\"Course Instance ID\" = ? " +
+                "  AND q.\"Study Year\" = ? " +
                 "  AND s.is_current = TRUE";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setString(1, instanceId);
+            ps.setInt(2, currentStudyYear());
 
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next() || rs.getObject("total_cost") == null) {
@@ -206,6 +671,33 @@ public class DBHandler {
         }
     }
 
+    // Actual part of the cost with the salary each teacher had at the given time:
+    private double fetchActualPartAsOf(String instanceId, Timestamp asOf) throws SQLException {
+        String sql =
+                "SELECT SUM(q.\"Total Hours\" * s.salary) AS total_cost " +
+                "FROM v_instance_teacher_hours q " +
+                "JOIN v_salary_history s ON s.employment_id = q.\"Employment ID\" " +
+                "                       AND s.created_at <= ? " +
+                "                       AND s.valid_to   >  ? " +
+                "WHERE q.\"Course Instance ID\" = ? " +
+                "  AND q.\"Study Year\" = " + YEAR_OF_ANY_INSTANCE;
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setTimestamp(1, asOf);
+            ps.setTimestamp(2, asOf);
+            ps.setString(3, instanceId);
+            ps.setString(4, instanceId);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getObject("total_cost") == null) {
+                    // No allocations or no salary valid at that time => actual cost = 0
+                    return 0.0;
+                }
+                return rs.getDouble("total_cost") / 1000.0;
+            }
+        }
+    }
+
     // ============================================================================
     //  STUDENT COUNT UPDATE (READ–MODIFY–WRITE)
     // ============================================================================
@@ -218,19 +710,21 @@ public class DBHandler {
     public int increaseNumStudents(String instanceId, int delta) throws SQLException {
         // Lock the row and read current num_students
         String selectSql =
-                "SELECT num_students " +
+                "SELECT num_students, study_year " +
                 "FROM course_instance " +
                 "WHERE instance_id = ? " +
                 "FOR UPDATE";
 
         int current;
-        try (PreparedStatement ps = connection.prepareStatement(selectSql)) {
+        int studyYear;
+        try (PreparedStatement ps = connection().prepareStatement(selectSql)) {
             ps.setString(1, instanceId);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) {
                     throw new SQLException("Course instance not found: " + instanceId);
                 }
                 current = rs.getInt("num_students");
+                studyYear = rs.getInt("study_year");
             }
         }
 
@@ -240,11 +734,12 @@ public class DBHandler {
         String updateSql =
                 "UPDATE course_instance " +
                 "SET num_students = ? " +
-                "WHERE instance_id = ?";
+                "WHERE study_year = ? AND instance_id = ?";
 
-        try (PreparedStatement ps = connection.prepareStatement(updateSql)) {
+        try (PreparedStatement ps = connection().prepareStatement(updateSql)) {
             ps.setInt(1, newValue);
-            ps.setString(2, instanceId);
+            ps.setInt(2, studyYear);
+            ps.setString(3, instanceId);
             ps.executeUpdate();
         }
 
@@ -271,14 +766,15 @@ public class DBHandler {
                                                       double plannedHours)
             throws SQLException {
         long exerciseActivityId = getOrCreateExerciseActivityId();
+        int studyYear = getInstancePeriod(instanceId).studyYear;
 
         // planned_activity: planned_hours
-        upsertPlannedExercise(instanceId, exerciseActivityId, plannedHours);
+        upsertPlannedExercise(instanceId, studyYear, exerciseActivityId, plannedHours);
 
         // allocations: allocated_hours (reuse plannedHours as initial load)
-        insertExerciseAllocation(instanceId, exerciseActivityId, employmentId, plannedHours);
+        insertExerciseAllocation(instanceId, studyYear, exerciseActivityId, employmentId, plannedHours);
 
-        return fetchExerciseAllocationInfo(instanceId, employmentId);
+        return fetchExerciseAllocationInfo(instanceId, studyYear, employmentId);
     }
 
     /**
@@ -290,7 +786,7 @@ public class DBHandler {
         String selectSql =
                 "SELECT id FROM teaching_activity WHERE activity_name = 'Exercise'";
 
-        try (PreparedStatement ps = connection.prepareStatement(selectSql);
+        try (PreparedStatement ps = connection().prepareStatement(selectSql);
              ResultSet rs = ps.executeQuery()) {
             if (rs.next()) {
                 return rs.getLong("id");
@@ -303,7 +799,7 @@ public class DBHandler {
                 "VALUES ('Exercise') " +
                 "RETURNING id";
 
-        try (PreparedStatement ps = connection.prepareStatement(insertSql);
+        try (PreparedStatement ps = connection().prepareStatement(insertSql);
              ResultSet rs = ps.executeQuery()) {
             if (!rs.next()) {
                 throw new SQLException("Failed to insert Exercise activity.");
@@ -317,18 +813,20 @@ public class DBHandler {
      * If it exists, updates planned_hours; otherwise inserts a new row.
      */
     private void upsertPlannedExercise(String instanceId,
+                                       int studyYear,
                                        long exerciseActivityId,
                                        double plannedHours) throws SQLException {
         String sql =
-                "INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours) " +
-                "VALUES (?, ?, ?) " +
-                "ON CONFLICT (instance_id, teaching_activity_id) " +
+                "INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours, study_year) " +
+                "VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (study_year, instance_id, teaching_activity_id) " +
                 "DO UPDATE SET planned_hours = EXCLUDED.planned_hours";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setString(1, instanceId);
             ps.setLong(2, exerciseActivityId);
             ps.setDouble(3, plannedHours);
+            ps.setInt(4, studyYear);
             ps.executeUpdate();
         }
     }
@@ -337,20 +835,22 @@ public class DBHandler {
      * Inserts or updates a row in allocations for (instance, Exercise activity, teacher).
      */
     private void insertExerciseAllocation(String instanceId,
+                                          int studyYear,
                                           long exerciseActivityId,
                                           String employmentId,
                                           double allocatedHours) throws SQLException {
         String sql =
-                "INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours) " +
-                "VALUES (?, ?, ?, ?) " +
-                "ON CONFLICT (instance_id, teaching_activity_id, employment_id) " +
+                "INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours, study_year) " +
+                "VALUES (?, ?, ?, ?, ?) " +
+                "ON CONFLICT (study_year, instance_id, teaching_activity_id, employment_id) " +
                 "DO UPDATE SET allocated_hours = EXCLUDED.allocated_hours";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setString(1, instanceId);
             ps.setLong(2, exerciseActivityId);
             ps.setString(3, employmentId);
             ps.setDouble(4, allocatedHours);
+            ps.setInt(5, studyYear);
             ps.executeUpdate();
         }
     }
@@ -360,20 +860,23 @@ public class DBHandler {
      * allocation we just created, for the given instance and teacher.
      */
     private ExerciseAllocationInfo fetchExerciseAllocationInfo(String instanceId,
+                                                               int studyYear,
                                                                String employmentId)
             throws SQLException {
         String sql =
                 "SELECT course_code, instance_id, study_period, activity_name, teacher_name " +
                 "FROM v_allocation_hours " +
-                "WHERE instance_id = ? " +
+                "WHERE study_year = ? " +
+                "  AND instance_id = ? " +
                 "  AND employment_id = ? " +
                 "  AND activity_name = 'Exercise' " +
                 "ORDER BY course_code, teacher_name " +
                 "LIMIT 1";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, instanceId);
-            ps.setString(2, employmentId);
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, studyYear);
+            ps.setString(2, instanceId);
+            ps.setString(3, employmentId);
 
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) {
@@ -399,43 +902,651 @@ public class DBHandler {
         }
     }
 
+    // ============================================================================
+    //  IN-MEMORY SNAPSHOT LOADING
+    // ============================================================================
+
+    /**
+     * Streams v_allocation_hours and the current salaries into a snapshot builder.
+     * The caller assigns the version and builds the immutable snapshot.
+     * The average hourly salary includes otherShards (otherSalaryTotals(null)).
+     * NOTE: Call inside executeInSnapshotTransaction(...) so both reads see the same data.
+     */
+    public AllocationHoursSnapshot.Builder loadAllocationHoursSnapshot(SalaryTotals otherShards)
+            throws SQLException {
+        AllocationHoursSnapshot.Builder builder = new AllocationHoursSnapshot.Builder();
+
+        String rowsSql =
+                "SELECT instance_id, course_code, hp, study_year, study_period::text AS study_period, " +
+                "       num_students, activity_name, planned_hours, allocated_hours, " +
+                "       employment_id, teacher_name " +
+                "FROM v_allocation_hours " +
+                "ORDER BY instance_id";
+
+        try (PreparedStatement ps = connection().prepareStatement(rowsSql)) {
+            ps.setFetchSize(10_000); // stream instead of buffering the whole view
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    builder.addRow(
+                            rs.getString("instance_id"),
+                            rs.getString("course_code"),
+                            rs.getDouble("hp"),
+                            rs.getInt("study_year"),
+                            rs.getString("study_period"),
+                            rs.getInt("num_students"),
+                            rs.getString("activity_name"),
+                            rs.getDouble("planned_hours"),
+                            rs.getDouble("allocated_hours"),
+                            rs.getString("employment_id"),
+                            rs.getString("teacher_name")
+                    );
+                }
+            }
+        }
+
+        String salarySql =
+                "SELECT employment_id, salary " +
+                "FROM salary " +
+                "WHERE is_current = TRUE";
+
+        try (PreparedStatement ps = connection().prepareStatement(salarySql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                builder.setTeacherSalary(rs.getString("employment_id"), rs.getDouble("salary"));
+            }
+        }
+
+        return builder.setAverageHourlySalary(fetchAverageHourlySalary(otherShards));
+    }
+
+    /**
+     * Reads what the change feed reported since a snapshot was loaded, for
+     * AllocationHoursSnapshot.patch(...):
+     *   - the v_allocation_hours rows of the given instances (grouped by instance),
+     *   - the current salaries of the given teachers and of every teacher in those rows
+     *     (employmentIds null: all current salaries),
+     *   - the average hourly salary (with otherShards), if salaries changed (else NaN: unchanged).
+     * NOTE: Call inside executeInSnapshotTransaction(...) so all reads see the same data.
+     */
+    public AllocationHoursSnapshot.Builder loadAllocationHoursChanges(Collection<String> instanceIds,
+                                                                      Collection<String> employmentIds,
+                                                                      SalaryTotals otherShards)
+            throws SQLException {
+        AllocationHoursSnapshot.Builder builder = new AllocationHoursSnapshot.Builder();
+        Set<String> teachers = employmentIds == null ? null : new HashSet<>(employmentIds);
+
+        if (!instanceIds.isEmpty()) {
+            String rowsSql =
+                    "SELECT instance_id, course_code, hp, study_year, study_period::text AS study_period, " +
+                    "       num_students, activity_name, planned_hours, allocated_hours, " +
+                    "       employment_id, teacher_name " +
+                    "FROM v_allocation_hours " +
+                    "WHERE instance_id = ANY (?) " +
+                    "ORDER BY instance_id";
+
+            try (PreparedStatement ps = connection().prepareStatement(rowsSql)) {
+                ps.setArray(1, connection().createArrayOf("varchar", instanceIds.toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String employmentId = rs.getString("employment_id");
+                        builder.addRow(
+                                rs.getString("instance_id"),
+                                rs.getString("course_code"),
+                                rs.getDouble("hp"),
+                                rs.getInt("study_year"),
+                                rs.getString("study_period"),
+                                rs.getInt("num_students"),
+                                rs.getString("activity_name"),
+                                rs.getDouble("planned_hours"),
+                                rs.getDouble("allocated_hours"),
+                                employmentId,
+                                rs.getString("teacher_name")
+                        );
+                        if (teachers != null && employmentId != null) {
+                            teachers.add(employmentId);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (teachers == null || !teachers.isEmpty()) {
+            String salarySql =
+                    "SELECT employment_id, salary " +
+                    "FROM salary " +
+                    "WHERE is_current = TRUE" +
+                    (teachers == null ? "" : " AND employment_id = ANY (?)");
+
+            try (PreparedStatement ps = connection().prepareStatement(salarySql)) {
+                if (teachers != null) {
+                    ps.setArray(1, connection().createArrayOf("varchar", teachers.toArray()));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        builder.setTeacherSalary(rs.getString("employment_id"), rs.getDouble("salary"));
+                    }
+                }
+            }
+        }
+
+        boolean salariesChanged = employmentIds == null || !employmentIds.isEmpty();
+        return builder.setAverageHourlySalary(salariesChanged ? fetchAverageHourlySalary(otherShards) : Double.NaN);
+    }
+
+    /**
+     * Reads employees (with level), their skills, course skill requirements and
+     * activity minimum levels into a SkillIndex builder.
+     * NOTE: Call inside executeInTransaction(...) so all reads see the same data.
+     */
+    public SkillIndex.Builder loadSkillIndex() throws SQLException {
+        SkillIndex.Builder builder = new SkillIndex.Builder();
+
+        String employeeSql =
+                "SELECT e.employment_id, p.first_name || ' ' || p.last_name AS teacher_name, " +
+                "       e.skill_level::text AS skill_level " +
+                "FROM employee e " +
+                "JOIN person p ON p.id = e.person_id " +
+                "ORDER BY e.employment_id";
+        try (PreparedStatement ps = connection().prepareStatement(employeeSql)) {
+            ps.setFetchSize(10_000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    builder.addEmployee(rs.getString("employment_id"), rs.getString("teacher_name"),
+                            rs.getString("skill_level"));
+                }
+            }
+        }
+
+        String skillSql =
+                "SELECT es.employment_id, s.name " +
+                "FROM employee_skills es " +
+                "JOIN skill s ON s.id = es.skill_id";
+        try (PreparedStatement ps = connection().prepareStatement(skillSql)) {
+            ps.setFetchSize(10_000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    builder.addEmployeeSkill(rs.getString("employment_id"), rs.getString("name"));
+                }
+            }
+        }
+
+        String courseSql =
+                "SELECT cs.course_code, s.name " +
+                "FROM course_skill cs " +
+                "JOIN skill s ON s.id = cs.skill_id";
+        try (PreparedStatement ps = connection().prepareStatement(courseSql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                builder.addCourseSkill(rs.getString("course_code"), rs.getString("name"));
+            }
+        }
+
+        String activitySql = "SELECT activity_name, min_skill_level::text AS min_skill_level FROM teaching_activity";
+        try (PreparedStatement ps = connection().prepareStatement(activitySql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                builder.addActivity(rs.getString("activity_name"), rs.getString("min_skill_level"));
+            }
+        }
+
+        return builder;
+    }
+
+    /**
+     * Allocations of the given study years, of all teachers (employmentIds null) or
+     * of the given ones, with hours as in v_allocation_hours (planned_hours * factor).
+     * One range scan per year partition; for a few teachers the allocation index is used.
+     */
+    public TeacherLoadIndex.Builder loadTeacherAllocations(Collection<Integer> studyYears,
+                                                           Collection<String> employmentIds) throws SQLException {
+        TeacherLoadIndex.Builder builder = new TeacherLoadIndex.Builder();
+        String sql =
+                "SELECT a.study_year, a.employment_id, a.instance_id, ci.study_period::text AS study_period, " +
+                "       ta.activity_name, pa.planned_hours * ta.factor AS allocated_hours " +
+                "FROM allocations a " +
+                "JOIN planned_activity pa ON pa.study_year = a.study_year AND pa.instance_id = a.instance_id " +
+                "                        AND pa.teaching_activity_id = a.teaching_activity_id " +
+                "JOIN course_instance ci  ON ci.study_year = a.study_year AND ci.instance_id = a.instance_id " +
+                "JOIN teaching_activity ta ON ta.id = a.teaching_activity_id " +
+                "WHERE a.study_year = ANY (?) " +
+                (employmentIds != null ? "  AND a.employment_id = ANY (?)" : "");
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setArray(1, connection().createArrayOf("integer", studyYears.toArray()));
+            if (employmentIds != null) {
+                ps.setArray(2, connection().createArrayOf("varchar", employmentIds.toArray()));
+            }
+            ps.setFetchSize(10_000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    builder.addRow(rs.getInt("study_year"), rs.getString("employment_id"),
+                            rs.getString("instance_id"), rs.getString("study_period"),
+                            rs.getString("activity_name"), rs.getDouble("allocated_hours"));
+                }
+            }
+        }
+        return builder;
+    }
+
+    // ============================================================================
+    //  LISTINGS (KEYSET PAGINATION)
+    // ============================================================================
+    // Every listing continues strictly after the key of the previous page's last row
+    // ("after" = null for the first page) and orders by an index that starts with the
+    // filter columns, so a page is one index range scan of pageSize + 1 rows, never an
+    // OFFSET that re-reads everything before it. The extra row only tells whether
+    // another page exists.
+
+    private static final String ALLOCATION_LISTING_COLUMNS =
+            "SELECT a.study_year, a.instance_id, a.teaching_activity_id, ta.activity_name, " +
+            "       a.employment_id, p.first_name || ' ' || p.last_name AS teacher_name, a.allocated_hours " +
+            "FROM allocations a " +
+            "JOIN teaching_activity ta ON ta.id = a.teaching_activity_id " +
+            "JOIN employee e           ON e.employment_id = a.employment_id " +
+            "JOIN person p             ON p.id = e.person_id ";
+
+    private static final String TEACHER_LISTING_COLUMNS =
+            "SELECT e.employment_id, p.first_name || ' ' || p.last_name AS teacher_name, " +
+            "       d.department_name, jt.job_title, e.skill_level::text AS skill_level " +
+            "FROM employee e " +
+            "JOIN person p     ON p.id = e.person_id " +
+            "JOIN department d ON d.id = e.department_id " +
+            "JOIN job_title jt ON jt.id = e.job_title_id ";
+
+    /**
+     * Instances of one study year (optionally one period), in instance_id order.
+     * Keyset listings compare their keys COLLATE "C" (code point order): the same
+     * order on every shard and in Page.merge, whatever the database's default collation.
+     */
+    public Page<InstanceSummary> listInstances(int studyYear, String studyPeriod,
+                                               InstanceSummary after, int pageSize) throws SQLException {
+        String sql =
+                "SELECT ci.instance_id, ci.study_year, ci.study_period::text AS study_period, " +
+                "       cl.course_code, ci.num_students " +
+                "FROM course_instance ci " +
+                "JOIN course_layout cl ON cl.id = ci.course_layout_id " +
+                "WHERE ci.study_year = ? " +
+                (studyPeriod != null ? "  AND ci.study_period = ?::study_period_t " : "") +
+                (after != null ? "  AND ci.instance_id COLLATE \"C\" > ? " : "") +
+                "ORDER BY ci.instance_id COLLATE \"C\" " +
+                "LIMIT ?";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = 1;
+            ps.setInt(i++, studyYear);
+            if (studyPeriod != null) {
+                ps.setString(i++, studyPeriod);
+            }
+            if (after != null) {
+                ps.setString(i++, after.getInstanceId());
+            }
+            ps.setInt(i, pageSize + 1);
+
+            List<InstanceSummary> rows = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new InstanceSummary(
+                            rs.getString("instance_id"),
+                            rs.getInt("study_year"),
+                            rs.getString("study_period"),
+                            rs.getString("course_code"),
+                            rs.getInt("num_students")));
+                }
+            }
+            return toPage(rows, pageSize);
+        }
+    }
+
+    /** Allocations of one teacher over all years, in (study_year, instance_id, activity) order. */
+    public Page<AllocationSummary> listAllocationsByTeacher(String employmentId,
+                                                            AllocationSummary after, int pageSize) throws SQLException {
+        String sql = ALLOCATION_LISTING_COLUMNS +
+                "WHERE a.employment_id = ? " +
+                (after != null ? "  AND (a.study_year, a.instance_id, a.teaching_activity_id) > (?, ?, ?) " : "") +
+                "ORDER BY a.study_year, a.instance_id, a.teaching_activity_id " +
+                "LIMIT ?";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = 1;
+            ps.setString(i++, employmentId);
+            if (after != null) {
+                ps.setInt(i++, after.getStudyYear());
+                ps.setString(i++, after.getInstanceId());
+                ps.setLong(i++, after.getTeachingActivityId());
+            }
+            ps.setInt(i, pageSize + 1);
+            return toPage(readAllocationSummaries(ps), pageSize);
+        }
+    }
+
+    /** Allocations of one instance, in (activity, employment_id) order (primary key order). */
+    public Page<AllocationSummary> listAllocationsByInstance(String instanceId,
+                                                             AllocationSummary after, int pageSize) throws SQLException {
+        String sql = ALLOCATION_LISTING_COLUMNS +
+                "WHERE a.study_year = " + YEAR_OF_INSTANCE + " " +
+                "  AND a.instance_id = ? " +
+                (after != null ? "  AND (a.teaching_activity_id, a.employment_id) > (?, ?) " : "") +
+                "ORDER BY a.teaching_activity_id, a.employment_id " +
+                "LIMIT ?";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = 1;
+            ps.setString(i++, instanceId);
+            ps.setString(i++, instanceId);
+            if (after != null) {
+                ps.setLong(i++, after.getTeachingActivityId());
+                ps.setString(i++, after.getEmploymentId());
+            }
+            ps.setInt(i, pageSize + 1);
+            return toPage(readAllocationSummaries(ps), pageSize);
+        }
+    }
+
+    /** Employees of one department, in employment_id order (COLLATE "C"). */
+    public Page<TeacherSummary> listTeachersByDepartment(String departmentName,
+                                                         TeacherSummary after, int pageSize) throws SQLException {
+        String sql = TEACHER_LISTING_COLUMNS +
+                "WHERE e.department_id = (SELECT id FROM department WHERE department_name = ?) " +
+                (after != null ? "  AND e.employment_id COLLATE \"C\" > ? " : "") +
+                "ORDER BY e.employment_id COLLATE \"C\" " +
+                "LIMIT ?";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = 1;
+            ps.setString(i++, departmentName);
+            if (after != null) {
+                ps.setString(i++, after.getEmploymentId());
+            }
+            ps.setInt(i, pageSize + 1);
+            return toPage(readTeacherSummaries(ps), pageSize);
+        }
+    }
+
+    /** Employees that have the given skill, in employment_id order (COLLATE "C"). */
+    public Page<TeacherSummary> listTeachersBySkill(String skillName,
+                                                    TeacherSummary after, int pageSize) throws SQLException {
+        String sql = TEACHER_LISTING_COLUMNS +
+                "JOIN employee_skills es ON es.employment_id = e.employment_id " +
+                "WHERE es.skill_id = (SELECT id FROM skill WHERE name = ?) " +
+                (after != null ? "  AND es.employment_id COLLATE \"C\" > ? " : "") +
+                "ORDER BY es.employment_id COLLATE \"C\" " +
+                "LIMIT ?";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = 1;
+            ps.setString(i++, skillName);
+            if (after != null) {
+                ps.setString(i++, after.getEmploymentId());
+            }
+            ps.setInt(i, pageSize + 1);
+            return toPage(readTeacherSummaries(ps), pageSize);
+        }
+    }
+
+    private List<AllocationSummary> readAllocationSummaries(PreparedStatement ps) throws SQLException {
+        List<AllocationSummary> rows = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new AllocationSummary(
+                        rs.getInt("study_year"),
+                        rs.getString("instance_id"),
+                        rs.getLong("teaching_activity_id"),
+                        rs.getString("activity_name"),
+                        rs.getString("employment_id"),
+                        rs.getString("teacher_name"),
+                        rs.getDouble("allocated_hours")));
+            }
+        }
+        return rows;
+    }
+
+    private List<TeacherSummary> readTeacherSummaries(PreparedStatement ps) throws SQLException {
+        List<TeacherSummary> rows = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new TeacherSummary(
+                        rs.getString("employment_id"),
+                        rs.getString("teacher_name"),
+                        rs.getString("department_name"),
+                        rs.getString("job_title"),
+                        rs.getString("skill_level")));
+            }
+        }
+        return rows;
+    }
+
+    // The queries fetch pageSize + 1 rows; the extra one only signals that there is a next page.
+    private static <T> Page<T> toPage(List<T> rows, int pageSize) {
+        boolean hasMore = rows.size() > pageSize;
+        if (hasMore) {
+            rows = rows.subList(0, pageSize);
+        }
+        return new Page<>(rows, hasMore);
+    }
+
+    // ============================================================================
+    //  WARM-UP AND CACHE MAINTENANCE
+    // ============================================================================
+
+    /**
+     * Loads reference data into the caches: all activity ids, and the periods of all
+     * instances in the given study year. Running these statements also warms the
+     * backend's catalog and plan caches for the tables the use cases touch.
+     */
+    public void warmReferenceData(int studyYear) throws SQLException {
+        executeInTransaction("warm_up", null, null, () -> {
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT id, activity_name FROM teaching_activity");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    activityIds.put(rs.getString("activity_name"), rs.getLong("id"));
+                }
+            }
+
+            String sql =
+                    "SELECT ci.instance_id, ci.study_year, ci.study_period, cl.course_code " +
+                    "FROM course_instance ci " +
+                    "JOIN course_layout cl ON cl.id = ci.course_layout_id " +
+                    "WHERE ci.study_year = ?";
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                ps.setInt(1, studyYear);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        instancePeriods.put(rs.getString("instance_id"),
+                                new InstancePeriod(rs.getInt("study_year"), rs.getString("study_period"),
+                                        rs.getString("course_code")));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Current database change marker (change_seq, see sql/functions.sql I):
+     * database name, the sequence's oid (new after the schema is recreated) and position.
+     * Equal markers mean that no cached table has changed in between.
+     * Writers draw their number before they commit, so a marker only describes data
+     * read AFTER it, in a snapshot with no write in progress (noWriteInProgress()).
+     */
+    public String readChangeMarker() throws SQLException {
+        String sql =
+                "SELECT current_database() || '/' || 'change_seq'::regclass::oid || '/' " +
+                "       || last_value || '/' || is_called AS marker " +
+                "FROM change_seq";
+        try (PreparedStatement ps = connection().prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getString("marker");
+        }
+    }
+
+    /**
+     * True if no other transaction that has written anything was running when this
+     * transaction's snapshot was taken. Every writer that drew a change marker before
+     * the snapshot has then committed (or rolled back) and its change is visible.
+     * NOTE: Call inside executeInSnapshotTransaction(...).
+     */
+    public boolean noWriteInProgress() throws SQLException {
+        String sql = "SELECT NOT EXISTS (SELECT 1 FROM pg_snapshot_xip(pg_current_snapshot())) AS quiet";
+        try (PreparedStatement ps = connection().prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getBoolean("quiet");
+        }
+    }
+
+    /** Copy of the cached activity ids, for the warm-state file. */
+    public Map<String, Long> cachedActivityIds() {
+        return new HashMap<>(activityIds);
+    }
+
+    /** Copy of the cached instance periods, for the warm-state file. */
+    public Map<String, InstancePeriod> cachedInstancePeriods() {
+        return new HashMap<>(instancePeriods);
+    }
+
+    /** Fills the reference data caches from a warm-state file whose change marker still matches. */
+    public void restoreReferenceData(Map<String, Long> activityIds, Map<String, InstancePeriod> instancePeriods) {
+        this.activityIds.putAll(activityIds);
+        this.instancePeriods.putAll(instancePeriods);
+    }
+
+    /** Shard lookup (ShardRouter): does this database hold the course instance? */
+    public boolean instanceExists(String instanceId) throws SQLException {
+        return executeInTransaction("route", null, null, () -> rowExists(
+                "SELECT 1 FROM course_instance WHERE instance_id = ?", instanceId));
+    }
+
+    /** Shard lookup (ShardRouter): the department of the employee, null if not in this database. */
+    public String employeeDepartment(String employmentId) throws SQLException {
+        String sql =
+                "SELECT d.department_name " +
+                "FROM employee e " +
+                "JOIN department d ON d.id = e.department_id " +
+                "WHERE e.employment_id = ?";
+        return executeInTransaction("route", null, null, () -> {
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                ps.setString(1, employmentId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getString("department_name") : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Routing table of this database (ShardRouter): every course instance it holds
+     * and every employee with their department, in one transaction.
+     */
+    public ShardRoutes loadShardRoutes() throws SQLException {
+        String instanceSql = "SELECT instance_id FROM course_instance";
+        String employeeSql =
+                "SELECT e.employment_id, d.department_name " +
+                "FROM employee e " +
+                "JOIN department d ON d.id = e.department_id";
+        return executeInTransaction("route", null, null, () -> {
+            ShardRoutes routes = new ShardRoutes();
+            try (PreparedStatement ps = connection().prepareStatement(instanceSql)) {
+                ps.setFetchSize(10_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        routes.instanceIds.add(rs.getString("instance_id"));
+                    }
+                }
+            }
+            try (PreparedStatement ps = connection().prepareStatement(employeeSql)) {
+                ps.setFetchSize(10_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        routes.employeeDepartments.put(rs.getString("employment_id"),
+                                rs.getString("department_name"));
+                    }
+                }
+            }
+            return routes;
+        });
+    }
+
+    /** What one database holds, for the ShardRouter's routing table. */
+    public static class ShardRoutes {
+        public final List<String> instanceIds = new ArrayList<>();
+        public final Map<String, String> employeeDepartments = new HashMap<>(); // employment_id -> department_name
+    }
+
+    private boolean rowExists(String sql, String key) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /** Subscriber for the change feed: drops cached reference data that changed (all of it on a resync). */
+    public void onChange(ChangeEvent event) {
+        if (event.isResync()) {
+            instancePeriods.clear();
+        } else if (event.getTable() == ChangeEvent.Table.COURSE_INSTANCE && event.getInstanceId() != null) {
+            instancePeriods.remove(event.getInstanceId());
+        }
+    }
+
     // ============================================================================
     //  GENERIC LOOKUPS / HELPERS FOR DOMAIN SERVICES
     // ============================================================================
 
-    /** Looks up a teaching_activity.id by its name. */
+    /** Looks up a teaching_activity.id by its name (cached: activity ids never change). */
     public long getTeachingActivityIdByName(String activityName) throws SQLException {
+        Long cached = activityIds.get(activityName);
+        if (cached != null) {
+            return cached;
+        }
+
         String sql = "SELECT id FROM teaching_activity WHERE activity_name = ?";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setString(1, activityName);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) {
                     throw new SQLException("Unknown teaching activity: " + activityName);
                 }
-                return rs.getLong("id");
+                long id = rs.getLong("id");
+                activityIds.put(activityName, id);
+                return id;
             }
         }
     }
 
-    /** Simple DTO for study_year and study_period of an instance. */
+    /** Simple DTO for study_year, study_period and course_code of an instance. */
     public static class InstancePeriod {
         public final int studyYear;
         public final String studyPeriod;
+        public final String courseCode;
 
-        public InstancePeriod(int studyYear, String studyPeriod) {
+        public InstancePeriod(int studyYear, String studyPeriod, String courseCode) {
             this.studyYear = studyYear;
             this.studyPeriod = studyPeriod;
+            this.courseCode = courseCode;
         }
     }
 
-    /** Reads study_year and study_period from course_instance for the given instance_id. */
+    /**
+     * Reads study_year, study_period and course_code for the given instance_id.
+     * Cached; course_instance changes reported by the change feed evict the entry.
+     */
     public InstancePeriod getInstancePeriod(String instanceId) throws SQLException {
+        InstancePeriod cached = instancePeriods.get(instanceId);
+        if (cached != null) {
+            return cached;
+        }
+
         String sql =
-                "SELECT study_year, study_period " +
-                "FROM course_instance " +
-                "WHERE instance_id = ?";
+                "SELECT ci.study_year, ci.study_period, cl.course_code " +
+                "FROM course_instance ci " +
+                "JOIN course_layout cl ON cl.id = ci.course_layout_id " +
+                "WHERE ci.instance_id = ?";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setString(1, instanceId);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) {
@@ -443,112 +1554,443 @@ public class DBHandler {
                 }
                 int year = rs.getInt("study_year");
                 String period = rs.getString("study_period");
-                return new InstancePeriod(year, period);
+                InstancePeriod ip = new InstancePeriod(year, period, rs.getString("course_code"));
+                instancePeriods.put(instanceId, ip);
+                return ip;
             }
         }
     }
 
+    /** Result of allocate_teaching(...): status plus year/period/instance count for messages. */
+    public static class AllocationOutcome {
+        public final String status;        // OK, OVERLOADED, UNKNOWN_ACTIVITY, UNKNOWN_INSTANCE, AMBIGUOUS_INSTANCE, UNKNOWN_EMPLOYEE
+        public final int studyYear;
+        public final String studyPeriod;
+        public final int instanceCount;
+
+        public AllocationOutcome(String status, int studyYear, String studyPeriod, int instanceCount) {
+            this.status = status;
+            this.studyYear = studyYear;
+            this.studyPeriod = studyPeriod;
+            this.instanceCount = instanceCount;
+        }
+    }
+
     /**
-     * Returns how many distinct course instances this teacher has allocations in
-     * for a given study_year, study_period.
+     * Runs the whole allocation (lookups, max-4 check, both upserts) server-side
+     * in one round trip: allocate_teaching(...) in sql/functions.sql.
+     * NOTE: Call inside executeInTransaction(...).
      */
-    public int countTeacherInstancesInPeriod(String employmentId,
-                                             int studyYear,
-                                             String studyPeriod) throws SQLException {
+    public AllocationOutcome allocateTeachingServerSide(String instanceId,
+                                                        String employmentId,
+                                                        String activityName,
+                                                        double allocatedHours) throws SQLException {
+        String sql = "SELECT status, study_year, study_period, instance_count FROM allocate_teaching(?, ?, ?, ?)";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, instanceId);
+            ps.setString(2, employmentId);
+            ps.setString(3, activityName);
+            ps.setDouble(4, allocatedHours);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new AllocationOutcome(
+                        rs.getString("status"),
+                        rs.getInt("study_year"),
+                        rs.getString("study_period"),
+                        rs.getInt("instance_count"));
+            }
+        }
+    }
+
+    /** Pure CRUD: delete an allocation row. */
+    public void deleteAllocation(String instanceId,
+                                 long teachingActivityId,
+                                 String employmentId) throws SQLException {
         String sql =
-                "SELECT COUNT(DISTINCT a.instance_id) AS cnt " +
-                "FROM allocations a " +
-                "JOIN course_instance ci ON ci.instance_id = a.instance_id " +
-                "WHERE a.employment_id = ? " +
-                "  AND ci.study_year   = ? " +
-                "  AND ci.study_period::text = ?";
+                "DELETE FROM allocations " +
+                "WHERE study_year = " + YEAR_OF_INSTANCE + " " +
+                "  AND instance_id = ? " +
+                "  AND teaching_activity_id = ? " +
+                "  AND employment_id = ?";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, employmentId);
-            ps.setInt(2, studyYear);
-            ps.setString(3, studyPeriod);
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, instanceId);
+            ps.setString(2, instanceId);
+            ps.setLong(3, teachingActivityId);
+            ps.setString(4, employmentId);
+            ps.executeUpdate();
+        }
+    }
+
+    // ============================================================================
+    //  BULK REASSIGN / DEALLOCATION (SET-BASED)
+    // ============================================================================
+    // All rows of one teacher in a study year, optionally narrowed to a period,
+    // an instance and/or an activity (null = no filter). Each operation is one
+    // statement, whatever the number of rows.
+
+    // WHERE fragment selecting the teacher's rows; 'a' = allocations, 'ci' = course_instance
+    private static String bulkFilter(String studyPeriod, String instanceId, Long teachingActivityId) {
+        return "WHERE a.employment_id = ? " +
+               "  AND a.study_year    = ? " +
+               "  AND ci.study_year   = a.study_year " +
+               "  AND ci.instance_id  = a.instance_id " +
+               (studyPeriod != null        ? "  AND ci.study_period = ?::study_period_t " : "") +
+               (instanceId != null         ? "  AND a.instance_id = ? " : "") +
+               (teachingActivityId != null ? "  AND a.teaching_activity_id = ? " : "");
+    }
+
+    // Binds the parameters of bulkFilter(...), starting at index i; returns the next index.
+    private static int bindBulkFilter(PreparedStatement ps, int i, String employmentId, int studyYear,
+                                      String studyPeriod, String instanceId, Long teachingActivityId)
+            throws SQLException {
+        ps.setString(i++, employmentId);
+        ps.setInt(i++, studyYear);
+        if (studyPeriod != null) {
+            ps.setString(i++, studyPeriod);
+        }
+        if (instanceId != null) {
+            ps.setString(i++, instanceId);
+        }
+        if (teachingActivityId != null) {
+            ps.setLong(i++, teachingActivityId);
+        }
+        return i;
+    }
+
+    /**
+     * Locks the employee rows (in key order, so two bulk moves cannot deadlock)
+     * and throws if one of them does not exist.
+     * NOTE: Call inside executeInTransaction(...); the locks last until commit.
+     */
+    public void lockEmployees(String... employmentIds) throws SQLException {
+        String[] ids = Arrays.stream(employmentIds).distinct().sorted().toArray(String[]::new);
+        String sql =
+                "SELECT employment_id " +
+                "FROM employee " +
+                "WHERE employment_id = ANY (?) " +
+                "ORDER BY employment_id " +
+                "FOR UPDATE";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setArray(1, connection().createArrayOf("varchar", ids));
+            int found = 0;
             try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) {
-                    return 0;
+                while (rs.next()) {
+                    found++;
                 }
-                return rs.getInt("cnt");
+            }
+            if (found != ids.length) {
+                throw new SQLException("Unknown employee among: " + String.join(", ", ids));
             }
         }
     }
 
     /**
-     * Returns true if this teacher has at least one allocation on this instance (any activity).
+     * Largest number of distinct instances the target teacher would have in any
+     * affected period if the selected rows of the source teacher were moved to them.
+     * One query for the whole move instead of one max-4 check per row.
      */
-    public boolean teacherAlreadyAllocatedOnInstance(String instanceId,
-                                                     String employmentId) throws SQLException {
+    public int maxInstancesPerPeriodAfterMove(String fromEmploymentId, String toEmploymentId, int studyYear,
+                                              String studyPeriod, String instanceId, Long teachingActivityId)
+            throws SQLException {
         String sql =
-                "SELECT 1 " +
-                "FROM allocations " +
-                "WHERE instance_id = ? AND employment_id = ? " +
-                "LIMIT 1";
-
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, instanceId);
-            ps.setString(2, employmentId);
+                "WITH moving AS ( " +
+                "  SELECT a.instance_id, ci.study_period " +
+                "  FROM allocations a, course_instance ci " +
+                   bulkFilter(studyPeriod, instanceId, teachingActivityId) +
+                "), " +
+                "existing AS ( " +
+                "  SELECT a.instance_id, ci.study_period " +
+                "  FROM allocations a " +
+                "  JOIN course_instance ci ON ci.study_year  = a.study_year " +
+                "                         AND ci.instance_id = a.instance_id " +
+                "  WHERE a.employment_id = ? " +
+                "    AND a.study_year    = ? " +
+                "    AND ci.study_period IN (SELECT study_period FROM moving) " +
+                ") " +
+                "SELECT COALESCE(MAX(cnt), 0) AS max_cnt " +
+                "FROM (SELECT study_period, COUNT(DISTINCT instance_id) AS cnt " +
+                "      FROM (SELECT * FROM moving UNION SELECT * FROM existing) x " +
+                "      GROUP BY study_period) per_period";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = bindBulkFilter(ps, 1, fromEmploymentId, studyYear, studyPeriod, instanceId, teachingActivityId);
+            ps.setString(i++, toEmploymentId);
+            ps.setInt(i, studyYear);
             try (ResultSet rs = ps.executeQuery()) {
-                return rs.next();
+                rs.next();
+                return rs.getInt("max_cnt");
             }
         }
     }
 
-    /** Upserts a planned_activity row for any activity (not just Exercise). */
-    public void upsertPlannedActivity(String instanceId,
-                                      long teachingActivityId,
-                                      double plannedHours) throws SQLException {
+    /**
+     * Moves the selected allocations of one teacher to another in a single statement.
+     * If the target already has the same (instance, activity), the hours are added.
+     * The per-row max-4 trigger still checks every inserted row; the caller checks the
+     * whole move first (maxInstancesPerPeriodAfterMove under lockEmployees), so it
+     * only fires here if that check was skipped.
+     * Returns the moved rows (with the hours that moved).
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public List<AllocationSummary> moveAllocations(String fromEmploymentId, String toEmploymentId, int studyYear,
+                                                   String studyPeriod, String instanceId, Long teachingActivityId)
+            throws SQLException {
         String sql =
-                "INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours) " +
-                "VALUES (?, ?, ?) " +
-                "ON CONFLICT (instance_id, teaching_activity_id) " +
-                "DO UPDATE SET planned_hours = EXCLUDED.planned_hours";
+                "WITH moved AS ( " +
+                "  DELETE FROM allocations a " +
+                "  USING course_instance ci " +
+                   bulkFilter(studyPeriod, instanceId, teachingActivityId) +
+                "  RETURNING a.study_year, a.instance_id, a.teaching_activity_id, a.allocated_hours " +
+                "), " +
+                "inserted AS ( " +
+                "  INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours, study_year) " +
+                "  SELECT instance_id, teaching_activity_id, ?, allocated_hours, study_year FROM moved " +
+                "  ON CONFLICT (study_year, instance_id, teaching_activity_id, employment_id) " +
+                "  DO UPDATE SET allocated_hours = allocations.allocated_hours + EXCLUDED.allocated_hours " +
+                ") " +
+                "SELECT m.study_year, m.instance_id, m.teaching_activity_id, ta.activity_name, " +
+                "       ?::varchar AS employment_id, NULL::text AS teacher_name, m.allocated_hours " +
+                "FROM moved m " +
+                "JOIN teaching_activity ta ON ta.id = m.teaching_activity_id " +
+                "ORDER BY m.instance_id, m.teaching_activity_id";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int i = bindBulkFilter(ps, 1, fromEmploymentId, studyYear, studyPeriod, instanceId, teachingActivityId);
+            ps.setString(i++, toEmploymentId);
+            ps.setString(i, toEmploymentId);
+            return readAllocationSummaries(ps);
+        }
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, instanceId);
-            ps.setLong(2, teachingActivityId);
-            ps.setDouble(3, plannedHours);
-            ps.executeUpdate();
+    /**
+     * Deletes the selected allocations of one teacher in a single statement.
+     * Returns the removed rows. NOTE: Call inside executeInTransaction(...).
+     */
+    public List<AllocationSummary> deleteAllocations(String employmentId, int studyYear,
+                                                     String studyPeriod, String instanceId, Long teachingActivityId)
+            throws SQLException {
+        String sql =
+                "WITH removed AS ( " +
+                "  DELETE FROM allocations a " +
+                "  USING course_instance ci " +
+                   bulkFilter(studyPeriod, instanceId, teachingActivityId) +
+                "  RETURNING a.study_year, a.instance_id, a.teaching_activity_id, a.employment_id, a.allocated_hours " +
+                ") " +
+                "SELECT r.study_year, r.instance_id, r.teaching_activity_id, ta.activity_name, " +
+                "       r.employment_id, NULL::text AS teacher_name, r.allocated_hours " +
+                "FROM removed r " +
+                "JOIN teaching_activity ta ON ta.id = r.teaching_activity_id " +
+                "ORDER BY r.instance_id, r.teaching_activity_id";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            bindBulkFilter(ps, 1, employmentId, studyYear, studyPeriod, instanceId, teachingActivityId);
+            return readAllocationSummaries(ps);
         }
     }
 
-    /** Pure CRUD: insert or update an allocation row with given hours. */
-    public void upsertAllocation(String instanceId,
-                                 long teachingActivityId,
-                                 String employmentId,
-                                 double allocatedHours) throws SQLException {
+    // ============================================================================
+    //  BULK SALARY REVISION (SET-BASED)
+    // ============================================================================
+    // A revision gives every selected employee a new current salary version with one
+    // call of revise_salaries (sql/functions.sql J): the current rows are closed and
+    // the new ones inserted set-based, with all salary triggers on. Salary change
+    // notifications are sent per statement, so a revision sends two, not one per employee.
+
+    /**
+     * New salary = current salary * (1 + percent / 100), rounded to 2 decimals,
+     * for every employee with a current salary (of one department, or all if null).
+     * Returns the number of employees revised.
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public int reviseSalariesByPercent(String departmentName, double percent) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT revise_salaries(?, ?::numeric, NULL, NULL)")) {
+            ps.setString(1, departmentName);
+            ps.setDouble(2, percent);
+            return readRevised(ps);
+        }
+    }
+
+    /**
+     * New salary from a per-job-title table, for every employee whose job title is
+     * in the table (of one department, or all if null). Returns the number of
+     * employees revised; throws if a job title does not exist.
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public int reviseSalariesByJobTitle(String departmentName, Map<String, Double> salaryByJobTitle)
+            throws SQLException {
+        String[] titles = salaryByJobTitle.keySet().toArray(new String[0]);
+        Double[] salaries = new Double[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            salaries[i] = salaryByJobTitle.get(titles[i]);
+        }
+        requireJobTitles(titles);
+
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT revise_salaries(?, NULL, ?::varchar[], ?::numeric[])")) {
+            ps.setString(1, departmentName);
+            ps.setArray(2, connection().createArrayOf("varchar", titles));
+            ps.setArray(3, connection().createArrayOf("numeric", salaries));
+            return readRevised(ps);
+        }
+    }
+
+    private static int readRevised(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private void requireJobTitles(String[] titles) throws SQLException {
         String sql =
-                "INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours) " +
-                "VALUES (?, ?, ?, ?) " +
-                "ON CONFLICT (instance_id, teaching_activity_id, employment_id) " +
-                "DO UPDATE SET allocated_hours = EXCLUDED.allocated_hours";
+                "SELECT t FROM unnest(?::varchar[]) AS t " +
+                "WHERE NOT EXISTS (SELECT 1 FROM job_title jt WHERE jt.job_title = t) " +
+                "ORDER BY t";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setArray(1, connection().createArrayOf("varchar", titles));
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    throw new SQLException("Unknown job title: " + rs.getString(1));
+                }
+            }
+        }
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, instanceId);
-            ps.setLong(2, teachingActivityId);
-            ps.setString(3, employmentId);
-            ps.setDouble(4, allocatedHours);
-            ps.executeUpdate();
+    // ============================================================================
+    //  ARCHIVAL OF CLOSED STUDY YEARS
+    // ============================================================================
+
+    /** Result of one archive batch: instances moved, archive rows written, last instance id. */
+    public static class ArchiveBatch {
+        public final int instances;
+        public final int rows;
+        public final String lastInstanceId;
+
+        public ArchiveBatch(int instances, int rows, String lastInstanceId) {
+            this.instances = instances;
+            this.rows = rows;
+            this.lastInstanceId = lastInstanceId;
         }
     }
 
-    /** Pure CRUD: delete an allocation row. */
-    public void deleteAllocation(String instanceId,
-                                 long teachingActivityId,
-                                 String employmentId) throws SQLException {
+    /**
+     * Moves the next batchSize instances of a study year (after afterInstanceId, in
+     * instance_id order) into allocation_archive, in one statement: the rows are
+     * copied flat, then the instances are deleted, which cascades to their planned
+     * activities and allocations. NOTE: Call inside executeInTransaction(...).
+     */
+    public ArchiveBatch archiveInstanceBatch(int studyYear, String afterInstanceId, int batchSize)
+            throws SQLException {
         String sql =
-                "DELETE FROM allocations " +
-                "WHERE instance_id = ? " +
-                "  AND teaching_activity_id = ? " +
-                "  AND employment_id = ?";
+                "WITH batch AS ( " +
+                "  SELECT instance_id FROM course_instance " +
+                "  WHERE study_year = ? AND instance_id > ? " +
+                "  ORDER BY instance_id " +
+                "  LIMIT ? " +
+                "  FOR UPDATE " +
+                "), " +
+                "archived AS ( " +
+                "  INSERT INTO allocation_archive (study_year, instance_id, study_period, num_students, " +
+                "         course_layout_id, course_code, hp, teaching_activity_id, planned_hours, " +
+                "         employment_id, allocated_hours) " +
+                "  SELECT ci.study_year, ci.instance_id, ci.study_period, ci.num_students, " +
+                "         ci.course_layout_id, cl.course_code, cl.hp, pa.teaching_activity_id, pa.planned_hours, " +
+                "         a.employment_id, a.allocated_hours " +
+                "  FROM course_instance ci " +
+                "  JOIN course_layout cl ON cl.id = ci.course_layout_id " +
+                "  LEFT JOIN planned_activity pa ON pa.study_year = ci.study_year " +
+                "                               AND pa.instance_id = ci.instance_id " +
+                "  LEFT JOIN allocations a ON a.study_year = pa.study_year " +
+                "                         AND a.instance_id = pa.instance_id " +
+                "                         AND a.teaching_activity_id = pa.teaching_activity_id " +
+                "  WHERE ci.study_year = ? AND ci.instance_id IN (SELECT instance_id FROM batch) " +
+                "  ORDER BY ci.instance_id, pa.teaching_activity_id, a.employment_id " +
+                "  RETURNING 1 " +
+                "), " +
+                "removed AS ( " +
+                "  DELETE FROM course_instance ci " +
+                "  WHERE ci.study_year = ? AND ci.instance_id IN (SELECT instance_id FROM batch) " +
+                "  RETURNING ci.instance_id " +
+                ") " +
+                "SELECT COUNT(*) AS instances, MAX(instance_id) AS last_instance_id, " +
+                "       (SELECT COUNT(*) FROM archived) AS archived_rows " +
+                "FROM removed";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, studyYear);
+            ps.setString(2, afterInstanceId);
+            ps.setInt(3, batchSize);
+            ps.setInt(4, studyYear);
+            ps.setInt(5, studyYear);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new ArchiveBatch(rs.getInt("instances"), rs.getInt("archived_rows"),
+                        rs.getString("last_instance_id"));
+            }
+        }
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, instanceId);
-            ps.setLong(2, teachingActivityId);
-            ps.setString(3, employmentId);
-            ps.executeUpdate();
+    /**
+     * Moves up to batchSize superseded salary versions that ended before the cutoff
+     * into salary_archive. Returns how many were moved.
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public int archiveSalaryBatch(Timestamp endedBefore, int batchSize) throws SQLException {
+        String sql =
+                "WITH moved AS ( " +
+                "  DELETE FROM salary " +
+                "  WHERE id IN (SELECT id FROM salary " +
+                "               WHERE NOT is_current AND valid_to <= ? " +
+                "               ORDER BY id LIMIT ?) " +
+                "  RETURNING id, employment_id, salary, created_at, valid_to, is_current " +
+                ") " +
+                "INSERT INTO salary_archive (id, employment_id, salary, created_at, valid_to, is_current) " +
+                "SELECT id, employment_id, salary, created_at, valid_to, is_current FROM moved";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setTimestamp(1, endedBefore);
+            ps.setInt(2, batchSize);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Moves superseded course_layout versions that no live instance refers to into
+     * course_layout_archive. Returns how many were moved.
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public int archiveCourseLayouts() throws SQLException {
+        String sql =
+                "WITH moved AS ( " +
+                "  DELETE FROM course_layout cl " +
+                "  WHERE NOT cl.is_current " +
+                "    AND NOT EXISTS (SELECT 1 FROM course_instance ci WHERE ci.course_layout_id = cl.id) " +
+                "  RETURNING cl.id, cl.course_code, cl.course_name, cl.min_students, cl.max_students, " +
+                "            cl.hp, cl.created_at, cl.is_current " +
+                ") " +
+                "INSERT INTO course_layout_archive (id, course_code, course_name, min_students, max_students, " +
+                "                                   hp, created_at, is_current) " +
+                "SELECT id, course_code, course_name, min_students, max_students, hp, created_at, is_current " +
+                "FROM moved";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Drops the (now empty) study_year partitions of an archived year:
+     * drop_study_year_partitions(...) in sql/functions.sql.
+     * NOTE: Call inside executeInTransaction(...).
+     */
+    public void dropYearPartitions(int studyYear) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement("SELECT drop_study_year_partitions(?)")) {
+            ps.setInt(1, studyYear);
+            ps.execute();
         }
     }
 }
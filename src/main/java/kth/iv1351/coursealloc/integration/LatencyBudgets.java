@@ -0,0 +1,200 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.LatencyBudget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.postgresql.PGConnection;
+
+/**
+ * LatencyBudgets (Integration Layer)
+ * ----------------------------------
+ * Responsibilities:
+ *   - Holds the latency budget per use case (the label passed to
+ *     DBHandler.executeInTransaction). A transaction with a budget:
+ *       1. waits for a pooled connection at most that long,
+ *       2. is watched for what is left of the budget: when it is used up, the
+ *          running statement is cancelled (PGConnection.cancelQuery), also
+ *          between statements. No extra statement is sent, so a budget costs
+ *          the transaction no round trip.
+ *     Exceeding the budget rolls back and throws BudgetExceededException;
+ *     services may then answer from a cache (recordFallback).
+ *   - Counts per use case: transactions, slowest one, budget violations, fallbacks.
+ *   - One daemon timer thread for the watchdogs of all shards.
+ * Shared by all shards (see ShardRouter); budgets can be changed while running.
+ *
+ * Configuration (budgets.properties, path from -Dcoursealloc.budgets or the working directory),
+ * milliseconds per use case, 0 = no budget:
+ *   cost=2000
+ *   list_instances=1000
+ */
+public class LatencyBudgets {
+    private static final String CONFIG_PROPERTY = "coursealloc.budgets";
+    private static final String DEFAULT_CONFIG = "budgets.properties";
+
+    // Interactive use cases only; bulk moves, archival, salary revision, snapshot
+    // loads and the warm-up are allowed to take as long as they need.
+    private static final Map<String, Long> DEFAULTS = Map.ofEntries(
+            Map.entry("cost", 2_000L),
+            Map.entry("cost_as_of", 3_000L),
+            Map.entry("inc_students", 1_000L),
+            Map.entry("add_exercise", 1_000L),
+            Map.entry("alloc", 1_000L),
+            Map.entry("dealloc", 1_000L),
+            Map.entry("candidates", 1_000L),
+            Map.entry("list_instances", 1_000L),
+            Map.entry("list_allocations", 1_000L),
+            Map.entry("list_teachers", 1_000L),
+            Map.entry("route", 1_000L));
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "latency-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Numbers of one use case
+    private static class Counters {
+        final LongAdder transactions = new LongAdder();
+        final LongAdder exceeded = new LongAdder();
+        final LongAdder fallbacks = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    /**
+     * Cancels the running statement of one transaction when its budget is used up,
+     * unless the transaction finished first. Synchronized, so a cancel can never
+     * reach the connection after the transaction has handed it back.
+     */
+    public static class Watch {
+        private final Connection connection;
+        private ScheduledFuture<?> timer;
+        private boolean finished;
+        private boolean fired;
+
+        private Watch(Connection connection) {
+            this.connection = connection;
+        }
+
+        private synchronized void fire() {
+            if (finished) {
+                return;
+            }
+            fired = true;
+            try {
+                connection.unwrap(PGConnection.class).cancelQuery();
+            } catch (SQLException e) {
+                // Cancel request not sent: the statement runs to its end
+            }
+        }
+
+        /** Stops watching; returns true if the budget ran out (the statement was cancelled). */
+        public synchronized boolean finish() {
+            finished = true;
+            timer.cancel(false);
+            return fired;
+        }
+    }
+
+    private final Map<String, Long> budgets = new ConcurrentHashMap<>();
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    public LatencyBudgets(Map<String, Long> budgets) {
+        this.budgets.putAll(budgets);
+    }
+
+    /** Defaults, overridden by budgets.properties if present. */
+    public static LatencyBudgets fromConfig() throws IOException {
+        Map<String, Long> budgets = new ConcurrentHashMap<>(DEFAULTS);
+        Path config = Path.of(System.getProperty(CONFIG_PROPERTY, DEFAULT_CONFIG));
+        if (Files.exists(config)) {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(config)) {
+                props.load(in);
+            }
+            for (String useCase : props.stringPropertyNames()) {
+                try {
+                    budgets.put(useCase, Long.parseLong(props.getProperty(useCase).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException(config + ": budget of " + useCase + " must be milliseconds");
+                }
+            }
+        }
+        return new LatencyBudgets(budgets);
+    }
+
+    /** Budget in ms, 0 if the use case has none. */
+    public long budgetMillis(String useCase) {
+        return useCase == null ? 0 : budgets.getOrDefault(useCase, 0L);
+    }
+
+    /** Sets (ms &gt; 0) or removes (0) the budget of a use case. */
+    public void setBudget(String useCase, long millis) {
+        if (millis > 0) {
+            budgets.put(useCase, millis);
+        } else {
+            budgets.remove(useCase);
+        }
+    }
+
+    /** Starts the watchdog of a transaction that has remainingMillis left. */
+    Watch watch(Connection connection, long remainingMillis) {
+        Watch watch = new Watch(connection);
+        synchronized (watch) {
+            watch.timer = WATCHDOG.schedule(watch::fire, remainingMillis, TimeUnit.MILLISECONDS);
+        }
+        return watch;
+    }
+
+    /** Called by DBHandler when a transaction with a use case label ends. */
+    void transactionFinished(String useCase, long totalNanos, boolean exceeded) {
+        Counters c = counters.computeIfAbsent(useCase, k -> new Counters());
+        c.transactions.increment();
+        c.maxNanos.accumulateAndGet(totalNanos, Math::max);
+        if (exceeded) {
+            c.exceeded.increment();
+        }
+    }
+
+    /** A service answered a use case from a cache after its budget was exceeded. */
+    public void recordFallback(String useCase) {
+        counters.computeIfAbsent(useCase, k -> new Counters()).fallbacks.increment();
+    }
+
+    public void reset() {
+        counters.clear();
+    }
+
+    /** Every use case with a budget or with transactions, sorted by name. */
+    public List<LatencyBudget> report() {
+        List<LatencyBudget> report = new ArrayList<>();
+        TreeSet<String> useCases = new TreeSet<>(budgets.keySet());
+        useCases.addAll(counters.keySet());
+        for (String useCase : useCases) {
+            Counters c = counters.get(useCase);
+            report.add(new LatencyBudget(useCase, budgetMillis(useCase),
+                    c == null ? 0 : c.transactions.sum(),
+                    c == null ? 0 : c.maxNanos.get() / 1_000_000,
+                    c == null ? 0 : c.exceeded.sum(),
+                    c == null ? 0 : c.fallbacks.sum()));
+        }
+        return report;
+    }
+}
@@ -0,0 +1,310 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.LockProfile;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockProfiler (Integration Layer)
+ * --------------------------------
+ * Responsibilities:
+ *   - While running, DBHandler labels every transaction with its use case and
+ *     keys by setting application_name for that transaction only:
+ *       coursealloc|<use_case>|<instance_id>|<employment_id>
+ *     (same layout as the change notifications), and reports per transaction
+ *     how long it queued for the connection and how long it took in total.
+ *   - Owns its OWN JDBC Connection and one daemon thread that samples
+ *     pg_stat_activity / pg_locks every SAMPLE_INTERVAL_MS for coursealloc
+ *     sessions blocked on a lock (from any application instance), and charges
+ *     the interval to the waiting use case, its instance and teacher keys, and
+ *     remembers which use case held the lock.
+ *   - report() summarizes both; reset() starts over.
+ * When stopped, DBHandler does not label transactions and nothing is sampled.
+ */
+public class LockProfiler {
+    public static final String LABEL_PREFIX = "coursealloc";
+    private static final long SAMPLE_INTERVAL_MS = 20;
+    private static final int HOT_KEYS = 10;
+    private static final int MAX_LABEL_LENGTH = 63; // application_name is cut at NAMEDATALEN - 1
+    private static final int MAX_LONG_KEYS = 10_000;
+
+    // Keys too long for a label, by the token that stands for them there (see label)
+    private static final Map<String, String> LONG_KEYS = new ConcurrentHashMap<>();
+
+    // Blocked coursealloc sessions, one row per (waiter, blocker)
+    private static final String SAMPLE_SQL =
+            "SELECT w.pid, w.application_name AS waiter, b.application_name AS blocker, " +
+            "       (SELECT COALESCE(l.relation::regclass::text, l.locktype) " +
+            "        FROM pg_locks l WHERE l.pid = w.pid AND NOT l.granted LIMIT 1) AS waited_on " +
+            "FROM pg_stat_activity w " +
+            "CROSS JOIN LATERAL unnest(pg_blocking_pids(w.pid)) AS bp(pid) " +
+            "JOIN pg_stat_activity b ON b.pid = bp.pid " +
+            "WHERE w.wait_event_type = 'Lock' " +
+            "  AND w.application_name LIKE '" + LABEL_PREFIX + "|%' " +
+            "ORDER BY w.pid";
+
+    private static class UseCaseStats {
+        final LongAdder transactions = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder queueWaitNanos = new LongAdder();
+        final LongAdder lockWaitNanos = new LongAdder();
+        final Map<String, LongAdder> waitedOn = new ConcurrentHashMap<>();
+    }
+
+    private static class KeyStats {
+        final LongAdder lockWaitNanos = new LongAdder();
+        final Map<String, LongAdder> blockers = new ConcurrentHashMap<>();
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final Map<String, UseCaseStats> useCases = new ConcurrentHashMap<>();
+    private final Map<String, KeyStats> instanceKeys = new ConcurrentHashMap<>();
+    private final Map<String, KeyStats> teacherKeys = new ConcurrentHashMap<>();
+    private final LongAdder sampledNanos = new LongAdder();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public LockProfiler(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Starts labelling and sampling. Calling it twice has no effect. */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "lock-profiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops sampling; the numbers collected so far stay available to report(). */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public void reset() {
+        useCases.clear();
+        instanceKeys.clear();
+        teacherKeys.clear();
+        sampledNanos.reset();
+    }
+
+    /**
+     * The application_name of a transaction (null keys are left empty), at most
+     * MAX_LABEL_LENGTH long. Keys that do not fit are replaced by a short token
+     * ("#" and their hash, longest key first) that the sampler turns back into the
+     * key; only what is then still too long is cut, off the use case.
+     */
+    public static String label(String useCase, String instanceId, String employmentId) {
+        String name = nullToEmpty(useCase);
+        String[] keys = { nullToEmpty(instanceId), nullToEmpty(employmentId) };
+        int room = MAX_LABEL_LENGTH - LABEL_PREFIX.length() - 3 - name.length(); // 3 separators
+        while (keys[0].length() + keys[1].length() > room) {
+            int longest = keys[0].length() >= keys[1].length() ? 0 : 1;
+            String token = keyToken(keys[longest]);
+            if (token.length() >= keys[longest].length()) {
+                break; // both keys are as short as they get
+            }
+            keys[longest] = token;
+        }
+        String label = LABEL_PREFIX + "|" + name + "|" + keys[0] + "|" + keys[1];
+        if (label.length() > MAX_LABEL_LENGTH) {
+            name = name.substring(0, name.length() - (label.length() - MAX_LABEL_LENGTH));
+            label = LABEL_PREFIX + "|" + name + "|" + keys[0] + "|" + keys[1];
+        }
+        return label;
+    }
+
+    // Stands for a long key in a label; remembered (up to MAX_LONG_KEYS) for parseLabel.
+    private static String keyToken(String key) {
+        String token = "#" + Integer.toHexString(key.hashCode());
+        if (LONG_KEYS.size() < MAX_LONG_KEYS) {
+            LONG_KEYS.put(token, key);
+        }
+        return token;
+    }
+
+    // The key a label part stands for (tokens of other application instances stay as they are).
+    private static String resolveKey(String part) {
+        return part.startsWith("#") ? LONG_KEYS.getOrDefault(part, part) : part;
+    }
+
+    /** Called by DBHandler when a labelled transaction has finished (commit or rollback). */
+    public void transactionFinished(String useCase, long queueWaitNanos, long totalNanos) {
+        UseCaseStats stats = useCases.computeIfAbsent(useCaseName(useCase), k -> new UseCaseStats());
+        stats.transactions.increment();
+        stats.queueWaitNanos.add(queueWaitNanos);
+        stats.totalNanos.add(totalNanos);
+    }
+
+    // Sampler loop: one query per interval, charging the real time since the last one.
+    private void run() {
+        Connection conn = null;
+        long last = System.nanoTime();
+        try {
+            while (running) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MS));
+                long now = System.nanoTime();
+                // A long pause (GC, reconnect) is not evidence of a long wait
+                long interval = Math.min(now - last, TimeUnit.MILLISECONDS.toNanos(10 * SAMPLE_INTERVAL_MS));
+                last = now;
+                try {
+                    if (conn == null) {
+                        conn = DriverManager.getConnection(url, user, password);
+                        conn.setAutoCommit(true);
+                    }
+                    sample(conn, interval);
+                    sampledNanos.add(interval);
+                } catch (SQLException e) {
+                    closeQuietly(conn);
+                    conn = null;
+                    System.out.println("Lock profiler lost its connection: " + e.getMessage());
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                    last = System.nanoTime();
+                }
+            }
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    private void sample(Connection conn, long interval) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(SAMPLE_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            Set<Integer> charged = new HashSet<>();
+            while (rs.next()) {
+                String[] waiter = parseLabel(rs.getString("waiter"));
+                String blocker = parseLabel(rs.getString("blocker"))[0];
+                boolean first = charged.add(rs.getInt("pid")); // a waiter may have several blockers
+
+                if (first) {
+                    UseCaseStats stats = useCases.computeIfAbsent(waiter[0], k -> new UseCaseStats());
+                    stats.lockWaitNanos.add(interval);
+                    String waitedOn = rs.getString("waited_on");
+                    if (waitedOn != null) {
+                        stats.waitedOn.computeIfAbsent(waitedOn, k -> new LongAdder()).add(interval);
+                    }
+                }
+                charge(instanceKeys, waiter[1], blocker, first ? interval : 0);
+                charge(teacherKeys, waiter[2], blocker, first ? interval : 0);
+            }
+        }
+    }
+
+    private static void charge(Map<String, KeyStats> keys, String key, String blocker, long interval) {
+        if (key.isEmpty()) {
+            return;
+        }
+        KeyStats stats = keys.computeIfAbsent(key, k -> new KeyStats());
+        stats.lockWaitNanos.add(interval);
+        stats.blockers.computeIfAbsent(blocker, k -> new LongAdder()).increment();
+    }
+
+    // { use case, instance id, employment id }; sessions that are not ours count as "external"
+    static String[] parseLabel(String applicationName) {
+        String[] parts = applicationName == null ? new String[0] : applicationName.split("\\|", -1);
+        if (parts.length < 2 || !LABEL_PREFIX.equals(parts[0])) {
+            return new String[] { "external", "", "" };
+        }
+        return new String[] {
+                useCaseName(parts[1]),
+                parts.length > 2 ? resolveKey(parts[2]) : "",
+                parts.length > 3 ? resolveKey(parts[3]) : "" };
+    }
+
+    /** Current numbers: use cases by total waiting, then the hottest keys. */
+    public LockProfile report() {
+        List<LockProfile.UseCase> cases = new ArrayList<>();
+        for (Map.Entry<String, UseCaseStats> e : useCases.entrySet()) {
+            UseCaseStats s = e.getValue();
+            cases.add(new LockProfile.UseCase(e.getKey(), s.transactions.sum(),
+                    millis(s.totalNanos.sum()), millis(s.queueWaitNanos.sum()),
+                    millis(s.lockWaitNanos.sum()), top(s.waitedOn)));
+        }
+        cases.sort(Comparator.comparingDouble(
+                (LockProfile.UseCase u) -> u.getQueueWaitMillis() + u.getLockWaitMillis()).reversed());
+
+        List<LockProfile.HotKey> keys = new ArrayList<>();
+        addHotKeys(keys, "instance", instanceKeys);
+        addHotKeys(keys, "teacher", teacherKeys);
+        keys.sort(Comparator.comparingDouble(LockProfile.HotKey::getLockWaitMillis).reversed());
+
+        return new LockProfile(running, sampledNanos.sum() / 1e9, cases,
+                new ArrayList<>(keys.subList(0, Math.min(HOT_KEYS, keys.size()))));
+    }
+
+    private static void addHotKeys(List<LockProfile.HotKey> out, String kind, Map<String, KeyStats> keys) {
+        for (Map.Entry<String, KeyStats> e : keys.entrySet()) {
+            out.add(new LockProfile.HotKey(kind, e.getKey(),
+                    millis(e.getValue().lockWaitNanos.sum()), top(e.getValue().blockers)));
+        }
+    }
+
+    // Key with the largest count, or null if empty
+    private static String top(Map<String, LongAdder> counts) {
+        String best = null;
+        long bestCount = -1;
+        for (Map.Entry<String, LongAdder> e : counts.entrySet()) {
+            long c = e.getValue().sum();
+            if (c > bestCount) {
+                best = e.getKey();
+                bestCount = c;
+            }
+        }
+        return best;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String useCaseName(String useCase) {
+        return useCase == null || useCase.isEmpty() ? "other" : useCase;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static void closeQuietly(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+                // nothing left to do with a broken connection
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.ChangeEvent;
+import kth.iv1351.coursealloc.model.ViewRefreshStatus;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MaterializedViewRefresher (Integration Layer)
+ * ---------------------------------------------
+ * Responsibilities:
+ *   - Knows which tables each materialized view of sql/olap.sql is built from,
+ *     and marks a view dirty when the change feed reports a committed change to
+ *     one of them (onChange: a few field writes, no I/O on the write path).
+ *   - Owns its OWN JDBC Connection and one daemon thread that refreshes dirty
+ *     views with REFRESH MATERIALIZED VIEW CONCURRENTLY (readers are never blocked):
+ *     a burst of changes becomes ONE refresh once no change has arrived for
+ *     QUIET_MS, or at the latest MAX_DELAY_MS after the first change of the burst.
+ *   - A view is refreshed by one session at a time, also across application
+ *     instances (advisory lock); a view that is busy elsewhere is tried again later.
+ * Changes to reference data (course_layout, teaching_activity, names) are not on
+ * the change feed; refreshAll() marks every view dirty for such cases.
+ */
+public class MaterializedViewRefresher {
+    private static final long QUIET_MS = 500;
+    private static final long MAX_DELAY_MS = 5_000;
+    private static final long RETRY_MS = 1_000;
+
+    // View -> tables it reads (both query1 and query3 are built on v_allocation_hours)
+    private static final Map<String, Set<ChangeEvent.Table>> DEPENDENCIES = new LinkedHashMap<>();
+    static {
+        Set<ChangeEvent.Table> allocationHours = EnumSet.of(ChangeEvent.Table.ALLOCATIONS,
+                ChangeEvent.Table.PLANNED_ACTIVITY, ChangeEvent.Table.COURSE_INSTANCE);
+        DEPENDENCIES.put("query1", allocationHours);
+        DEPENDENCIES.put("query3", allocationHours);
+    }
+
+    // Refresh state of one view; fields guarded by the refresher's monitor
+    private static class ViewState {
+        final String name;
+        long dirtySinceMillis;      // first change of the current burst, 0 = clean
+        long lastChangeMillis;
+        long changesPending;
+        long changesCoalesced;
+        long refreshes;
+        long lastRefreshedAtMillis;
+        long lastDurationMillis;
+        String lastError;
+
+        ViewState(String name) {
+            this.name = name;
+        }
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Map<String, ViewState> views = new LinkedHashMap<>();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public MaterializedViewRefresher(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        for (String view : DEPENDENCIES.keySet()) {
+            views.put(view, new ViewState(view));
+        }
+    }
+
+    /** Starts the background refresher thread. Calling it twice has no effect. */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "view-refresher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops the refresher; a refresh in progress is allowed to finish (waits at most 10 s). */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            if (t == null) {
+                return;
+            }
+            running = false;
+            thread = null;
+        }
+        LockSupport.unpark(t);
+        try {
+            t.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Change feed subscriber: marks the views that read the changed table (all of them on a resync). */
+    public void onChange(ChangeEvent event) {
+        if (event.isResync()) {
+            refreshAll();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Map.Entry<String, Set<ChangeEvent.Table>> e : DEPENDENCIES.entrySet()) {
+                if (e.getValue().contains(event.getTable())) {
+                    markDirty(views.get(e.getKey()), now);
+                }
+            }
+        }
+    }
+
+    /** Marks every view dirty; they are refreshed within the next debounce window. */
+    public void refreshAll() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (ViewState v : views.values()) {
+                markDirty(v, now);
+            }
+        }
+        wake();
+    }
+
+    // Guarded by 'this'
+    private void markDirty(ViewState v, long now) {
+        if (v.dirtySinceMillis == 0) {
+            v.dirtySinceMillis = now;
+        }
+        v.lastChangeMillis = now;
+        v.changesPending++;
+    }
+
+    public synchronized List<ViewRefreshStatus> status() {
+        List<ViewRefreshStatus> result = new ArrayList<>();
+        for (ViewState v : views.values()) {
+            result.add(new ViewRefreshStatus(v.name, v.dirtySinceMillis != 0, v.changesCoalesced,
+                    v.refreshes, v.lastRefreshedAtMillis, v.lastDurationMillis, v.lastError));
+        }
+        return result;
+    }
+
+    private void wake() {
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // Refresher loop: sleep until the next view is due, refresh it, repeat.
+    private void run() {
+        Connection conn = null;
+        try {
+            while (running) {
+                ViewState due = null;
+                long sleepMs = QUIET_MS;
+                long now = System.currentTimeMillis();
+                synchronized (this) {
+                    for (ViewState v : views.values()) {
+                        if (v.dirtySinceMillis == 0) {
+                            continue;
+                        }
+                        long dueAt = Math.min(v.lastChangeMillis + QUIET_MS, v.dirtySinceMillis + MAX_DELAY_MS);
+                        if (dueAt <= now) {
+                            due = v;
+                            break;
+                        }
+                        sleepMs = Math.min(sleepMs, dueAt - now);
+                    }
+                    if (due != null) {
+                        // Changes from here on start a new burst (and a new refresh)
+                        due.dirtySinceMillis = 0;
+                        due.changesCoalesced += due.changesPending;
+                        due.changesPending = 0;
+                    }
+                }
+                if (due == null) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(sleepMs));
+                    continue;
+                }
+
+                try {
+                    if (conn == null) {
+                        conn = DriverManager.getConnection(url, user, password);
+                        conn.setAutoCommit(true); // REFRESH ... CONCURRENTLY cannot run in a transaction block
+                    }
+                    refresh(conn, due);
+                } catch (SQLException e) {
+                    // Not retried in a loop: the next change (or refreshAll) tries again
+                    closeQuietly(conn);
+                    conn = null;
+                    synchronized (this) {
+                        due.lastError = e.getMessage();
+                    }
+                }
+            }
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    private void refresh(Connection conn, ViewState view) throws SQLException {
+        long start = System.currentTimeMillis();
+        if (!tryLock(conn, view.name)) {
+            retryLater(view); // another session is refreshing it right now
+            return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY \"" + view.name + "\"");
+        } finally {
+            unlock(conn, view.name);
+        }
+        long end = System.currentTimeMillis();
+        synchronized (this) {
+            view.refreshes++;
+            view.lastRefreshedAtMillis = end;
+            view.lastDurationMillis = end - start;
+            view.lastError = null;
+        }
+    }
+
+    // Dirty again, due RETRY_MS from now (unless newer changes already made it dirty)
+    private void retryLater(ViewState view) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (view.dirtySinceMillis == 0) {
+                view.dirtySinceMillis = now - MAX_DELAY_MS + RETRY_MS;
+                view.lastChangeMillis = now;
+            }
+        }
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(RETRY_MS, QUIET_MS)));
+    }
+
+    private static boolean tryLock(Connection conn, String view) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT pg_try_advisory_lock(hashtext('coursealloc.refresh.' || ?))")) {
+            ps.setString(1, view);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void unlock(Connection conn, String view) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT pg_advisory_unlock(hashtext('coursealloc.refresh.' || ?))")) {
+            ps.setString(1, view);
+            ps.execute();
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+                // nothing left to do with a broken connection
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.ChangeEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ShardRouter (Integration Layer)
+ * -------------------------------
+ * Responsibilities:
+ *   - Knows the shards: one PostgreSQL database per group of departments, each
+ *     with its own DBHandler (connection pool), ChangeListener, AuditLogWriter,
+ *     MaterializedViewRefresher and LockProfiler (started on demand), and the
+ *     LatencyBudgets all shards share.
+ *   - Routes by owning department: a teacher goes to the shard configured for
+ *     their department (employee.department_id), an instance to the shard that
+ *     holds it, which sql/shard_split.sql chose by its owning department. The
+ *     routing table is read from all shards once, on first use (one query each),
+ *     and kept current by the change feeds; only keys it does not know yet
+ *     (created since) are looked up on all shards.
+ *   - Runs cross-shard calls in parallel (fanOut) for reports the caller merges.
+ *   - Keeps the cost use case's average hourly salary global: each shard's
+ *     DBHandler adds the other shards' salary sums and counts (OtherSalaries).
+ *     The current totals are cached per shard and dropped when that shard reports
+ *     a salary change, which is also passed on to the other shards' subscribers
+ *     (ChangeEvent.otherShardSalaries) so their report snapshots re-read the average.
+ *
+ * Configuration (shards.properties, path from -Dcoursealloc.shards or the working directory):
+ *   shards=east,west
+ *   shard.east.url=jdbc:postgresql://localhost:5432/iv1351_east
+ *   shard.east.user=postgres
+ *   shard.east.password=...
+ *   shard.east.departments=Computer Science,Mathematics
+ *   shard.east.pool=4              (connections, i.e. concurrent transactions; default 4)
+ * Without the file there is one shard with the default credentials, and no lookups.
+ *
+ * Teachers only work on instances of their own shard: allocations never span databases
+ * (shard_split.sql refuses to split a database where they would).
+ */
+public class ShardRouter {
+    private static final String CONFIG_PROPERTY = "coursealloc.shards";
+    private static final String DEFAULT_CONFIG = "shards.properties";
+    private static final int DEFAULT_POOL_SIZE = 4;
+
+    /** One database with everything that talks to it. */
+    public static class Shard {
+        public final String name;
+        public final DBHandler db;
+        public final ChangeListener changes;
+        public final AuditLogWriter audit;
+        public final LockProfiler locks;
+        public final MaterializedViewRefresher views;
+
+        // Bumped on every salary change of this shard (see currentSalaries)
+        private final AtomicLong salaryGeneration = new AtomicLong();
+
+        Shard(String name, String url, String user, String password, boolean lazy, int poolSize,
+              LatencyBudgets budgets) throws SQLException {
+            this.name = name;
+            this.db = new DBHandler(url, user, password, lazy, poolSize);
+            this.changes = new ChangeListener(url, user, password);
+            this.audit = new AuditLogWriter(url, user, password, System.getProperty("user.name"));
+            this.locks = new LockProfiler(url, user, password);
+            this.views = new MaterializedViewRefresher(url, user, password);
+            db.setAuditLog(audit);
+            db.setLockProfiler(locks);
+            db.setLatencyBudgets(budgets);
+        }
+    }
+
+    /** A call against one shard (used by fanOut). */
+    @FunctionalInterface
+    public interface ShardCall<T> {
+        T call(Shard shard) throws SQLException;
+    }
+
+    private final List<Shard> shards;
+    private final Map<String, Shard> byDepartment;
+    private final ExecutorService fanOutPool;
+    private final LatencyBudgets budgets;
+
+    // Routing table (loadRoutes): instance -> shard holding it, employee -> shard of their department
+    private final Map<String, Shard> byInstance = new ConcurrentHashMap<>();
+    private final Map<String, Shard> byEmployee = new ConcurrentHashMap<>();
+    private volatile boolean routesLoaded;
+
+    // Current salary totals per shard, for the other shards' averages (see currentSalaries)
+    private final Map<Shard, DBHandler.SalaryTotals> currentSalaries = new ConcurrentHashMap<>();
+
+    private ShardRouter(List<Shard> shards, Map<String, Shard> byDepartment, LatencyBudgets budgets) {
+        this.shards = Collections.unmodifiableList(shards);
+        this.byDepartment = byDepartment;
+        this.budgets = budgets;
+        this.fanOutPool = shards.size() == 1 ? null : Executors.newFixedThreadPool(shards.size(), r -> {
+            Thread t = new Thread(r, "shard-fan-out");
+            t.setDaemon(true);
+            return t;
+        });
+        if (shards.size() > 1) {
+            for (Shard shard : shards) {
+                shard.db.setOtherSalaries(asOf -> otherSalaries(shard, asOf));
+                // Subscribed before the Controller's subscribers: their next read sees the dropped totals
+                shard.changes.subscribe(event -> onChange(shard, event));
+            }
+        }
+    }
+
+    /**
+     * Reads shards.properties if present, otherwise returns a single shard
+     * with the given default credentials. All shards share one LatencyBudgets
+     * (LatencyBudgets.fromConfig).
+     */
+    public static ShardRouter fromConfig(String defaultUrl, String defaultUser, String defaultPassword,
+                                         boolean lazy) throws SQLException, IOException {
+        LatencyBudgets budgets = LatencyBudgets.fromConfig();
+        Path config = Path.of(System.getProperty(CONFIG_PROPERTY, DEFAULT_CONFIG));
+        if (!Files.exists(config)) {
+            Shard only = new Shard("default", defaultUrl, defaultUser, defaultPassword, lazy,
+                    DEFAULT_POOL_SIZE, budgets);
+            return new ShardRouter(List.of(only), Map.of(), budgets);
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(config)) {
+            props.load(in);
+        }
+
+        List<Shard> shards = new ArrayList<>();
+        Map<String, Shard> byDepartment = new LinkedHashMap<>();
+        for (String name : props.getProperty("shards", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String prefix = "shard." + name + ".";
+            String url = props.getProperty(prefix + "url");
+            if (url == null) {
+                throw new IOException(config + ": missing " + prefix + "url");
+            }
+            int poolSize;
+            try {
+                poolSize = Integer.parseInt(props.getProperty(prefix + "pool",
+                        String.valueOf(DEFAULT_POOL_SIZE)).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException(config + ": " + prefix + "pool is not a number");
+            }
+            if (poolSize < 1) {
+                throw new IOException(config + ": " + prefix + "pool must be at least 1");
+            }
+            Shard shard = new Shard(name, url,
+                    props.getProperty(prefix + "user", defaultUser),
+                    props.getProperty(prefix + "password", defaultPassword), lazy, poolSize, budgets);
+            shards.add(shard);
+            for (String dept : props.getProperty(prefix + "departments", "").split(",")) {
+                if (!dept.isBlank() && byDepartment.put(dept.trim(), shard) != null) {
+                    throw new IOException(config + ": department '" + dept.trim() + "' is on two shards");
+                }
+            }
+        }
+        if (shards.isEmpty()) {
+            throw new IOException(config + ": no shards configured");
+        }
+        return new ShardRouter(shards, byDepartment, budgets);
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /** Latency budgets and their counters, the same for every shard. */
+    public LatencyBudgets getBudgets() {
+        return budgets;
+    }
+
+    /** Starts the change listeners, audit writers and view refreshers of all shards. */
+    public void start() {
+        for (Shard shard : shards) {
+            shard.changes.start();
+            shard.audit.start();
+            shard.views.start();
+        }
+    }
+
+    /** Stops listeners and lock profilers, flushes audit writers and the fan-out pool. */
+    public void stop() {
+        for (Shard shard : shards) {
+            shard.changes.stop();
+            shard.views.stop();
+            shard.locks.stop();
+            shard.audit.stop();
+        }
+        if (fanOutPool != null) {
+            fanOutPool.shutdownNow();
+        }
+    }
+
+    /** The shard of a department; null if the department is not configured (query all shards). */
+    public Shard forDepartment(String departmentName) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        return byDepartment.get(departmentName);
+    }
+
+    /** The shard that holds the course instance (the shard of its owning department). */
+    public Shard forInstance(String instanceId) throws SQLException {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        loadRoutes();
+        Shard shard = byInstance.get(instanceId);
+        if (shard == null) {
+            // Created since the routing table was read, and its change event not in yet
+            shard = locate(s -> s.db.instanceExists(instanceId));
+            if (shard == null) {
+                throw new SQLException("Course instance not found: " + instanceId);
+            }
+            byInstance.put(instanceId, shard);
+        }
+        return shard;
+    }
+
+    /** The shard of the employee's department. */
+    public Shard forEmployee(String employmentId) throws SQLException {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        loadRoutes();
+        Shard shard = byEmployee.get(employmentId);
+        if (shard == null) {
+            // Hired since the routing table was read
+            List<String> departments = fanOut(s -> s.db.employeeDepartment(employmentId));
+            for (int i = 0; i < departments.size() && shard == null; i++) {
+                if (departments.get(i) != null) {
+                    shard = routeByDepartment(departments.get(i), shards.get(i));
+                }
+            }
+            if (shard == null) {
+                throw new SQLException("Unknown employee: " + employmentId);
+            }
+            byEmployee.put(employmentId, shard);
+        }
+        return shard;
+    }
+
+    // The configured shard of the department; the shard that holds the row if it is not configured.
+    private Shard routeByDepartment(String departmentName, Shard holder) {
+        Shard shard = byDepartment.get(departmentName);
+        return shard != null ? shard : holder;
+    }
+
+    // Reads the routing table from all shards, once (one query per shard, in parallel).
+    private void loadRoutes() throws SQLException {
+        if (routesLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (routesLoaded) {
+                return;
+            }
+            List<DBHandler.ShardRoutes> routes = fanOut(s -> s.db.loadShardRoutes());
+            for (int i = 0; i < routes.size(); i++) {
+                Shard holder = shards.get(i);
+                for (String instanceId : routes.get(i).instanceIds) {
+                    byInstance.putIfAbsent(instanceId, holder);
+                }
+                for (Map.Entry<String, String> e : routes.get(i).employeeDepartments.entrySet()) {
+                    byEmployee.putIfAbsent(e.getKey(), routeByDepartment(e.getValue(), holder));
+                }
+            }
+            routesLoaded = true;
+        }
+    }
+
+    // Change feed of one shard: keeps the routing table and the salary totals current.
+    private void onChange(Shard shard, ChangeEvent event) {
+        if (event.isFromOtherShard()) {
+            return;
+        }
+        if (!event.isResync() && event.getTable() == ChangeEvent.Table.COURSE_INSTANCE
+                && event.getInstanceId() != null) {
+            if (event.getOperation() == ChangeEvent.Operation.DELETE) {
+                byInstance.remove(event.getInstanceId(), shard);
+            } else {
+                byInstance.put(event.getInstanceId(), shard);
+            }
+        }
+        if (event.isResync() || event.getTable() == ChangeEvent.Table.SALARY) {
+            shard.salaryGeneration.incrementAndGet();
+            currentSalaries.remove(shard);
+            ChangeEvent forwarded = ChangeEvent.otherShardSalaries(event.getReceivedAtMillis());
+            for (Shard other : shards) {
+                if (other != shard) {
+                    other.changes.forward(forwarded);
+                }
+            }
+        }
+    }
+
+    // Salary totals of all shards but one (DBHandler.OtherSalaries); never called inside a transaction.
+    private DBHandler.SalaryTotals otherSalaries(Shard self, Timestamp asOf) throws SQLException {
+        DBHandler.SalaryTotals total = DBHandler.SalaryTotals.NONE;
+        if (asOf == null) {
+            for (Shard shard : shards) {
+                if (shard != self) {
+                    total = total.plus(currentSalaries(shard));
+                }
+            }
+            return total;
+        }
+        for (DBHandler.SalaryTotals part : fanOut(s ->
+                s == self ? DBHandler.SalaryTotals.NONE : s.db.salaryTotals(asOf))) {
+            total = total.plus(part);
+        }
+        return total;
+    }
+
+    // Cached current salary totals of a shard, read on demand after a salary change.
+    private DBHandler.SalaryTotals currentSalaries(Shard shard) throws SQLException {
+        DBHandler.SalaryTotals cached = currentSalaries.get(shard);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = shard.salaryGeneration.get();
+        DBHandler.SalaryTotals loaded = shard.db.salaryTotals(null);
+        currentSalaries.put(shard, loaded);
+        if (shard.salaryGeneration.get() != generation) {
+            // Salaries changed while reading: the next caller reads them again
+            currentSalaries.remove(shard, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Runs the call on every shard in parallel and returns the results in shard order.
+     * The first SQLException (if any) is rethrown after all calls have finished.
+     */
+    public <T> List<T> fanOut(ShardCall<T> call) throws SQLException {
+        if (shards.size() == 1) {
+            return Collections.singletonList(call.call(shards.get(0)));
+        }
+
+        List<Future<T>> futures = new ArrayList<>();
+        for (Shard shard : shards) {
+            futures.add(fanOutPool.submit(() -> call.call(shard)));
+        }
+
+        List<T> results = new ArrayList<>();
+        SQLException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    if (failure == null) {
+                        failure = new SQLException("Shard " + shards.get(i).name + ": " + cause.getMessage(), cause);
+                    }
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for shard " + shards.get(i).name, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    // First shard (in shard order) for which the existence check is true, or null.
+    private Shard locate(ShardCall<Boolean> exists) throws SQLException {
+        List<Boolean> found = fanOut(exists);
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i)) {
+                return shards.get(i);
+            }
+        }
+        return null;
+    }
+}
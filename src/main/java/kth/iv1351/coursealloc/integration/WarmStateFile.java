@@ -0,0 +1,198 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.integration.DBHandler.InstancePeriod;
+import kth.iv1351.coursealloc.model.AllocationHoursSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * WarmStateFile (Integration Layer)
+ * ---------------------------------
+ * Responsibilities:
+ *   - Saves the warm in-memory state of one shard (reference data caches and the
+ *     reporting snapshot) to a binary file on shutdown, together with the
+ *     database change marker it was loaded at (DBHandler.readChangeMarker).
+ *   - Loads it on startup by memory-mapping the file: the snapshot's numeric
+ *     columns are bulk-copied out of the mapping instead of being read row by row
+ *     from v_allocation_hours. The caller decides whether the marker still matches.
+ *   - Writes go to a temporary file that is moved into place, so a crash while
+ *     saving leaves the previous file (or none), never a half-written one.
+ *
+ * Layout (big-endian): magic, format version, marker, saved-at millis,
+ * activity ids, instance periods, has-snapshot flag + snapshot columns
+ * (AllocationHoursSnapshot.writeTo), CRC32 of everything before it.
+ * A missing, damaged or older-format file loads as null.
+ */
+public class WarmStateFile {
+    private static final int MAGIC = 0x43415753; // "CAWS"
+    private static final int FORMAT_VERSION = 1;
+
+    /** State read from the file; the snapshot still has to be built (versioned) by ReportingService. */
+    public static class WarmState {
+        public final String changeMarker;
+        public final long savedAtMillis;
+        public final Map<String, Long> activityIds;
+        public final Map<String, InstancePeriod> instancePeriods;
+        public final AllocationHoursSnapshot.Builder snapshot; // null if none was saved
+
+        WarmState(String changeMarker, long savedAtMillis, Map<String, Long> activityIds,
+                  Map<String, InstancePeriod> instancePeriods, AllocationHoursSnapshot.Builder snapshot) {
+            this.changeMarker = changeMarker;
+            this.savedAtMillis = savedAtMillis;
+            this.activityIds = activityIds;
+            this.instancePeriods = instancePeriods;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final Path path;
+
+    public WarmStateFile(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Writes the state atomically (temporary file + move).
+     * @param snapshot may be null; only pass one that belongs to changeMarker
+     */
+    public void save(String changeMarker, Map<String, Long> activityIds,
+                     Map<String, InstancePeriod> instancePeriods,
+                     AllocationHoursSnapshot snapshot) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                DataOutputStream body = new DataOutputStream(new CheckedOutputStream(out, crc));
+                body.writeInt(MAGIC);
+                body.writeInt(FORMAT_VERSION);
+                writeString(body, changeMarker);
+                body.writeLong(System.currentTimeMillis());
+
+                body.writeInt(activityIds.size());
+                for (Map.Entry<String, Long> e : activityIds.entrySet()) {
+                    writeString(body, e.getKey());
+                    body.writeLong(e.getValue());
+                }
+
+                body.writeInt(instancePeriods.size());
+                for (Map.Entry<String, InstancePeriod> e : instancePeriods.entrySet()) {
+                    writeString(body, e.getKey());
+                    body.writeInt(e.getValue().studyYear);
+                    writeString(body, e.getValue().studyPeriod);
+                    writeString(body, e.getValue().courseCode);
+                }
+
+                body.writeBoolean(snapshot != null);
+                if (snapshot != null) {
+                    snapshot.writeTo(body);
+                }
+                body.flush();
+                out.writeLong(crc.getValue()); // not part of the checksum
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Maps and decodes the file; null if it is missing, damaged or of another format version. */
+    public WarmState load() {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 3 * Integer.BYTES + Long.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            int bodyLength = (int) size - Long.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().limit(bodyLength));
+            if (crc.getValue() != buf.getLong(bodyLength)) {
+                return null;
+            }
+            ByteBuffer in = buf.duplicate().limit(bodyLength);
+
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String changeMarker = readString(in);
+            long savedAtMillis = in.getLong();
+
+            int activities = in.getInt();
+            Map<String, Long> activityIds = new HashMap<>(activities * 2);
+            for (int k = 0; k < activities; k++) {
+                activityIds.put(readString(in), in.getLong());
+            }
+
+            int periods = in.getInt();
+            Map<String, InstancePeriod> instancePeriods = new HashMap<>(periods * 2);
+            for (int k = 0; k < periods; k++) {
+                String instanceId = readString(in);
+                int studyYear = in.getInt();
+                String studyPeriod = readString(in);
+                instancePeriods.put(instanceId, new InstancePeriod(studyYear, studyPeriod, readString(in)));
+            }
+
+            AllocationHoursSnapshot.Builder snapshot =
+                    in.get() != 0 ? AllocationHoursSnapshot.readFrom(in) : null;
+            if (in.hasRemaining()) {
+                return null;
+            }
+            return new WarmState(changeMarker, savedAtMillis, activityIds, instancePeriods, snapshot);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /** Removes the file (it no longer matches the database); missing is fine. */
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
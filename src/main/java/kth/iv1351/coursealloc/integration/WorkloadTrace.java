@@ -0,0 +1,195 @@
+package kth.iv1351.coursealloc.integration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WorkloadTrace (Integration Layer)
+ * ---------------------------------
+ * Compact binary trace of Controller calls, for replaying a real mix of use cases
+ * against a test database (tools.WorkloadReplay):
+ *   - Writer: appends one record per call (Controller.startRecording), thread-safe.
+ *   - read(...): all records of a trace, in the order they were written.
+ *
+ * Layout (big-endian): magic, format version, start time (epoch ms), then per call:
+ *   varint op id (first use of an id is followed by the op name),
+ *   varint session (dense id of the calling thread, so concurrency can be replayed),
+ *   varint start offset and latency in microseconds, outcome byte,
+ *   argument count byte and per argument a present flag + modified UTF-8.
+ * A trace cut off by a crash is read up to its last complete record.
+ */
+public class WorkloadTrace {
+    private static final int MAGIC = 0x4341574C; // "CAWL"
+    private static final int FORMAT_VERSION = 1;
+
+    public static final byte OK = 0;
+    public static final byte REJECTED = 1;        // business rule, e.g. teacher overloaded
+    public static final byte ERROR = 2;           // SQLException
+    public static final byte OVER_BUDGET = 3;     // BudgetExceededException
+
+    /** One recorded call. */
+    public static class Call {
+        public final String op;
+        public final String[] args;       // as recorded, null entries for null arguments
+        public final int session;
+        public final long offsetMicros;   // start, since the trace started
+        public final long latencyMicros;
+        public final byte outcome;
+
+        Call(String op, String[] args, int session, long offsetMicros, long latencyMicros, byte outcome) {
+            this.op = op;
+            this.args = args;
+            this.session = session;
+            this.offsetMicros = offsetMicros;
+            this.latencyMicros = latencyMicros;
+            this.outcome = outcome;
+        }
+    }
+
+    /** Appends calls to a new trace file; close() flushes it. */
+    public static class Writer implements AutoCloseable {
+        private final Path path;
+        private final DataOutputStream out;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Integer> opIds = new HashMap<>();
+        private final AtomicInteger sessions = new AtomicInteger();
+        private final ThreadLocal<Integer> session = ThreadLocal.withInitial(() -> sessions.incrementAndGet());
+        private long calls;
+        private IOException failure; // first write error; recording stops there
+
+        public Writer(Path path) throws IOException {
+            this.path = path;
+            Path dir = path.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /** Records a call that started and ended at the given System.nanoTime() values. */
+        public void write(String op, Object[] args, long startedNanos, long endedNanos, byte outcome) {
+            int caller = session.get();
+            synchronized (this) {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    Integer id = opIds.get(op);
+                    if (id == null) {
+                        id = opIds.size();
+                        opIds.put(op, id);
+                        writeVarLong(id);
+                        out.writeUTF(op);
+                    } else {
+                        writeVarLong(id);
+                    }
+                    writeVarLong(caller);
+                    writeVarLong(Math.max(0, (startedNanos - startNanos) / 1_000));
+                    writeVarLong(Math.max(0, (endedNanos - startedNanos) / 1_000));
+                    out.writeByte(outcome);
+                    out.writeByte(args.length);
+                    for (Object arg : args) {
+                        out.writeBoolean(arg != null);
+                        if (arg != null) {
+                            out.writeUTF(String.valueOf(arg));
+                        }
+                    }
+                    calls++;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        /** Number of calls written so far. */
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        /** Flushes and closes the file; throws the first write error, if any. */
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+
+        // Unsigned LEB128: 7 bits per byte, high bit = more bytes follow
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    /** Reads all complete records of a trace. */
+    public static List<Call> read(Path path) throws IOException {
+        List<Call> calls = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a workload trace");
+            }
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException(path + ": unsupported trace format version");
+            }
+            in.readLong(); // start time, informational
+
+            List<String> ops = new ArrayList<>();
+            while (true) {
+                try {
+                    int id = (int) readVarLong(in);
+                    if (id == ops.size()) {
+                        ops.add(in.readUTF());
+                    } else if (id > ops.size()) {
+                        throw new IOException(path + ": damaged trace (unknown op id " + id + ")");
+                    }
+                    int session = (int) readVarLong(in);
+                    long offset = readVarLong(in);
+                    long latency = readVarLong(in);
+                    byte outcome = in.readByte();
+                    String[] args = new String[in.readUnsignedByte()];
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = in.readBoolean() ? in.readUTF() : null;
+                    }
+                    calls.add(new Call(ops.get(id), args, session, offset, latency, outcome));
+                } catch (EOFException e) {
+                    return calls; // end of trace, or a record cut off by a crash
+                }
+            }
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("damaged trace (varint too long)");
+    }
+}
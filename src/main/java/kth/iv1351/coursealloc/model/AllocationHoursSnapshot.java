@@ -0,0 +1,671 @@
+package kth.iv1351.coursealloc.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * AllocationHoursSnapshot
+ * In-memory, read-only columnar copy of v_allocation_hours.
+ * Layout:
+ *   - Instances, teachers and activities are dictionary-encoded to dense int ids.
+ *   - Every view row is stored as one position in a set of primitive column arrays.
+ *   - Rows are grouped per instance (instanceRowStart) and indexed per teacher
+ *     (teacherRows), so every query only touches the rows it needs.
+ * The same formulas as query2 / fetchPlannedPart are applied, so the numbers
+ * match the database path for the snapshot's version of the data.
+ * Instances are immutable; a refresh builds a new snapshot with a higher version,
+ * and patch(...) builds one from this one with only the changed instances and
+ * salaries read again.
+ * writeTo / readFrom store the columns in a binary file (WarmStateFile), so a
+ * restart can rebuild the snapshot without reading the view again.
+ */
+public class AllocationHoursSnapshot {
+
+    // Activities counted in the per-teacher "Total Hours" of query2.
+    private static final String[] QUERY2_ACTIVITIES = { "Lecture", "Tutorial", "Lab", "Seminar", "Others" };
+
+    private final long version;
+    private final long loadedAtMillis;
+    private final int currentYear;
+    private final double avgHourlySalary;
+
+    // Dictionaries
+    private final String[] instanceIds;
+    private final Map<String, Integer> instanceIndex;
+    private final String[] employmentIds;
+    private final String[] teacherNames;
+    private final Map<String, Integer> teacherIndex;
+    private final String[] activityNames;
+
+    // Per-instance attributes (indexed by instance id)
+    private final String[] courseCodes;
+    private final double[] hp;
+    private final int[] numStudents;
+    private final int[] studyYear;
+    private final String[] studyPeriod;
+    private final int[] instanceRowStart;   // rows of instance i are [start[i], start[i + 1])
+
+    // Per-teacher attributes (indexed by teacher id)
+    private final double[] teacherSalary;   // NaN when the teacher has no current salary
+    private final int[] teacherRowStart;    // rows of teacher t are teacherRows[start[t] .. start[t + 1])
+    private final int[] teacherRows;
+
+    // Row columns
+    private final int[] rowInstance;
+    private final int[] rowTeacher;         // -1 for planned activities without allocation
+    private final int[] rowActivity;
+    private final double[] rowPlannedHours;
+    private final double[] rowAllocatedHours;
+
+    // Activity ids that contribute to query2's "Total Hours"
+    private final boolean[] countsInTotalHours;
+
+    private AllocationHoursSnapshot(Builder b, long version, int currentYear) {
+        this.version = version;
+        this.loadedAtMillis = System.currentTimeMillis();
+        this.currentYear = currentYear;
+        this.avgHourlySalary = b.avgHourlySalary;
+
+        int rows = b.rowCount;
+        int instances = b.instanceIds.size();
+        int teachers = b.employmentIds.size();
+
+        this.instanceIds = b.instanceIds.toArray(new String[0]);
+        this.instanceIndex = b.instanceIndex;
+        this.employmentIds = b.employmentIds.toArray(new String[0]);
+        this.teacherNames = b.teacherNames.toArray(new String[0]);
+        this.teacherIndex = b.teacherIndex;
+        this.activityNames = b.activityNames.toArray(new String[0]);
+
+        this.courseCodes = b.courseCodes.toArray(new String[0]);
+        this.hp = Arrays.copyOf(b.hp, instances);
+        this.numStudents = Arrays.copyOf(b.numStudents, instances);
+        this.studyYear = Arrays.copyOf(b.studyYear, instances);
+        this.studyPeriod = b.studyPeriod.toArray(new String[0]);
+
+        this.rowInstance = Arrays.copyOf(b.rowInstance, rows);
+        this.rowTeacher = Arrays.copyOf(b.rowTeacher, rows);
+        this.rowActivity = Arrays.copyOf(b.rowActivity, rows);
+        this.rowPlannedHours = Arrays.copyOf(b.rowPlannedHours, rows);
+        this.rowAllocatedHours = Arrays.copyOf(b.rowAllocatedHours, rows);
+
+        // Rows arrive grouped by instance (the loader orders by instance_id),
+        // so one pass is enough to find the start of every instance's range.
+        this.instanceRowStart = new int[instances + 1];
+        for (int r = 0, i = 0; i < instances; i++) {
+            instanceRowStart[i] = r;
+            while (r < rows && rowInstance[r] == i) {
+                r++;
+            }
+            instanceRowStart[i + 1] = r;
+        }
+
+        // Build the per-teacher row index (counting sort on rowTeacher)
+        this.teacherRowStart = new int[teachers + 1];
+        for (int r = 0; r < rows; r++) {
+            if (rowTeacher[r] >= 0) {
+                teacherRowStart[rowTeacher[r] + 1]++;
+            }
+        }
+        for (int t = 0; t < teachers; t++) {
+            teacherRowStart[t + 1] += teacherRowStart[t];
+        }
+        this.teacherRows = new int[teacherRowStart[teachers]];
+        int[] fill = Arrays.copyOf(teacherRowStart, teachers);
+        for (int r = 0; r < rows; r++) {
+            if (rowTeacher[r] >= 0) {
+                teacherRows[fill[rowTeacher[r]]++] = r;
+            }
+        }
+
+        this.teacherSalary = new double[teachers];
+        for (int t = 0; t < teachers; t++) {
+            Double salary = b.salaries.get(employmentIds[t]);
+            teacherSalary[t] = salary == null ? Double.NaN : salary;
+        }
+
+        this.countsInTotalHours = new boolean[activityNames.length];
+        for (int a = 0; a < activityNames.length; a++) {
+            countsInTotalHours[a] = Arrays.asList(QUERY2_ACTIVITIES).contains(activityNames[a]);
+        }
+    }
+
+    public long getVersion() { return version; }
+    public long getLoadedAtMillis() { return loadedAtMillis; }
+    public int getRowCount() { return rowTeacher.length; }
+    public int getInstanceCount() { return instanceIds.length; }
+    public int getTeacherCount() { return employmentIds.length; }
+
+    /**
+     * Planned and actual cost of one instance, same semantics as DBHandler.computeCostForInstance:
+     *   planned = SUM(planned_hours) * average current hourly salary
+     *   actual  = SUM over teachers of query2 "Total Hours" * current hourly salary
+     * Returns null if the instance is not in the snapshot for the current year.
+     */
+    public CourseInstanceCost instanceCost(String instanceId) {
+        Integer boxed = instanceIndex.get(instanceId);
+        if (boxed == null || studyYear[boxed] != currentYear) {
+            return null;
+        }
+        int i = boxed;
+        int from = instanceRowStart[i];
+        int to = instanceRowStart[i + 1];
+        if (from == to) {
+            return null; // no planned activities left since a patch
+        }
+
+        double plannedHours = 0.0;
+        for (int r = from; r < to; r++) {
+            plannedHours += rowPlannedHours[r];
+        }
+
+        // Per-teacher activity hours; key -1 collects the unallocated group,
+        // which query2 also counts when dividing admin/exam hours.
+        Map<Integer, Double> hoursPerTeacher = new HashMap<>();
+        for (int r = from; r < to; r++) {
+            double hours = countsInTotalHours[rowActivity[r]] ? rowAllocatedHours[r] : 0.0;
+            hoursPerTeacher.merge(rowTeacher[r], hours, Double::sum);
+        }
+        int teacherCount = hoursPerTeacher.size();
+        double admin = (2 * hp[i] + 28 + 0.2 * numStudents[i]) / teacherCount;
+        double exam = (32 + 0.725 * numStudents[i]) / teacherCount;
+
+        double actualCostSek = 0.0;
+        for (Map.Entry<Integer, Double> e : hoursPerTeacher.entrySet()) {
+            int t = e.getKey();
+            if (t < 0 || Double.isNaN(teacherSalary[t])) {
+                continue; // query2 joins employee and salary, so these groups drop out
+            }
+            double totalHours = round2(e.getValue() + admin + exam);
+            actualCostSek += totalHours * teacherSalary[t];
+        }
+
+        return new CourseInstanceCost(
+                courseCodes[i],
+                instanceId,
+                studyPeriod[i],
+                plannedHours * avgHourlySalary / 1000.0,
+                actualCostSek / 1000.0
+        );
+    }
+
+    /**
+     * Total factor-adjusted hours allocated to a teacher in the given study year.
+     * Returns 0 if the teacher has no allocations in the snapshot.
+     */
+    public double teacherHours(String employmentId, int year) {
+        Integer t = teacherIndex.get(employmentId);
+        if (t == null) {
+            return 0.0;
+        }
+        double total = 0.0;
+        for (int k = teacherRowStart[t]; k < teacherRowStart[t + 1]; k++) {
+            int r = teacherRows[k];
+            if (studyYear[rowInstance[r]] == year) {
+                total += rowAllocatedHours[r];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Per-teacher load in one (study_year, study_period), like OLAP query 4:
+     * number of distinct instances and allocated hours, busiest teachers first.
+     */
+    public List<TeacherPeriodLoad> periodLoad(int year, String period) {
+        List<TeacherPeriodLoad> result = new ArrayList<>();
+        for (int t = 0; t < employmentIds.length; t++) {
+            int instances = 0;
+            int lastInstance = -1;
+            double hours = 0.0;
+            // teacherRows is in row order, and rows are grouped by instance,
+            // so distinct instances can be counted without a set.
+            for (int k = teacherRowStart[t]; k < teacherRowStart[t + 1]; k++) {
+                int r = teacherRows[k];
+                int i = rowInstance[r];
+                if (studyYear[i] != year || !Objects.equals(studyPeriod[i], period)) {
+                    continue;
+                }
+                if (i != lastInstance) {
+                    instances++;
+                    lastInstance = i;
+                }
+                hours += rowAllocatedHours[r];
+            }
+            if (instances > 0) {
+                result.add(new TeacherPeriodLoad(employmentIds[t], teacherNames[t], year, period, instances, hours));
+            }
+        }
+        result.sort((x, y) -> x.getNumInstances() != y.getNumInstances()
+                ? Integer.compare(y.getNumInstances(), x.getNumInstances())
+                : String.valueOf(x.getTeacherName()).compareTo(String.valueOf(y.getTeacherName())));
+        return result;
+    }
+
+    /** Dense teacher id in this snapshot, or -1 if the teacher has no allocations. */
+    public int teacherId(String employmentId) {
+        Integer t = teacherIndex.get(employmentId);
+        return t == null ? -1 : t;
+    }
+
+    /**
+     * Per teacher id: number of distinct instances in one (study_year, study_period)
+     * and allocated hours in that study year. One pass over all teacher rows.
+     */
+    public void teacherLoad(int year, String period, int[] instancesOut, double[] yearHoursOut) {
+        for (int t = 0; t < employmentIds.length; t++) {
+            int instances = 0;
+            int lastInstance = -1;
+            double hours = 0.0;
+            for (int k = teacherRowStart[t]; k < teacherRowStart[t + 1]; k++) {
+                int r = teacherRows[k];
+                int i = rowInstance[r];
+                if (studyYear[i] != year) {
+                    continue;
+                }
+                hours += rowAllocatedHours[r];
+                if (i != lastInstance && Objects.equals(studyPeriod[i], period)) {
+                    instances++;
+                    lastInstance = i;
+                }
+            }
+            instancesOut[t] = instances;
+            yearHoursOut[t] = hours;
+        }
+    }
+
+    /**
+     * Employment ids allocated on the instance: on any activity (activityName null)
+     * or on the given activity.
+     */
+    public Set<String> teachersOn(String instanceId, String activityName) {
+        Set<String> result = new HashSet<>();
+        Integer i = instanceIndex.get(instanceId);
+        if (i == null) {
+            return result;
+        }
+        for (int r = instanceRowStart[i]; r < instanceRowStart[i + 1]; r++) {
+            if (rowTeacher[r] >= 0
+                    && (activityName == null || activityNames[rowActivity[r]].equals(activityName))) {
+                result.add(employmentIds[rowTeacher[r]]);
+            }
+        }
+        return result;
+    }
+
+    // ---------- patching (change feed) ----------
+
+    /**
+     * Copy of this snapshot with what changed applied, from a Builder filled by
+     * DBHandler.loadAllocationHoursChanges(...):
+     *   - the rows of every instance in changedInstances are replaced by its rows in
+     *     fresh (none there: the instance has no planned activities any more),
+     *   - instances only in fresh are added,
+     *   - the salaries of changedTeachers and of the teachers in fresh are replaced by
+     *     fresh's (none there: no current salary); changedTeachers null replaces all,
+     *   - the average hourly salary is replaced unless fresh's is NaN.
+     * Dictionaries only grow, so the ids of this snapshot stay valid and the rows of
+     * unchanged instances are copied range by range, without reading the view again.
+     */
+    public AllocationHoursSnapshot patch(Set<String> changedInstances, Set<String> changedTeachers,
+                                         Builder fresh, long version) {
+        Builder b = new Builder();
+        b.avgHourlySalary = Double.isNaN(fresh.avgHourlySalary) ? avgHourlySalary : fresh.avgHourlySalary;
+
+        // Dictionaries of this snapshot, same ids
+        int instances = instanceIds.length;
+        for (String id : instanceIds) {
+            b.instanceIndex.put(id, b.instanceIds.size());
+            b.instanceIds.add(id);
+        }
+        b.courseCodes.addAll(Arrays.asList(courseCodes));
+        b.studyPeriod.addAll(Arrays.asList(studyPeriod));
+        b.hp = Arrays.copyOf(hp, Math.max(instances, 64));
+        b.numStudents = Arrays.copyOf(numStudents, b.hp.length);
+        b.studyYear = Arrays.copyOf(studyYear, b.hp.length);
+        for (String id : employmentIds) {
+            b.teacherIndex.put(id, b.employmentIds.size());
+            b.employmentIds.add(id);
+        }
+        b.teacherNames.addAll(Arrays.asList(teacherNames));
+        for (String name : activityNames) {
+            b.activityIndex.put(name, b.activityNames.size());
+            b.activityNames.add(name);
+        }
+
+        // Salaries: kept, except the changed ones
+        if (changedTeachers != null) {
+            for (int t = 0; t < employmentIds.length; t++) {
+                if (!Double.isNaN(teacherSalary[t])) {
+                    b.salaries.put(employmentIds[t], teacherSalary[t]);
+                }
+            }
+            Set<String> replaced = new HashSet<>(changedTeachers);
+            replaced.addAll(fresh.employmentIds);
+            for (String id : replaced) {
+                Double salary = fresh.salaries.get(id);
+                if (salary == null) {
+                    b.salaries.remove(id);
+                } else {
+                    b.salaries.put(id, salary);
+                }
+            }
+        } else {
+            b.salaries.putAll(fresh.salaries);
+        }
+
+        // Rows of fresh per fresh instance id (fresh is grouped by instance too)
+        int[] freshStart = new int[fresh.instanceIds.size() + 1];
+        for (int r = 0; r < fresh.rowCount; r++) {
+            freshStart[fresh.rowInstance[r] + 1]++;
+        }
+        for (int fi = 0; fi < fresh.instanceIds.size(); fi++) {
+            freshStart[fi + 1] += freshStart[fi];
+        }
+
+        b.ensureRowCapacity(Math.max(rowTeacher.length + fresh.rowCount, 256));
+        for (int i = 0; i < instances; i++) {
+            if (!changedInstances.contains(instanceIds[i])) {
+                b.copyRows(this, instanceRowStart[i], instanceRowStart[i + 1]);
+                continue;
+            }
+            Integer fi = fresh.instanceIndex.get(instanceIds[i]);
+            if (fi != null) {
+                b.addRowsOf(fresh, fi, freshStart[fi], freshStart[fi + 1]);
+            }
+        }
+        for (int fi = 0; fi < fresh.instanceIds.size(); fi++) {
+            if (!instanceIndex.containsKey(fresh.instanceIds.get(fi))) {
+                b.addRowsOf(fresh, fi, freshStart[fi], freshStart[fi + 1]);
+            }
+        }
+        return new AllocationHoursSnapshot(b, version, currentYear);
+    }
+
+    // ---------- binary form (WarmStateFile) ----------
+
+    /**
+     * Writes the dictionaries and columns; the indexes are derived again on load.
+     * Arrays are written as length + values, strings as byte length + UTF-8 (-1 for null).
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(avgHourlySalary);
+        writeStrings(out, instanceIds);
+        writeStrings(out, courseCodes);
+        writeStrings(out, studyPeriod);
+        writeDoubles(out, hp);
+        writeInts(out, numStudents);
+        writeInts(out, studyYear);
+        writeStrings(out, employmentIds);
+        writeStrings(out, teacherNames);
+        writeDoubles(out, teacherSalary);
+        writeStrings(out, activityNames);
+        writeInts(out, rowInstance);
+        writeInts(out, rowTeacher);
+        writeInts(out, rowActivity);
+        writeDoubles(out, rowPlannedHours);
+        writeDoubles(out, rowAllocatedHours);
+    }
+
+    /**
+     * Reads what writeTo wrote, starting at the buffer's position, into a Builder.
+     * The numeric columns are bulk-copied out of the buffer, no per-row parsing.
+     * Throws BufferUnderflowException / IllegalArgumentException on a damaged buffer.
+     */
+    public static Builder readFrom(ByteBuffer in) {
+        Builder b = new Builder();
+        b.avgHourlySalary = in.getDouble();
+
+        String[] instances = readStrings(in);
+        b.courseCodes.addAll(Arrays.asList(readStrings(in)));
+        b.studyPeriod.addAll(Arrays.asList(readStrings(in)));
+        b.hp = readDoubles(in);
+        b.numStudents = readInts(in);
+        b.studyYear = readInts(in);
+        for (String instanceId : instances) {
+            b.instanceIndex.put(instanceId, b.instanceIds.size());
+            b.instanceIds.add(instanceId);
+        }
+
+        String[] teachers = readStrings(in);
+        b.teacherNames.addAll(Arrays.asList(readStrings(in)));
+        double[] salaries = readDoubles(in);
+        for (int t = 0; t < teachers.length; t++) {
+            b.teacherIndex.put(teachers[t], t);
+            b.employmentIds.add(teachers[t]);
+            if (!Double.isNaN(salaries[t])) {
+                b.salaries.put(teachers[t], salaries[t]);
+            }
+        }
+
+        for (String activityName : readStrings(in)) {
+            b.activityIndex.put(activityName, b.activityNames.size());
+            b.activityNames.add(activityName);
+        }
+
+        b.rowInstance = readInts(in);
+        b.rowTeacher = readInts(in);
+        b.rowActivity = readInts(in);
+        b.rowPlannedHours = readDoubles(in);
+        b.rowAllocatedHours = readDoubles(in);
+        b.rowCount = b.rowInstance.length;
+
+        int instanceCount = instances.length;
+        int rows = b.rowCount;
+        if (b.courseCodes.size() != instanceCount || b.studyPeriod.size() != instanceCount
+                || b.hp.length != instanceCount || b.numStudents.length != instanceCount
+                || b.studyYear.length != instanceCount || b.teacherNames.size() != teachers.length
+                || salaries.length != teachers.length || b.rowTeacher.length != rows
+                || b.rowActivity.length != rows || b.rowPlannedHours.length != rows
+                || b.rowAllocatedHours.length != rows) {
+            throw new IllegalArgumentException("Inconsistent snapshot column lengths");
+        }
+        return b;
+    }
+
+    private static void writeStrings(DataOutput out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] values = new String[in.getInt()];
+        for (int k = 0; k < values.length; k++) {
+            int length = in.getInt();
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                values[k] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer in) {
+        double[] values = new double[in.getInt()];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + values.length * Double.BYTES);
+        return values;
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    /**
+     * Builder used by the integration layer while streaming view rows.
+     * Rows MUST be added grouped by instance_id.
+     */
+    public static class Builder {
+        private final List<String> instanceIds = new ArrayList<>();
+        private final Map<String, Integer> instanceIndex = new HashMap<>();
+        private final List<String> employmentIds = new ArrayList<>();
+        private final List<String> teacherNames = new ArrayList<>();
+        private final Map<String, Integer> teacherIndex = new HashMap<>();
+        private final List<String> activityNames = new ArrayList<>();
+        private final Map<String, Integer> activityIndex = new HashMap<>();
+
+        private final List<String> courseCodes = new ArrayList<>();
+        private final List<String> studyPeriod = new ArrayList<>();
+        private double[] hp = new double[64];
+        private int[] numStudents = new int[64];
+        private int[] studyYear = new int[64];
+
+        private int rowCount;
+        private int[] rowInstance = new int[256];
+        private int[] rowTeacher = new int[256];
+        private int[] rowActivity = new int[256];
+        private double[] rowPlannedHours = new double[256];
+        private double[] rowAllocatedHours = new double[256];
+
+        private final Map<String, Double> salaries = new HashMap<>();
+        private double avgHourlySalary;
+
+        public Builder addRow(String instanceId, String courseCode, double hp, int studyYear,
+                              String studyPeriod, int numStudents, String activityName,
+                              double plannedHours, double allocatedHours,
+                              String employmentId, String teacherName) {
+            int i = instanceIndex.computeIfAbsent(instanceId, id -> {
+                int idx = instanceIds.size();
+                instanceIds.add(id);
+                courseCodes.add(courseCode);
+                this.studyPeriod.add(studyPeriod);
+                if (idx == this.hp.length) {
+                    this.hp = Arrays.copyOf(this.hp, idx * 2);
+                    this.numStudents = Arrays.copyOf(this.numStudents, idx * 2);
+                    this.studyYear = Arrays.copyOf(this.studyYear, idx * 2);
+                }
+                this.hp[idx] = hp;
+                this.numStudents[idx] = numStudents;
+                this.studyYear[idx] = studyYear;
+                return idx;
+            });
+
+            int t = -1;
+            if (employmentId != null) {
+                t = teacherIndex.computeIfAbsent(employmentId, id -> {
+                    employmentIds.add(id);
+                    teacherNames.add(teacherName);
+                    return employmentIds.size() - 1;
+                });
+            }
+
+            int a = activityIndex.computeIfAbsent(activityName, name -> {
+                activityNames.add(name);
+                return activityNames.size() - 1;
+            });
+
+            if (rowCount == rowInstance.length) {
+                int n = rowCount * 2;
+                rowInstance = Arrays.copyOf(rowInstance, n);
+                rowTeacher = Arrays.copyOf(rowTeacher, n);
+                rowActivity = Arrays.copyOf(rowActivity, n);
+                rowPlannedHours = Arrays.copyOf(rowPlannedHours, n);
+                rowAllocatedHours = Arrays.copyOf(rowAllocatedHours, n);
+            }
+            rowInstance[rowCount] = i;
+            rowTeacher[rowCount] = t;
+            rowActivity[rowCount] = a;
+            rowPlannedHours[rowCount] = plannedHours;
+            rowAllocatedHours[rowCount] = allocatedHours;
+            rowCount++;
+            return this;
+        }
+
+        // Row arrays can take at least n rows
+        private void ensureRowCapacity(int n) {
+            if (rowInstance.length < n) {
+                rowInstance = Arrays.copyOf(rowInstance, n);
+                rowTeacher = Arrays.copyOf(rowTeacher, n);
+                rowActivity = Arrays.copyOf(rowActivity, n);
+                rowPlannedHours = Arrays.copyOf(rowPlannedHours, n);
+                rowAllocatedHours = Arrays.copyOf(rowAllocatedHours, n);
+            }
+        }
+
+        // Appends rows [from, to) of a snapshot whose dictionaries this builder starts with
+        private void copyRows(AllocationHoursSnapshot s, int from, int to) {
+            int n = to - from;
+            ensureRowCapacity(rowCount + n);
+            System.arraycopy(s.rowInstance, from, rowInstance, rowCount, n);
+            System.arraycopy(s.rowTeacher, from, rowTeacher, rowCount, n);
+            System.arraycopy(s.rowActivity, from, rowActivity, rowCount, n);
+            System.arraycopy(s.rowPlannedHours, from, rowPlannedHours, rowCount, n);
+            System.arraycopy(s.rowAllocatedHours, from, rowAllocatedHours, rowCount, n);
+            rowCount += n;
+        }
+
+        // Appends rows [from, to) of another builder, all of its instance fi; the
+        // instance's attributes are taken from there as well (they may have changed)
+        private void addRowsOf(Builder other, int fi, int from, int to) {
+            String instanceId = other.instanceIds.get(fi);
+            for (int r = from; r < to; r++) {
+                int t = other.rowTeacher[r];
+                addRow(instanceId, other.courseCodes.get(fi), other.hp[fi], other.studyYear[fi],
+                        other.studyPeriod.get(fi), other.numStudents[fi],
+                        other.activityNames.get(other.rowActivity[r]),
+                        other.rowPlannedHours[r], other.rowAllocatedHours[r],
+                        t < 0 ? null : other.employmentIds.get(t), t < 0 ? null : other.teacherNames.get(t));
+            }
+            int i = instanceIndex.get(instanceId);
+            courseCodes.set(i, other.courseCodes.get(fi));
+            studyPeriod.set(i, other.studyPeriod.get(fi));
+            hp[i] = other.hp[fi];
+            numStudents[i] = other.numStudents[fi];
+            studyYear[i] = other.studyYear[fi];
+        }
+
+        public Builder setTeacherSalary(String employmentId, double hourlySalary) {
+            salaries.put(employmentId, hourlySalary);
+            return this;
+        }
+
+        public Builder setAverageHourlySalary(double avgHourlySalary) {
+            this.avgHourlySalary = avgHourlySalary;
+            return this;
+        }
+
+        public AllocationHoursSnapshot build(long version, int currentYear) {
+            return new AllocationHoursSnapshot(this, version, currentYear);
+        }
+    }
+}
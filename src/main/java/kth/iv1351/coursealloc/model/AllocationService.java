@@ -8,6 +8,7 @@ import kth.iv1351.coursealloc.integration.DBHandler;
  * Domain-layer service for allocation-related use cases WITHOUT special constraints:
  *   - Add Exercise allocation.
  *   - Deallocate any teaching activity.
+ *   - Deallocate all matching activities of a teacher at once.
  * All operations are wrapped in DBHandler.executeInTransaction(...)
  * so the DAO/integration layer controls commit/rollback.
  */
@@ -24,9 +25,12 @@ public class AllocationService {
                                               double plannedHours)
             throws SQLException {
 
-        return db.executeInTransaction(() ->
-                db.addExerciseActivity(instanceId, employmentId, plannedHours)
-        );
+        return db.executeInTransaction("add_exercise", instanceId, employmentId, () -> {
+            ExerciseAllocationInfo info = db.addExerciseActivity(instanceId, employmentId, plannedHours);
+            db.audit(new AuditEvent("add_exercise", instanceId, employmentId, info.getActivityName(),
+                    "planned_hours=" + plannedHours));
+            return info;
+        });
     }
 
     // Use case: deallocate a teaching activity for a given teacher and instance.
@@ -35,10 +39,33 @@ public class AllocationService {
                                    String activityName)
             throws SQLException {
 
-        db.executeInTransaction(() -> {
+        db.executeInTransaction("dealloc", instanceId, employmentId, () -> {
             long activityId = db.getTeachingActivityIdByName(activityName);
             db.deleteAllocation(instanceId, activityId, employmentId);
+            db.audit(new AuditEvent("dealloc", instanceId, employmentId, activityName, null));
             return null; // Void return
         });
     }
+
+    /**
+     * Use case: remove all allocations of a teacher in a study year (optionally only one
+     * period, instance and/or activity; null = all) in one statement.
+     */
+    public BulkAllocationResult deallocateAll(String employmentId,
+                                              int studyYear,
+                                              String studyPeriod,
+                                              String instanceId,
+                                              String activityName)
+            throws SQLException {
+
+        return db.executeInTransaction("dealloc_all", instanceId, employmentId, () -> {
+            Long activityId = activityName == null ? null : db.getTeachingActivityIdByName(activityName);
+            BulkAllocationResult removed = new BulkAllocationResult(employmentId, null,
+                    db.deleteAllocations(employmentId, studyYear, studyPeriod, instanceId, activityId));
+            db.audit(new AuditEvent("dealloc_all", instanceId, employmentId, activityName,
+                    "year=" + studyYear + " period=" + studyPeriod +
+                    " rows=" + removed.getRows().size() + " hours=" + removed.getTotalHours()));
+            return removed;
+        });
+    }
 }
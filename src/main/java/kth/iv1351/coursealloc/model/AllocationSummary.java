@@ -0,0 +1,38 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one row of the allocation listings:
+ * Year, Instance ID, Activity, Employment ID, Teacher Name, allocated hours.
+ * The activity id is kept because it is part of the pagination key.
+ */
+
+public class AllocationSummary {
+    private final int studyYear;
+    private final String instanceId;
+    private final long teachingActivityId;
+    private final String activityName;
+    private final String employmentId;
+    private final String teacherName;
+    private final double allocatedHours;
+
+    public AllocationSummary(int studyYear, String instanceId, long teachingActivityId,
+                             String activityName, String employmentId, String teacherName,
+                             double allocatedHours) {
+        this.studyYear = studyYear;
+        this.instanceId = instanceId;
+        this.teachingActivityId = teachingActivityId;
+        this.activityName = activityName;
+        this.employmentId = employmentId;
+        this.teacherName = teacherName;
+        this.allocatedHours = allocatedHours;
+    }
+
+    // Getters
+    public int getStudyYear()             { return studyYear; }
+    public String getInstanceId()         { return instanceId; }
+    public long getTeachingActivityId()   { return teachingActivityId; }
+    public String getActivityName()       { return activityName; }
+    public String getEmploymentId()       { return employmentId; }
+    public String getTeacherName()        { return teacherName; }
+    public double getAllocatedHours()     { return allocatedHours; }
+}
@@ -0,0 +1,34 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for the summary of archiving one closed study year:
+ * Study Year, instances and archive rows moved, salary and course layout
+ * versions moved, and the time it took.
+ */
+
+public class ArchiveResult {
+    private final int studyYear;
+    private final int instances;
+    private final int allocationRows;
+    private final int salaries;
+    private final int courseLayouts;
+    private final long elapsedMillis;
+
+    public ArchiveResult(int studyYear, int instances, int allocationRows,
+                         int salaries, int courseLayouts, long elapsedMillis) {
+        this.studyYear = studyYear;
+        this.instances = instances;
+        this.allocationRows = allocationRows;
+        this.salaries = salaries;
+        this.courseLayouts = courseLayouts;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // Getters
+    public int getStudyYear()      { return studyYear; }
+    public int getInstances()      { return instances; }
+    public int getAllocationRows() { return allocationRows; }
+    public int getSalaries()       { return salaries; }
+    public int getCourseLayouts()  { return courseLayouts; }
+    public long getElapsedMillis() { return elapsedMillis; }
+}
@@ -0,0 +1,82 @@
+package kth.iv1351.coursealloc.model;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.Year;
+
+import kth.iv1351.coursealloc.integration.DBHandler;
+import kth.iv1351.coursealloc.integration.DBHandler.ArchiveBatch;
+
+/**
+ * ArchiveService
+ * Domain-layer service that moves a closed study year out of the hot tables:
+ *   1. Instances of the year, with their planned activities and allocations,
+ *      into allocation_archive, in batches of instances.
+ *   2. Salary versions that ended before the year was over into salary_archive.
+ *   3. Superseded course layouts no live instance uses into course_layout_archive.
+ *   4. The year's empty partitions are dropped.
+ * Each batch is its own transaction (DBHandler.executeInTransaction(...)), so
+ * locks are short and other use cases keep running; an interrupted run is
+ * simply started again. Reports and "as of" costs read the archive through
+ * the views in sql/olap.sql, so an archived year looks the same to them.
+ * Only years before the current one may be archived; their rows are read-only.
+ */
+public class ArchiveService {
+    private static final int INSTANCE_BATCH = 500;
+    private static final int SALARY_BATCH = 5_000;
+
+    private final DBHandler db;
+
+    public ArchiveService(DBHandler db) {
+        this.db = db;
+    }
+
+    // Use case: archive one closed study year.
+    public ArchiveResult archiveYear(int studyYear) throws SQLException {
+        if (studyYear >= Year.now().getValue()) {
+            throw new SQLException("Study year " + studyYear + " is not closed yet.");
+        }
+        long start = System.nanoTime();
+
+        int instances = 0;
+        int rows = 0;
+        String after = "";
+        while (true) {
+            String from = after;
+            ArchiveBatch batch = db.executeInTransaction("archive", null, null,
+                    () -> db.archiveInstanceBatch(studyYear, from, INSTANCE_BATCH));
+            if (batch.instances == 0) {
+                break;
+            }
+            instances += batch.instances;
+            rows += batch.rows;
+            after = batch.lastInstanceId;
+        }
+
+        // Salary versions that were replaced before the year ended
+        Timestamp yearEnd = Timestamp.valueOf(LocalDate.of(studyYear + 1, 1, 1).atStartOfDay());
+        int salaries = 0;
+        int moved;
+        do {
+            moved = db.executeInTransaction("archive", null, null,
+                    () -> db.archiveSalaryBatch(yearEnd, SALARY_BATCH));
+            salaries += moved;
+        } while (moved == SALARY_BATCH);
+
+        int archivedInstances = instances;
+        int archivedRows = rows;
+        int archivedSalaries = salaries;
+        int layouts = db.executeInTransaction("archive", null, null, () -> {
+            int archivedLayouts = db.archiveCourseLayouts();
+            db.dropYearPartitions(studyYear);
+            db.audit(new AuditEvent("archive", null, null, null,
+                    "year=" + studyYear + " instances=" + archivedInstances + " rows=" + archivedRows +
+                    " salaries=" + archivedSalaries + " layouts=" + archivedLayouts));
+            return archivedLayouts;
+        });
+
+        return new ArchiveResult(studyYear, instances, rows, salaries, layouts,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,32 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one audited use case:
+ * Use Case, Instance ID, Employment ID, Activity Name and free-text details
+ * (whichever apply; the others are null).
+ * Who and when are added when the transaction commits (see DBHandler.audit).
+ */
+
+public class AuditEvent {
+    private final String useCase;
+    private final String instanceId;
+    private final String employmentId;
+    private final String activityName;
+    private final String details;
+
+    public AuditEvent(String useCase, String instanceId, String employmentId,
+                      String activityName, String details) {
+        this.useCase = useCase;
+        this.instanceId = instanceId;
+        this.employmentId = employmentId;
+        this.activityName = activityName;
+        this.details = details;
+    }
+
+    // Getters
+    public String getUseCase()      { return useCase; }
+    public String getInstanceId()   { return instanceId; }
+    public String getEmploymentId() { return employmentId; }
+    public String getActivityName() { return activityName; }
+    public String getDetails()      { return details; }
+}
@@ -0,0 +1,74 @@
+package kth.iv1351.coursealloc.model;
+
+import java.sql.SQLException;
+
+import kth.iv1351.coursealloc.integration.DBHandler;
+
+/**
+ * BrowsingService
+ * Domain-layer service for read-only listings, one page at a time:
+ *   - Instances by study year (and period).
+ *   - Allocations by teacher or by instance.
+ *   - Teachers by department or by skill.
+ * Pages are keyset-paginated: the caller passes the last item of the previous
+ * page (null for the first page), so each page costs the same however deep
+ * the user browses. Each page is read in its own short transaction.
+ */
+public class BrowsingService {
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private final DBHandler db;
+
+    public BrowsingService(DBHandler db) {
+        this.db = db;
+    }
+
+    public Page<InstanceSummary> listInstances(int studyYear, String studyPeriod,
+                                               InstanceSummary after, int pageSize) throws SQLException {
+        int size = checkPageSize(pageSize);
+        return db.executeInTransaction("list_instances", null, null, () ->
+                db.listInstances(studyYear, studyPeriod, after, size)
+        );
+    }
+
+    public Page<AllocationSummary> listAllocationsByTeacher(String employmentId,
+                                                            AllocationSummary after, int pageSize) throws SQLException {
+        int size = checkPageSize(pageSize);
+        return db.executeInTransaction("list_allocations", null, employmentId, () ->
+                db.listAllocationsByTeacher(employmentId, after, size)
+        );
+    }
+
+    public Page<AllocationSummary> listAllocationsByInstance(String instanceId,
+                                                             AllocationSummary after, int pageSize) throws SQLException {
+        int size = checkPageSize(pageSize);
+        return db.executeInTransaction("list_allocations", instanceId, null, () ->
+                db.listAllocationsByInstance(instanceId, after, size)
+        );
+    }
+
+    public Page<TeacherSummary> listTeachersByDepartment(String departmentName,
+                                                         TeacherSummary after, int pageSize) throws SQLException {
+        int size = checkPageSize(pageSize);
+        return db.executeInTransaction("list_teachers", null, null, () ->
+                db.listTeachersByDepartment(departmentName, after, size)
+        );
+    }
+
+    public Page<TeacherSummary> listTeachersBySkill(String skillName,
+                                                    TeacherSummary after, int pageSize) throws SQLException {
+        int size = checkPageSize(pageSize);
+        return db.executeInTransaction("list_teachers", null, null, () ->
+                db.listTeachersBySkill(skillName, after, size)
+        );
+    }
+
+    // Business rule: pages are small enough to print and to keep each query a short index scan.
+    private static int checkPageSize(int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return pageSize;
+    }
+}
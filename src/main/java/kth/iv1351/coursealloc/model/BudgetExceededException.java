@@ -0,0 +1,23 @@
+package kth.iv1351.coursealloc.model;
+
+import java.sql.SQLException;
+
+/**
+ * A use case ran out of its latency budget (see LatencyBudgets); its transaction
+ * was cancelled and rolled back. SQLState 57014 (query_canceled), like a statement timeout.
+ */
+public class BudgetExceededException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    private final String useCase;
+    private final long budgetMillis;
+
+    public BudgetExceededException(String useCase, long budgetMillis, Throwable cause) {
+        super(useCase + " exceeded its latency budget of " + budgetMillis + " ms", "57014", cause);
+        this.useCase = useCase;
+        this.budgetMillis = budgetMillis;
+    }
+
+    public String getUseCase()    { return useCase; }
+    public long getBudgetMillis() { return budgetMillis; }
+}
@@ -0,0 +1,34 @@
+package kth.iv1351.coursealloc.model;
+
+import java.util.List;
+
+/**
+ * DTO for the summary of a bulk reassignment or bulk deallocation:
+ * source teacher, target teacher (null when the rows were removed) and the affected rows.
+ */
+
+public class BulkAllocationResult {
+    private final String fromEmploymentId;
+    private final String toEmploymentId;
+    private final List<AllocationSummary> rows;
+
+    public BulkAllocationResult(String fromEmploymentId, String toEmploymentId,
+                                List<AllocationSummary> rows) {
+        this.fromEmploymentId = fromEmploymentId;
+        this.toEmploymentId = toEmploymentId;
+        this.rows = rows;
+    }
+
+    // Getters
+    public String getFromEmploymentId()     { return fromEmploymentId; }
+    public String getToEmploymentId()       { return toEmploymentId; }
+    public List<AllocationSummary> getRows() { return rows; }
+
+    public long getInstanceCount() {
+        return rows.stream().map(AllocationSummary::getInstanceId).distinct().count();
+    }
+
+    public double getTotalHours() {
+        return rows.stream().mapToDouble(AllocationSummary::getAllocatedHours).sum();
+    }
+}
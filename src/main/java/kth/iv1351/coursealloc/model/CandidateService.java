@@ -0,0 +1,241 @@
+package kth.iv1351.coursealloc.model;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import kth.iv1351.coursealloc.integration.DBHandler;
+import kth.iv1351.coursealloc.integration.DBHandler.InstancePeriod;
+
+/**
+ * CandidateService
+ * Domain-layer service answering "who could take this activity?" from memory:
+ *   - Qualified: has every skill the course requires and at least the activity's
+ *     minimum skill level (SkillIndex bitsets).
+ *   - Allowed: fewer than 4 instances in the instance's (study_year, study_period),
+ *     or already teaching on this instance (TeacherLoadIndex bitmap).
+ *   - Not already allocated to this activity on this instance.
+ * Candidates are ranked by allocated hours in the study year, least loaded first.
+ * Both indexes follow the change feed (onChange) without being rebuilt per change:
+ *   - Allocation events name the teacher; the next call re-reads just those teachers'
+ *     allocations and patches their bits. Instance and planned-hours events do the
+ *     same for every teacher on the instance.
+ *   - Skill data events (employees, skills, course requirements) mark the skill
+ *     index stale; it is reloaded on the next call.
+ *   - A resync (missed notifications) drops everything.
+ */
+public class CandidateService {
+    private static final int MAX_INSTANCES_PER_PERIOD = 4;
+
+    private final DBHandler db;
+    private volatile SkillIndex skillIndex;
+    private volatile boolean skillIndexStale;
+
+    // Reported by the change feed, applied by the next call
+    private final Set<String> changedTeachers = ConcurrentHashMap.newKeySet();
+    private final Set<String> changedInstances = ConcurrentHashMap.newKeySet();
+
+    // Guarded by 'this'; a resync bumps the generation so loads started before it are discarded
+    private final Map<Integer, TeacherLoadIndex> loadsByYear = new HashMap<>();
+    private long generation;
+
+    public CandidateService(DBHandler db) {
+        this.db = db;
+    }
+
+    /**
+     * Use case: reload everything ("snapshot" command): the skill index now, the
+     * teacher loads per study year on the next call.
+     */
+    public SkillIndex refresh() throws SQLException {
+        dropLoads();
+        return refreshSkillIndex();
+    }
+
+    /** (Re)loads the skill index (employees, skills, course requirements). */
+    public SkillIndex refreshSkillIndex() throws SQLException {
+        skillIndexStale = false; // changes arriving from here on are not guaranteed to be included
+        SkillIndex fresh = db.executeInTransaction("skill_index", null, null,
+                () -> db.loadSkillIndex().build());
+        skillIndex = fresh;
+        return fresh;
+    }
+
+    /**
+     * Subscriber for the change feed: remembers which teachers' loads changed,
+     * marks the skill index stale on skill data changes. No I/O.
+     */
+    public void onChange(ChangeEvent event) {
+        if (event.isResync()) {
+            skillIndexStale = true;
+            dropLoads();
+            return;
+        }
+        switch (event.getTable()) {
+            case ALLOCATIONS:
+                if (event.getEmploymentId() != null) {
+                    changedTeachers.add(event.getEmploymentId());
+                }
+                break;
+            case PLANNED_ACTIVITY:      // planned hours of everyone on the instance
+            case COURSE_INSTANCE:       // study period of everyone on the instance
+                if (event.getInstanceId() != null) {
+                    changedInstances.add(event.getInstanceId());
+                }
+                break;
+            case SKILLS:
+                skillIndexStale = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Use case: eligible teachers for one activity of an instance, best first.
+     * @param limit maximum number of candidates returned, at least 1
+     */
+    public List<TeacherCandidate> candidates(String instanceId, String activityName, int limit)
+            throws SQLException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        SkillIndex index = currentSkillIndex();
+        if (!index.hasActivity(activityName)) {
+            throw new SQLException("Unknown teaching activity: " + activityName);
+        }
+
+        InstancePeriod ip = db.executeInTransaction("candidates", instanceId, null,
+                () -> db.getInstancePeriod(instanceId));
+        if (loadsPending(ip.studyYear)) {
+            // Own transaction without the interactive budget: a first year load may take a while
+            db.executeInTransaction("candidate_loads", instanceId, null, () -> {
+                updateLoads(ip.studyYear);
+                return null;
+            });
+        }
+        synchronized (this) {
+            TeacherLoadIndex loads = loadsByYear.get(ip.studyYear);
+            if (loads != null) {
+                return rank(index, loads, ip, instanceId, activityName, limit);
+            }
+        }
+        return candidates(instanceId, activityName, limit); // dropped by a resync meanwhile: load again
+    }
+
+    // Nothing to read if the year is loaded and no change was reported since
+    private synchronized boolean loadsPending(int studyYear) {
+        return !loadsByYear.containsKey(studyYear) || !changedTeachers.isEmpty() || !changedInstances.isEmpty();
+    }
+
+    /**
+     * Applies the changes reported since the last call: re-reads the allocations of
+     * the changed teachers in every loaded year and patches them in, and loads the
+     * given year if it is not loaded yet.
+     * NOTE: Runs inside a transaction, so concurrent calls apply their reads in
+     * the order they made them.
+     */
+    private void updateLoads(int studyYear) throws SQLException {
+        Set<String> teachers = drain(changedTeachers);
+        Set<String> instances = drain(changedInstances);
+        try {
+            Set<Integer> loadedYears;
+            long gen;
+            synchronized (this) {
+                gen = generation;
+                loadedYears = new HashSet<>(loadsByYear.keySet());
+                for (String instanceId : instances) {
+                    for (TeacherLoadIndex loads : loadsByYear.values()) {
+                        teachers.addAll(loads.teachersOn(instanceId).keySet());
+                    }
+                }
+            }
+
+            TeacherLoadIndex.Builder year = loadedYears.contains(studyYear) ? null
+                    : db.loadTeacherAllocations(Set.of(studyYear), null);
+            TeacherLoadIndex.Builder changed = teachers.isEmpty() || loadedYears.isEmpty() ? null
+                    : db.loadTeacherAllocations(loadedYears, teachers);
+
+            synchronized (this) {
+                if (gen != generation) {
+                    return; // resync meanwhile: everything was dropped
+                }
+                if (changed != null) {
+                    for (int loaded : loadedYears) {
+                        loadsByYear.get(loaded).replaceTeachers(teachers, changed);
+                    }
+                }
+                if (year != null) {
+                    loadsByYear.put(studyYear, new TeacherLoadIndex(studyYear, MAX_INSTANCES_PER_PERIOD, year));
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Not applied: the next call tries again
+            changedTeachers.addAll(teachers);
+            changedInstances.addAll(instances);
+            throw e;
+        }
+    }
+
+    // Guarded by 'this'; microseconds: bitset operations and a sort of the eligible teachers
+    private static List<TeacherCandidate> rank(SkillIndex index, TeacherLoadIndex loads, InstancePeriod ip,
+                                               String instanceId, String activityName, int limit) {
+        String studyPeriod = ip.studyPeriod;
+        // Already on the instance: another activity there does not add an instance
+        Map<String, Set<String>> onInstance = loads.teachersOn(instanceId);
+        BitSet allowed = loads.underCap(index, studyPeriod);
+        for (Map.Entry<String, Set<String>> t : onInstance.entrySet()) {
+            int e = index.employeeId(t.getKey());
+            if (e >= 0) {
+                allowed.set(e, !t.getValue().contains(activityName));
+            }
+        }
+
+        BitSet eligible = index.qualified(ip.courseCode, activityName);
+        eligible.and(allowed);
+
+        List<Integer> ids = new ArrayList<>(eligible.cardinality());
+        for (int e = eligible.nextSetBit(0); e >= 0; e = eligible.nextSetBit(e + 1)) {
+            ids.add(e);
+        }
+        ids.sort(Comparator.<Integer>comparingDouble(e -> loads.hours(index, e))
+                .thenComparing(index::getEmploymentId));
+
+        List<TeacherCandidate> result = new ArrayList<>();
+        for (int e : ids.subList(0, Math.min(limit, ids.size()))) {
+            String emp = index.getEmploymentId(e);
+            result.add(new TeacherCandidate(emp, index.getTeacherName(e), index.getSkillLevel(e),
+                    loads.instances(index, studyPeriod, e), loads.hours(index, e), onInstance.containsKey(emp)));
+        }
+        return result;
+    }
+
+    private SkillIndex currentSkillIndex() throws SQLException {
+        SkillIndex index = skillIndex;
+        return index != null && !skillIndexStale ? index : refreshSkillIndex();
+    }
+
+    private synchronized void dropLoads() {
+        generation++;
+        loadsByYear.clear();
+        changedTeachers.clear();
+        changedInstances.clear();
+    }
+
+    private static Set<String> drain(Set<String> changed) {
+        Set<String> drained = new HashSet<>();
+        for (String key : changed) {
+            if (changed.remove(key)) {
+                drained.add(key);
+            }
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,70 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one committed change reported by the database change feed:
+ * Table, Operation, Instance ID and/or Employment ID (whichever applies).
+ * A resync event (no table) means that changes may have been missed, e.g. while
+ * the listener was reconnecting: subscribers must treat everything as changed.
+ * In a sharded deployment, a salary change on one shard is also passed on to the
+ * others (otherShardSalaries): averages over all shards' salaries have changed.
+ */
+
+public class ChangeEvent {
+
+    // SKILLS: employees, names, skills, course requirements or activities (no keys)
+    public enum Table { ALLOCATIONS, PLANNED_ACTIVITY, COURSE_INSTANCE, SALARY, SKILLS }
+
+    public enum Operation { INSERT, UPDATE, DELETE }
+
+    private final Table table;
+    private final Operation operation;
+    private final String instanceId;
+    private final String employmentId;
+    private final long receivedAtMillis;
+    private final boolean fromOtherShard;
+
+    public ChangeEvent(Table table, Operation operation, String instanceId,
+                       String employmentId, long receivedAtMillis) {
+        this(table, operation, instanceId, employmentId, receivedAtMillis, false);
+    }
+
+    private ChangeEvent(Table table, Operation operation, String instanceId,
+                        String employmentId, long receivedAtMillis, boolean fromOtherShard) {
+        this.table = table;
+        this.operation = operation;
+        this.instanceId = instanceId;
+        this.employmentId = employmentId;
+        this.receivedAtMillis = receivedAtMillis;
+        this.fromOtherShard = fromOtherShard;
+    }
+
+    /** "Everything may have changed", published after the feed was interrupted. */
+    public static ChangeEvent resync(long receivedAtMillis) {
+        return new ChangeEvent(null, null, null, null, receivedAtMillis);
+    }
+
+    /** "Salaries changed on another shard": a SALARY event naming no teacher. */
+    public static ChangeEvent otherShardSalaries(long receivedAtMillis) {
+        return new ChangeEvent(Table.SALARY, Operation.UPDATE, null, null, receivedAtMillis, true);
+    }
+
+    // Getters
+    public boolean isResync()           { return table == null; }
+    public Table getTable()             { return table; }         // null for a resync
+    public Operation getOperation()     { return operation; }     // null for a resync
+    public String getInstanceId()       { return instanceId; }    // null for SALARY and SKILLS
+    public String getEmploymentId()     { return employmentId; }  // null unless ALLOCATIONS or SALARY
+    public long getReceivedAtMillis()   { return receivedAtMillis; }
+    public boolean isFromOtherShard()   { return fromOtherShard; }
+
+    @Override
+    public String toString() {
+        if (isResync()) {
+            return "RESYNC (changes may have been missed, all caches invalidated)";
+        }
+        return table + " " + operation
+                + (instanceId != null ? " instance=" + instanceId : "")
+                + (employmentId != null ? " employee=" + employmentId : "")
+                + (fromOtherShard ? " (other shard)" : "");
+    }
+}
@@ -2,6 +2,8 @@ package kth.iv1351.coursealloc.model;
 
 /**
  * DTO for the result "Course Code, Instance, Period, Planned Cost, Actual Cost".
+ * fromCache: answered from the report snapshot because the database query
+ * exceeded its latency budget; may not include the latest changes.
  */
 
 public class CourseInstanceCost {
@@ -10,14 +12,21 @@ public class CourseInstanceCost {
     private final String period;
     private final double plannedCostKsek;
     private final double actualCostKsek;
+    private final boolean fromCache;
 
     public CourseInstanceCost(String courseCode, String instanceId, String period,
                               double plannedCostKsek, double actualCostKsek) {
+        this(courseCode, instanceId, period, plannedCostKsek, actualCostKsek, false);
+    }
+
+    public CourseInstanceCost(String courseCode, String instanceId, String period,
+                              double plannedCostKsek, double actualCostKsek, boolean fromCache) {
         this.courseCode = courseCode;
         this.instanceId = instanceId;
         this.period = period;
         this.plannedCostKsek = plannedCostKsek;
         this.actualCostKsek = actualCostKsek;
+        this.fromCache = fromCache;
     }
 
     // Getters
@@ -26,4 +35,5 @@ public class CourseInstanceCost {
     public String getPeriod() { return period; }
     public double getPlannedCostKsek() { return plannedCostKsek; }
     public double getActualCostKsek() { return actualCostKsek; }
+    public boolean isFromCache() { return fromCache; }
 }
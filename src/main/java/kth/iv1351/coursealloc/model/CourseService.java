@@ -1,6 +1,8 @@
 package kth.iv1351.coursealloc.model;
 
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import kth.iv1351.coursealloc.integration.DBHandler;
 
 /**
@@ -10,12 +12,18 @@ import kth.iv1351.coursealloc.integration.DBHandler;
  *   - Increase number of students.
  * It uses DBHandler's executeInTransaction(...) so that the integration layer
  * owns transaction handling, while this class owns business meaning.
+ * When the cost query exceeds its latency budget, the cost is answered from
+ * the report snapshot instead (if one is loaded), marked as from cache.
+ * On a shard, the average hourly salary also covers the other shards' salaries,
+ * read before the transaction (DBHandler.otherSalaryTotals).
  */
 public class CourseService {
     private final DBHandler db;
+    private final ReportingService reportingService;
 
-    public CourseService(DBHandler db) {
+    public CourseService(DBHandler db, ReportingService reportingService) {
         this.db = db;
+        this.reportingService = reportingService;
     }
 
     /**
@@ -23,8 +31,30 @@ public class CourseService {
      * Read-only, but still wrapped in a transaction to demonstrate proper layering.
      */
     public CourseInstanceCost computeCourseCost(String instanceId) throws SQLException {
-        return db.executeInTransaction(() ->
-                db.computeCostForInstance(instanceId)
+        try {
+            DBHandler.SalaryTotals otherShards = db.otherSalaryTotals(null);
+            return db.executeInTransaction("cost", instanceId, null, () ->
+                    db.computeCostForInstance(instanceId, null, otherShards)
+            );
+        } catch (BudgetExceededException e) {
+            CourseInstanceCost cached = reportingService.cachedCourseCost(instanceId);
+            if (cached == null) {
+                throw e;
+            }
+            db.recordFallback("cost");
+            return cached;
+        }
+    }
+
+    /**
+     * Use case: reconstruct the teaching cost of one course instance (any study year)
+     * with the salaries that were valid at the given point in time, e.g. for audits.
+     */
+    public CourseInstanceCost computeCourseCostAsOf(String instanceId, LocalDateTime asOf) throws SQLException {
+        Timestamp at = Timestamp.valueOf(asOf);
+        DBHandler.SalaryTotals otherShards = db.otherSalaryTotals(at);
+        return db.executeInTransaction("cost_as_of", instanceId, null, () ->
+                db.computeCostForInstance(instanceId, at, otherShards)
         );
     }
 
@@ -33,8 +63,11 @@ public class CourseService {
      * Needs a read–modify–write, so we wrap it inside one transaction.
      */
     public int increaseStudents(String instanceId, int delta) throws SQLException {
-        return db.executeInTransaction(() ->
-                db.increaseNumStudents(instanceId, delta)
-        );
+        return db.executeInTransaction("inc_students", instanceId, null, () -> {
+            int newValue = db.increaseNumStudents(instanceId, delta);
+            db.audit(new AuditEvent("inc_students", instanceId, null, null,
+                    "delta=" + delta + " new=" + newValue));
+            return newValue;
+        });
     }
 }
@@ -0,0 +1,30 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one row of the instance listing:
+ * Instance ID, Year, Period, Course Code, number of students.
+ */
+
+public class InstanceSummary {
+    private final String instanceId;
+    private final int studyYear;
+    private final String period;
+    private final String courseCode;
+    private final int numStudents;
+
+    public InstanceSummary(String instanceId, int studyYear, String period,
+                           String courseCode, int numStudents) {
+        this.instanceId = instanceId;
+        this.studyYear = studyYear;
+        this.period = period;
+        this.courseCode = courseCode;
+        this.numStudents = numStudents;
+    }
+
+    // Getters
+    public String getInstanceId()  { return instanceId; }
+    public int getStudyYear()      { return studyYear; }
+    public String getPeriod()      { return period; }
+    public String getCourseCode()  { return courseCode; }
+    public int getNumStudents()    { return numStudents; }
+}
@@ -0,0 +1,34 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for the latency budget of one use case (see LatencyBudgets):
+ * Use case, budget (0 = none), transactions, slowest transaction,
+ * budget violations and answers served from a cache instead.
+ */
+
+public class LatencyBudget {
+    private final String useCase;
+    private final long budgetMillis;
+    private final long transactions;
+    private final long maxMillis;
+    private final long exceeded;
+    private final long fallbacks;
+
+    public LatencyBudget(String useCase, long budgetMillis, long transactions,
+                         long maxMillis, long exceeded, long fallbacks) {
+        this.useCase = useCase;
+        this.budgetMillis = budgetMillis;
+        this.transactions = transactions;
+        this.maxMillis = maxMillis;
+        this.exceeded = exceeded;
+        this.fallbacks = fallbacks;
+    }
+
+    // Getters
+    public String getUseCase()     { return useCase; }
+    public long getBudgetMillis()  { return budgetMillis; }
+    public long getTransactions()  { return transactions; }
+    public long getMaxMillis()     { return maxMillis; }
+    public long getExceeded()      { return exceeded; }
+    public long getFallbacks()     { return fallbacks; }
+}
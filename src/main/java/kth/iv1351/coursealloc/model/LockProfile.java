@@ -0,0 +1,79 @@
+package kth.iv1351.coursealloc.model;
+
+import java.util.List;
+
+/**
+ * DTO for a lock contention report of one database (see LockProfiler):
+ * per use case how long its transactions took and how much of that was
+ * waiting, and the instance / teacher keys with the most lock waiting.
+ */
+
+public class LockProfile {
+
+    /** Transactions of one use case. */
+    public static class UseCase {
+        private final String useCase;
+        private final long transactions;
+        private final double totalMillis;
+        private final double queueWaitMillis;   // waiting for this application's connection
+        private final double lockWaitMillis;    // blocked on a database lock (sampled)
+        private final String mostWaitedOn;      // relation or lock type, null if no waits
+
+        public UseCase(String useCase, long transactions, double totalMillis,
+                       double queueWaitMillis, double lockWaitMillis, String mostWaitedOn) {
+            this.useCase = useCase;
+            this.transactions = transactions;
+            this.totalMillis = totalMillis;
+            this.queueWaitMillis = queueWaitMillis;
+            this.lockWaitMillis = lockWaitMillis;
+            this.mostWaitedOn = mostWaitedOn;
+        }
+
+        // Getters
+        public String getUseCase()         { return useCase; }
+        public long getTransactions()      { return transactions; }
+        public double getTotalMillis()     { return totalMillis; }
+        public double getQueueWaitMillis() { return queueWaitMillis; }
+        public double getLockWaitMillis()  { return lockWaitMillis; }
+        public String getMostWaitedOn()    { return mostWaitedOn; }
+    }
+
+    /** One contended instance or teacher. */
+    public static class HotKey {
+        private final String kind;              // "instance" or "teacher"
+        private final String key;
+        private final double lockWaitMillis;
+        private final String topBlocker;        // use case of the session holding the lock most often
+
+        public HotKey(String kind, String key, double lockWaitMillis, String topBlocker) {
+            this.kind = kind;
+            this.key = key;
+            this.lockWaitMillis = lockWaitMillis;
+            this.topBlocker = topBlocker;
+        }
+
+        // Getters
+        public String getKind()            { return kind; }
+        public String getKey()             { return key; }
+        public double getLockWaitMillis()  { return lockWaitMillis; }
+        public String getTopBlocker()      { return topBlocker; }
+    }
+
+    private final boolean running;
+    private final double sampledSeconds;
+    private final List<UseCase> useCases;
+    private final List<HotKey> hotKeys;
+
+    public LockProfile(boolean running, double sampledSeconds, List<UseCase> useCases, List<HotKey> hotKeys) {
+        this.running = running;
+        this.sampledSeconds = sampledSeconds;
+        this.useCases = useCases;
+        this.hotKeys = hotKeys;
+    }
+
+    // Getters
+    public boolean isRunning()          { return running; }
+    public double getSampledSeconds()   { return sampledSeconds; }
+    public List<UseCase> getUseCases()  { return useCases; }
+    public List<HotKey> getHotKeys()    { return hotKeys; }
+}
@@ -0,0 +1,70 @@
+package kth.iv1351.coursealloc.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing.
+ * The next page is requested with the last item of this page as "after" key,
+ * so every page costs one index range scan regardless of how far the user has browsed.
+ */
+
+public class Page<T> {
+    private final List<T> items;
+    private final boolean hasMore;
+
+    public Page(List<T> items, boolean hasMore) {
+        this.items = items;
+        this.hasMore = hasMore;
+    }
+
+    // Getters
+    public List<T> getItems()   { return items; }
+    public boolean hasMore()    { return hasMore; }
+
+    /** Key for the next page (the last item), or null if this page is empty. */
+    public T getLast() {
+        return items.isEmpty() ? null : items.get(items.size() - 1);
+    }
+
+    /**
+     * Order of strings compared COLLATE "C" in a UTF-8 database: by Unicode code point.
+     * (String.compareTo compares UTF-16 units, which differs above U+FFFF.)
+     */
+    public static final Comparator<String> CODE_POINT_ORDER = (a, b) -> {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Boolean.compare(i < a.length(), j < b.length());
+    };
+
+    /**
+     * Merges pages that were fetched with the same "after" key from several shards
+     * into one page in key order. Correct for keyset pagination: every row that could
+     * follow "after" is among the first pageSize rows of its own shard.
+     * The comparator must order exactly like the databases' ORDER BY; the listings
+     * sort their keys COLLATE "C", so compare them with CODE_POINT_ORDER.
+     */
+    public static <T> Page<T> merge(List<Page<T>> pages, Comparator<T> keyOrder, int pageSize) {
+        List<T> all = new ArrayList<>();
+        boolean anyMore = false;
+        for (Page<T> page : pages) {
+            all.addAll(page.getItems());
+            anyMore |= page.hasMore();
+        }
+        all.sort(keyOrder);
+        if (all.size() > pageSize) {
+            return new Page<>(new ArrayList<>(all.subList(0, pageSize)), true);
+        }
+        return new Page<>(all, anyMore);
+    }
+}
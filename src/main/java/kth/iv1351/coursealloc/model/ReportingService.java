@@ -0,0 +1,250 @@
+package kth.iv1351.coursealloc.model;
+
+import java.sql.SQLException;
+import java.time.Year;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kth.iv1351.coursealloc.integration.DBHandler;
+
+/**
+ * ReportingService
+ * Domain-layer service for read-only reports answered from memory:
+ *   - Per-instance cost, per-teacher hours and per-period load.
+ * The data comes from an AllocationHoursSnapshot that is loaded once from
+ * v_allocation_hours and replaced as a whole on refresh (versioned).
+ * Readers never block: they always see one complete snapshot.
+ * The change feed (onChange) keeps it current without reloading the view:
+ *   - Allocation, planned-hours and instance events name the instance; the next
+ *     read re-reads just those instances' rows and patches them in.
+ *   - Salary events re-read the named teacher's salary (all salaries when a
+ *     statement changed several, or when another shard's salaries changed) and
+ *     the average, which on a shard covers all shards (ShardRouter).
+ *   - Skill data events are ignored: skills are not in the snapshot, and teacher
+ *     names and activity factors are reference data that the next full load
+ *     picks up (like the materialized views).
+ *   - Only a resync (missed notifications) reloads the whole snapshot.
+ */
+public class ReportingService {
+    private final DBHandler db;
+    private final AtomicLong versions = new AtomicLong();
+    private volatile AllocationHoursSnapshot snapshot;
+    private volatile String snapshotMarker; // database change marker the snapshot was read at
+    private volatile boolean stale;          // full reload needed
+
+    // Reported by the change feed, applied by the next read
+    private final Set<String> changedInstances = ConcurrentHashMap.newKeySet();
+    private final Set<String> changedTeachers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean allSalariesChanged = new AtomicBoolean();
+
+    public ReportingService(DBHandler db) {
+        this.db = db;
+    }
+
+    /**
+     * Use case: (re)load the snapshot from the database.
+     * Both reads run in one REPEATABLE READ transaction so salaries and hours belong together.
+     * The change marker is read just before, in its own transaction: writers draw their
+     * marker number before they commit, so the snapshot only vouches for the marker if
+     * no write was in progress when it was taken. Otherwise it gets no marker and is
+     * not saved to the warm-state file (see WarmUpService).
+     */
+    public AllocationHoursSnapshot refreshSnapshot() throws SQLException {
+        stale = false; // changes arriving from here on are not guaranteed to be included
+        changedInstances.clear();
+        changedTeachers.clear();
+        allSalariesChanged.set(false);
+        long version = versions.incrementAndGet();
+        int currentYear = Year.now().getValue();
+        String marker = db.executeInTransaction("snapshot", null, null, db::readChangeMarker);
+        DBHandler.SalaryTotals otherShards = db.otherSalaryTotals(null);
+        boolean[] complete = new boolean[1];
+        AllocationHoursSnapshot fresh = db.executeInSnapshotTransaction("snapshot", () -> {
+            complete[0] = db.noWriteInProgress();
+            return db.loadAllocationHoursSnapshot(otherShards).build(version, currentYear);
+        });
+        install(fresh, complete[0] ? marker : null);
+        return fresh;
+    }
+
+    /**
+     * Installs a snapshot restored from the warm-state file, whose change marker
+     * the caller has just compared with the database.
+     */
+    public AllocationHoursSnapshot adoptSnapshot(AllocationHoursSnapshot.Builder restored, String changeMarker) {
+        AllocationHoursSnapshot fresh = restored.build(versions.incrementAndGet(), Year.now().getValue());
+        install(fresh, changeMarker);
+        if (db.hasOtherSalaries()) {
+            // The marker only vouches for this shard: re-read the average over all shards
+            allSalariesChanged.set(true);
+        }
+        return fresh;
+    }
+
+    private synchronized void install(AllocationHoursSnapshot fresh, String changeMarker) {
+        // A slower, older refresh must not replace a newer snapshot
+        if (snapshot == null || snapshot.getVersion() < fresh.getVersion()) {
+            snapshot = fresh;
+            snapshotMarker = changeMarker;
+        }
+    }
+
+    /** The loaded snapshot and no change pending since, else null (for the warm-state file). */
+    public AllocationHoursSnapshot unchangedSnapshot() {
+        return stale || changesPending() ? null : snapshot;
+    }
+
+    /**
+     * Change marker the current snapshot is known to be complete for; null before
+     * the first load or if a write was in progress while it was read.
+     */
+    public String getSnapshotMarker() {
+        return snapshotMarker;
+    }
+
+    // Use case: planned/actual cost of an instance, from memory.
+    public CourseInstanceCost computeCourseCost(String instanceId) throws SQLException {
+        CourseInstanceCost cost = currentSnapshot().instanceCost(instanceId);
+        if (cost == null) {
+            throw new SQLException("No planned hours for instance " + instanceId);
+        }
+        return cost;
+    }
+
+    /**
+     * Cost of an instance from the snapshot already in memory, even if changes have
+     * made it stale; never loads one. Null if there is no snapshot or the instance
+     * is not in it. Fallback for the database cost when that exceeds its latency budget.
+     */
+    public CourseInstanceCost cachedCourseCost(String instanceId) {
+        AllocationHoursSnapshot s = snapshot;
+        CourseInstanceCost cost = s == null ? null : s.instanceCost(instanceId);
+        if (cost == null) {
+            return null;
+        }
+        return new CourseInstanceCost(cost.getCourseCode(), cost.getInstanceId(), cost.getPeriod(),
+                cost.getPlannedCostKsek(), cost.getActualCostKsek(), true);
+    }
+
+    // Use case: total allocated hours of a teacher in a study year, from memory.
+    public double teacherHours(String employmentId, int studyYear) throws SQLException {
+        return currentSnapshot().teacherHours(employmentId, studyYear);
+    }
+
+    // Use case: teacher load in one (study_year, study_period), from memory.
+    public List<TeacherPeriodLoad> periodLoad(int studyYear, String studyPeriod) throws SQLException {
+        return currentSnapshot().periodLoad(studyYear, studyPeriod);
+    }
+
+    /**
+     * Subscriber for the change feed: remembers the changed instances and salaries
+     * for the next read; a resync (missed notifications) makes the snapshot stale. No I/O.
+     */
+    public void onChange(ChangeEvent event) {
+        if (event.isResync()) {
+            stale = true;
+            return;
+        }
+        switch (event.getTable()) {
+            case ALLOCATIONS:
+            case PLANNED_ACTIVITY:
+            case COURSE_INSTANCE:
+                if (event.getInstanceId() != null) {
+                    changedInstances.add(event.getInstanceId());
+                } else {
+                    stale = true;
+                }
+                break;
+            case SALARY:
+                if (event.getEmploymentId() != null) {
+                    changedTeachers.add(event.getEmploymentId());
+                } else {
+                    allSalariesChanged.set(true);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Loads the snapshot on first use (or after a resync), so the reports work without an
+    // explicit refresh; applies reported changes first if there are any.
+    AllocationHoursSnapshot currentSnapshot() throws SQLException {
+        AllocationHoursSnapshot s = snapshot;
+        if (s == null || stale) {
+            synchronized (this) {
+                s = snapshot;
+                if (s == null || stale) {
+                    s = refreshSnapshot();
+                }
+            }
+        } else if (changesPending()) {
+            synchronized (this) {
+                s = applyChanges();
+            }
+        }
+        return s;
+    }
+
+    private boolean changesPending() {
+        return !changedInstances.isEmpty() || !changedTeachers.isEmpty() || allSalariesChanged.get();
+    }
+
+    /**
+     * Re-reads only what the change feed reported and installs the patched snapshot.
+     * The patched snapshot has no change marker: it is not saved to the warm-state
+     * file as it is (WarmUpService reloads first). Guarded by 'this'.
+     */
+    private AllocationHoursSnapshot applyChanges() throws SQLException {
+        AllocationHoursSnapshot base = snapshot;
+        Set<String> instances = drain(changedInstances);
+        Set<String> teachers = drain(changedTeachers);
+        boolean allSalaries = allSalariesChanged.getAndSet(false);
+        if (instances.isEmpty() && teachers.isEmpty() && !allSalaries) {
+            return base;
+        }
+        try {
+            DBHandler.SalaryTotals otherShards = db.otherSalaryTotals(null);
+            AllocationHoursSnapshot.Builder fresh = db.executeInSnapshotTransaction("snapshot",
+                    () -> db.loadAllocationHoursChanges(instances, allSalaries ? null : teachers, otherShards));
+            AllocationHoursSnapshot patched = base.patch(instances, allSalaries ? null : teachers, fresh,
+                    versions.incrementAndGet());
+            synchronized (this) {
+                if (snapshot != base) {
+                    // A full refresh came in between; it may have been read before these changes
+                    requeue(instances, teachers, allSalaries);
+                    return snapshot;
+                }
+                snapshot = patched;
+                snapshotMarker = null;
+            }
+            return patched;
+        } catch (SQLException | RuntimeException e) {
+            // Not applied: the next read tries again
+            requeue(instances, teachers, allSalaries);
+            throw e;
+        }
+    }
+
+    private void requeue(Set<String> instances, Set<String> teachers, boolean allSalaries) {
+        changedInstances.addAll(instances);
+        changedTeachers.addAll(teachers);
+        if (allSalaries) {
+            allSalariesChanged.set(true);
+        }
+    }
+
+    private static Set<String> drain(Set<String> changed) {
+        Set<String> drained = new HashSet<>();
+        for (String key : changed) {
+            if (changed.remove(key)) {
+                drained.add(key);
+            }
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,26 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for the summary of one bulk salary revision on one shard:
+ * Department (null = all), what was applied, employees revised and the time it took.
+ */
+
+public class SalaryRevisionResult {
+    private final String departmentName;
+    private final String revision;
+    private final int employees;
+    private final long elapsedMillis;
+
+    public SalaryRevisionResult(String departmentName, String revision, int employees, long elapsedMillis) {
+        this.departmentName = departmentName;
+        this.revision = revision;
+        this.employees = employees;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // Getters
+    public String getDepartmentName() { return departmentName; }
+    public String getRevision()       { return revision; }
+    public int getEmployees()         { return employees; }
+    public long getElapsedMillis()    { return elapsedMillis; }
+}
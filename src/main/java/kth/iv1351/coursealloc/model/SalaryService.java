@@ -0,0 +1,62 @@
+package kth.iv1351.coursealloc.model;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import kth.iv1351.coursealloc.integration.DBHandler;
+
+/**
+ * SalaryService
+ * Domain-layer service for the annual salary revision:
+ *   - Raise every current salary by a percentage.
+ *   - Set new salaries from a per-job-title table.
+ * Both apply to one department or to all employees, in ONE transaction and
+ * one call of the set-based revise_salaries function (DBHandler.reviseSalariesBy...),
+ * instead of one salary insert per employee. Caches that depend on salaries
+ * (report snapshot) are invalidated by the per-statement change events sent at commit.
+ */
+public class SalaryService {
+    private final DBHandler db;
+
+    public SalaryService(DBHandler db) {
+        this.db = db;
+    }
+
+    // Use case: raise all current salaries (of a department, or all if null) by a percentage.
+    public SalaryRevisionResult raiseByPercent(String departmentName, double percent) throws SQLException {
+        if (percent <= -100 || Double.isNaN(percent) || Double.isInfinite(percent)) {
+            throw new SQLException("Invalid percentage: " + percent);
+        }
+        long start = System.nanoTime();
+        String revision = String.format("%+.2f%%", percent);
+        int revised = db.executeInTransaction("salary_revision", null, null, () -> {
+            int n = db.reviseSalariesByPercent(departmentName, percent);
+            db.audit(new AuditEvent("salary_revision", null, null, null,
+                    "department=" + departmentName + " revision=" + revision + " employees=" + n));
+            return n;
+        });
+        return new SalaryRevisionResult(departmentName, revision, revised, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Use case: new salaries per job title (of a department, or all if null); other titles keep theirs.
+    public SalaryRevisionResult setByJobTitle(String departmentName, Map<String, Double> salaryByJobTitle)
+            throws SQLException {
+        if (salaryByJobTitle.isEmpty()) {
+            throw new SQLException("No job title salaries given.");
+        }
+        for (Map.Entry<String, Double> e : salaryByJobTitle.entrySet()) {
+            if (e.getValue() == null || !(e.getValue() >= 0)) {
+                throw new SQLException("Invalid salary for " + e.getKey() + ": " + e.getValue());
+            }
+        }
+        long start = System.nanoTime();
+        String revision = salaryByJobTitle.toString();
+        int revised = db.executeInTransaction("salary_revision", null, null, () -> {
+            int n = db.reviseSalariesByJobTitle(departmentName, salaryByJobTitle);
+            db.audit(new AuditEvent("salary_revision", null, null, null,
+                    "department=" + departmentName + " revision=" + revision + " employees=" + n));
+            return n;
+        });
+        return new SalaryRevisionResult(departmentName, revision, revised, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,154 @@
+package kth.iv1351.coursealloc.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SkillIndex
+ * In-memory inverted index over employee skills, read-only.
+ * Layout:
+ *   - Employees are dictionary-encoded to dense int ids (bit positions).
+ *   - skill name -> BitSet of employees that have the skill.
+ *   - skill level -> BitSet of employees with AT LEAST that level.
+ *   - course_code -> required skills, activity -> minimum skill level.
+ * Finding who may teach an activity of a course is then a handful of
+ * BitSet ANDs over (employees / 64) words, independent of how the data is stored.
+ * A refresh builds a new index (see CandidateService).
+ */
+public class SkillIndex {
+
+    // skill_level_t in database order; the ordinal is the rank
+    private static final String[] LEVELS = { "beginner", "intermediate", "advanced" };
+
+    private final String[] employmentIds;
+    private final String[] teacherNames;
+    private final String[] skillLevels;
+    private final Map<String, Integer> employeeIndex;
+
+    private final Map<String, BitSet> bySkill;
+    private final BitSet[] levelAtLeast;                 // indexed by level rank
+    private final Map<String, List<String>> courseSkills;
+    private final Map<String, Integer> activityMinLevel;  // rank, or -1 for any level
+
+    private SkillIndex(Builder b) {
+        this.employmentIds = b.employmentIds.toArray(new String[0]);
+        this.teacherNames = b.teacherNames.toArray(new String[0]);
+        this.skillLevels = b.skillLevels.toArray(new String[0]);
+        this.employeeIndex = b.employeeIndex;
+        this.bySkill = b.bySkill;
+        this.courseSkills = b.courseSkills;
+        this.activityMinLevel = b.activityMinLevel;
+
+        // Employees of level L are in levelAtLeast[0..L]
+        this.levelAtLeast = new BitSet[LEVELS.length];
+        for (int l = 0; l < LEVELS.length; l++) {
+            levelAtLeast[l] = new BitSet(employmentIds.length);
+        }
+        for (int e = 0; e < employmentIds.length; e++) {
+            int rank = levelRank(skillLevels[e]);
+            for (int l = 0; l <= rank; l++) {
+                levelAtLeast[l].set(e);
+            }
+        }
+    }
+
+    public int getEmployeeCount() { return employmentIds.length; }
+    public String getEmploymentId(int e) { return employmentIds[e]; }
+    public String getTeacherName(int e) { return teacherNames[e]; }
+    public String getSkillLevel(int e) { return skillLevels[e]; }
+
+    /** Dense id of an employee, or -1 if unknown. */
+    public int employeeId(String employmentId) {
+        Integer e = employeeIndex.get(employmentId);
+        return e == null ? -1 : e;
+    }
+
+    public boolean hasActivity(String activityName) {
+        return activityMinLevel.containsKey(activityName);
+    }
+
+    /** Skills required for the course (empty if none are recorded). */
+    public List<String> requiredSkills(String courseCode) {
+        return courseSkills.getOrDefault(courseCode, List.of());
+    }
+
+    /**
+     * Employees that have every skill of the course and at least the activity's
+     * minimum level. Returns a new BitSet the caller may modify.
+     */
+    public BitSet qualified(String courseCode, String activityName) {
+        BitSet result = new BitSet(employmentIds.length);
+        result.set(0, employmentIds.length);
+
+        for (String skill : requiredSkills(courseCode)) {
+            BitSet holders = bySkill.get(skill);
+            if (holders == null) {
+                return new BitSet(); // nobody has this skill
+            }
+            result.and(holders);
+        }
+
+        int minLevel = activityMinLevel.getOrDefault(activityName, -1);
+        if (minLevel >= 0) {
+            result.and(levelAtLeast[minLevel]);
+        }
+        return result;
+    }
+
+    private static int levelRank(String level) {
+        for (int l = 0; l < LEVELS.length; l++) {
+            if (LEVELS[l].equals(level)) {
+                return l;
+            }
+        }
+        return -1; // no level recorded: only qualifies where no level is required
+    }
+
+    /**
+     * Collects the data for a SkillIndex (filled by DBHandler.loadSkillIndex).
+     * Employees must be added before their skills.
+     */
+    public static class Builder {
+        private final List<String> employmentIds = new ArrayList<>();
+        private final List<String> teacherNames = new ArrayList<>();
+        private final List<String> skillLevels = new ArrayList<>();
+        private final Map<String, Integer> employeeIndex = new HashMap<>();
+        private final Map<String, BitSet> bySkill = new HashMap<>();
+        private final Map<String, List<String>> courseSkills = new HashMap<>();
+        private final Map<String, Integer> activityMinLevel = new HashMap<>();
+
+        public Builder addEmployee(String employmentId, String teacherName, String skillLevel) {
+            employeeIndex.put(employmentId, employmentIds.size());
+            employmentIds.add(employmentId);
+            teacherNames.add(teacherName);
+            skillLevels.add(skillLevel);
+            return this;
+        }
+
+        public Builder addEmployeeSkill(String employmentId, String skillName) {
+            Integer e = employeeIndex.get(employmentId);
+            if (e != null) {
+                bySkill.computeIfAbsent(skillName, k -> new BitSet()).set(e);
+            }
+            return this;
+        }
+
+        public Builder addCourseSkill(String courseCode, String skillName) {
+            courseSkills.computeIfAbsent(courseCode, k -> new ArrayList<>()).add(skillName);
+            return this;
+        }
+
+        /** @param minSkillLevel null if any level may teach the activity */
+        public Builder addActivity(String activityName, String minSkillLevel) {
+            activityMinLevel.put(activityName, minSkillLevel == null ? -1 : levelRank(minSkillLevel));
+            return this;
+        }
+
+        public SkillIndex build() {
+            return new SkillIndex(this);
+        }
+    }
+}
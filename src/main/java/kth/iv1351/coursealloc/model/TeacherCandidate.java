@@ -0,0 +1,34 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one eligible teacher for an activity:
+ * Employment ID, Teacher Name, Skill Level, instances in the period,
+ * allocated hours in the year, and whether already on the instance.
+ */
+
+public class TeacherCandidate {
+    private final String employmentId;
+    private final String teacherName;
+    private final String skillLevel;
+    private final int instancesInPeriod;
+    private final double hoursInYear;
+    private final boolean onInstance;
+
+    public TeacherCandidate(String employmentId, String teacherName, String skillLevel,
+                            int instancesInPeriod, double hoursInYear, boolean onInstance) {
+        this.employmentId = employmentId;
+        this.teacherName = teacherName;
+        this.skillLevel = skillLevel;
+        this.instancesInPeriod = instancesInPeriod;
+        this.hoursInYear = hoursInYear;
+        this.onInstance = onInstance;
+    }
+
+    // Getters
+    public String getEmploymentId()   { return employmentId; }
+    public String getTeacherName()    { return teacherName; }
+    public String getSkillLevel()     { return skillLevel; }
+    public int getInstancesInPeriod() { return instancesInPeriod; }
+    public double getHoursInYear()    { return hoursInYear; }
+    public boolean isOnInstance()     { return onInstance; }
+}
@@ -0,0 +1,211 @@
+package kth.iv1351.coursealloc.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * TeacherLoadIndex
+ * In-memory allocations of ONE study year, per teacher, for CandidateService:
+ *   - per teacher: its (instance, period, activity, hours) rows,
+ *   - per instance: the teachers on it and their activities there,
+ *   - per study period: a load bitmap over SkillIndex employee ids (teachers
+ *     under the per-period cap) and their instance counts, built on first use.
+ * Unlike the report snapshot it is not thrown away on every change:
+ * replaceTeachers(...) swaps the rows of just the teachers the change feed
+ * reported and patches their bits and counts in place.
+ * Hours are planned_hours * factor, as in v_allocation_hours.
+ * Not thread-safe; CandidateService synchronizes all access.
+ */
+public class TeacherLoadIndex {
+
+    /** One allocation of a teacher. */
+    static class Row {
+        final String instanceId;
+        final String studyPeriod;
+        final String activityName;
+        final double hours;
+
+        Row(String instanceId, String studyPeriod, String activityName, double hours) {
+            this.instanceId = instanceId;
+            this.studyPeriod = studyPeriod;
+            this.activityName = activityName;
+            this.hours = hours;
+        }
+    }
+
+    /** Collects allocation rows by study year and teacher (DBHandler.loadTeacherAllocations). */
+    public static class Builder {
+        private final Map<Integer, Map<String, List<Row>>> rows = new HashMap<>();
+
+        public void addRow(int studyYear, String employmentId, String instanceId, String studyPeriod,
+                           String activityName, double hours) {
+            rows.computeIfAbsent(studyYear, y -> new HashMap<>())
+                    .computeIfAbsent(employmentId, e -> new ArrayList<>())
+                    .add(new Row(instanceId, studyPeriod, activityName, hours));
+        }
+
+        /** Rows of one study year by teacher; teachers without allocations are absent. */
+        Map<String, List<Row>> rowsOf(int studyYear) {
+            return rows.getOrDefault(studyYear, Map.of());
+        }
+    }
+
+    // Teachers under the cap in one period, and their instance counts, by SkillIndex id
+    private static class PeriodLoad {
+        final BitSet underCap;
+        final int[] instances;
+
+        PeriodLoad(int employees) {
+            this.underCap = new BitSet(employees);
+            this.instances = new int[employees];
+        }
+    }
+
+    private final int studyYear;
+    private final int maxInstancesPerPeriod;
+    private final Map<String, List<Row>> byTeacher = new HashMap<>();
+    private final Map<String, Map<String, Set<String>>> byInstance = new HashMap<>(); // instance -> teacher -> activities
+
+    // Derived per SkillIndex: rebuilt when another index is used
+    private SkillIndex skillIndex;
+    private double[] hours;
+    private final Map<String, PeriodLoad> byPeriod = new HashMap<>(); // null key: instances without a period
+
+    public TeacherLoadIndex(int studyYear, int maxInstancesPerPeriod, Builder rows) {
+        this.studyYear = studyYear;
+        this.maxInstancesPerPeriod = maxInstancesPerPeriod;
+        rows.rowsOf(studyYear).forEach(this::add);
+    }
+
+    public int getStudyYear() { return studyYear; }
+
+    /**
+     * Replaces the rows of the given teachers with their rows in fresh (none left:
+     * the teacher is dropped) and patches their load bits and counts.
+     */
+    public void replaceTeachers(Set<String> employmentIds, Builder fresh) {
+        Map<String, List<Row>> rows = fresh.rowsOf(studyYear);
+        for (String emp : employmentIds) {
+            remove(emp);
+            List<Row> teacherRows = rows.get(emp);
+            if (teacherRows != null) {
+                add(emp, teacherRows);
+            }
+            if (skillIndex != null) {
+                int e = skillIndex.employeeId(emp);
+                if (e >= 0) {
+                    patch(e, emp);
+                }
+            }
+        }
+    }
+
+    /** Teachers on the instance, with the activities they have there (empty if none). */
+    public Map<String, Set<String>> teachersOn(String instanceId) {
+        return byInstance.getOrDefault(instanceId, Map.of());
+    }
+
+    /**
+     * Employees (SkillIndex ids) with fewer than the maximum instances in the period.
+     * Returns a new BitSet the caller may modify.
+     */
+    public BitSet underCap(SkillIndex index, String studyPeriod) {
+        return (BitSet) periodLoad(index, studyPeriod).underCap.clone();
+    }
+
+    /** Distinct instances of the employee in the period. */
+    public int instances(SkillIndex index, String studyPeriod, int e) {
+        return periodLoad(index, studyPeriod).instances[e];
+    }
+
+    /** Allocated hours of the employee in the study year. */
+    public double hours(SkillIndex index, int e) {
+        useSkillIndex(index);
+        return hours[e];
+    }
+
+    private PeriodLoad periodLoad(SkillIndex index, String studyPeriod) {
+        useSkillIndex(index);
+        PeriodLoad load = byPeriod.get(studyPeriod);
+        if (load == null) {
+            load = new PeriodLoad(index.getEmployeeCount());
+            byPeriod.put(studyPeriod, load);
+            for (int e = 0; e < index.getEmployeeCount(); e++) {
+                List<Row> rows = byTeacher.get(index.getEmploymentId(e));
+                load.instances[e] = rows == null ? 0 : distinctInstances(rows, studyPeriod);
+                load.underCap.set(e, load.instances[e] < maxInstancesPerPeriod);
+            }
+        }
+        return load;
+    }
+
+    // Employee ids belong to one SkillIndex: a new index drops the derived loads
+    private void useSkillIndex(SkillIndex index) {
+        if (index == skillIndex) {
+            return;
+        }
+        skillIndex = index;
+        byPeriod.clear();
+        hours = new double[index.getEmployeeCount()];
+        for (int e = 0; e < hours.length; e++) {
+            List<Row> rows = byTeacher.get(index.getEmploymentId(e));
+            hours[e] = rows == null ? 0.0 : totalHours(rows);
+        }
+    }
+
+    private void patch(int e, String emp) {
+        List<Row> rows = byTeacher.get(emp);
+        hours[e] = rows == null ? 0.0 : totalHours(rows);
+        for (Map.Entry<String, PeriodLoad> p : byPeriod.entrySet()) {
+            PeriodLoad load = p.getValue();
+            load.instances[e] = rows == null ? 0 : distinctInstances(rows, p.getKey());
+            load.underCap.set(e, load.instances[e] < maxInstancesPerPeriod);
+        }
+    }
+
+    private void add(String emp, List<Row> rows) {
+        byTeacher.put(emp, rows);
+        for (Row r : rows) {
+            byInstance.computeIfAbsent(r.instanceId, i -> new HashMap<>())
+                    .computeIfAbsent(emp, t -> new HashSet<>())
+                    .add(r.activityName);
+        }
+    }
+
+    private void remove(String emp) {
+        List<Row> rows = byTeacher.remove(emp);
+        if (rows == null) {
+            return;
+        }
+        for (Row r : rows) {
+            Map<String, Set<String>> teachers = byInstance.get(r.instanceId);
+            if (teachers != null && teachers.remove(emp) != null && teachers.isEmpty()) {
+                byInstance.remove(r.instanceId);
+            }
+        }
+    }
+
+    private static int distinctInstances(List<Row> rows, String studyPeriod) {
+        Set<String> instances = new HashSet<>();
+        for (Row r : rows) {
+            if (Objects.equals(r.studyPeriod, studyPeriod)) {
+                instances.add(r.instanceId);
+            }
+        }
+        return instances.size();
+    }
+
+    private static double totalHours(List<Row> rows) {
+        double total = 0.0;
+        for (Row r : rows) {
+            total += r.hours;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,33 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one teacher's load in a (study_year, study_period):
+ * Employment ID, Teacher Name, Year, Period, number of instances, allocated hours.
+ */
+
+public class TeacherPeriodLoad {
+    private final String employmentId;
+    private final String teacherName;
+    private final int studyYear;
+    private final String period;
+    private final int numInstances;
+    private final double allocatedHours;
+
+    public TeacherPeriodLoad(String employmentId, String teacherName, int studyYear,
+                             String period, int numInstances, double allocatedHours) {
+        this.employmentId = employmentId;
+        this.teacherName = teacherName;
+        this.studyYear = studyYear;
+        this.period = period;
+        this.numInstances = numInstances;
+        this.allocatedHours = allocatedHours;
+    }
+
+    // Getters
+    public String getEmploymentId()   { return employmentId; }
+    public String getTeacherName()    { return teacherName; }
+    public int getStudyYear()         { return studyYear; }
+    public String getPeriod()         { return period; }
+    public int getNumInstances()      { return numInstances; }
+    public double getAllocatedHours() { return allocatedHours; }
+}
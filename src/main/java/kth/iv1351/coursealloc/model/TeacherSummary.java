@@ -0,0 +1,30 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for one row of the teacher listings:
+ * Employment ID, Teacher Name, Department, Job Title, Skill Level.
+ */
+
+public class TeacherSummary {
+    private final String employmentId;
+    private final String teacherName;
+    private final String departmentName;
+    private final String jobTitle;
+    private final String skillLevel;
+
+    public TeacherSummary(String employmentId, String teacherName, String departmentName,
+                          String jobTitle, String skillLevel) {
+        this.employmentId = employmentId;
+        this.teacherName = teacherName;
+        this.departmentName = departmentName;
+        this.jobTitle = jobTitle;
+        this.skillLevel = skillLevel;
+    }
+
+    // Getters
+    public String getEmploymentId()   { return employmentId; }
+    public String getTeacherName()    { return teacherName; }
+    public String getDepartmentName() { return departmentName; }
+    public String getJobTitle()       { return jobTitle; }
+    public String getSkillLevel()     { return skillLevel; }
+}
@@ -3,7 +3,7 @@ package kth.iv1351.coursealloc.model;
 import java.sql.SQLException;
 
 import kth.iv1351.coursealloc.integration.DBHandler;
-import kth.iv1351.coursealloc.integration.DBHandler.InstancePeriod;
+import kth.iv1351.coursealloc.integration.DBHandler.AllocationOutcome;
 
 /**
  * TeachingService
@@ -12,12 +12,17 @@ import kth.iv1351.coursealloc.integration.DBHandler.InstancePeriod;
  *   - A teacher may NOT teach in more than 4 course instances in the same
  *     (study_year, study_period).
  * Implementation:
- *   - Uses DBHandler.executeInTransaction to run the whole sequence of:
+ *   - The whole sequence of
  *       * lookups
  *       * overload check
  *       * inserts/updates
- *       in a single transaction.
+ *     runs server-side in the allocate_teaching(...) function, called once
+ *     inside DBHandler.executeInTransaction; it returns a status that is
+ *     mapped to TeacherOverloadedException / SQLException here.
  * Transaction handling is still done by DBHandler, not by this service.
+ * Bulk reassignment (teacher on leave) moves all matching allocations of one
+ * teacher to another in one set-based transaction, with a single up-front
+ * max-4 check for the target teacher instead of one per row.
  */
 public class TeachingService {
     private final DBHandler db;
@@ -32,47 +37,87 @@ public class TeachingService {
                                  double allocatedHours)
             throws SQLException, TeacherOverloadedException {
 
-        // We need to know after the transaction whether we violated the rule.
-        final boolean[] overloaded = { false };  // Use array to allow mutation inside lambda
-        final String[] overloadMessage = { null };
+        // Lookups, overload check and both upserts run server-side in one call
+        AllocationOutcome outcome = db.executeInTransaction("alloc", instanceId, employmentId, () -> {
+            AllocationOutcome o = db.allocateTeachingServerSide(instanceId, employmentId, activityName, allocatedHours);
+            if ("OK".equals(o.status)) {
+                db.audit(new AuditEvent("alloc", instanceId, employmentId, activityName,
+                        "hours=" + allocatedHours));
+            }
+            return o;
+        });
 
-        db.executeInTransaction(() -> {
-            // Get activity id
-            long activityId = db.getTeachingActivityIdByName(activityName);
+        // Outside the transaction, convert the status to a domain exception
+        switch (outcome.status) {
+            case "OK":
+                return;
+            case "OVERLOADED":
+                throw new TeacherOverloadedException(
+                        "Teacher " + employmentId + " already has " +
+                        outcome.instanceCount + " course instances in period " +
+                        outcome.studyPeriod + " of year " + outcome.studyYear +
+                        " -> cannot allocate another instance.");
+            case "UNKNOWN_ACTIVITY":
+                throw new SQLException("Unknown teaching activity: " + activityName);
+            case "UNKNOWN_INSTANCE":
+                throw new SQLException("Course instance not found: " + instanceId);
+            case "AMBIGUOUS_INSTANCE":
+                throw new SQLException("Course instance " + instanceId + " exists in more than one study year");
+            case "UNKNOWN_EMPLOYEE":
+                throw new SQLException("Unknown employee: " + employmentId);
+            default:
+                throw new SQLException("Unexpected allocation status: " + outcome.status);
+        }
+    }
 
-            // Get target instance year & period
-            InstancePeriod ip = db.getInstancePeriod(instanceId);
+    /**
+     * Use case: move all allocations of one teacher in a study year (optionally only one
+     * period, instance and/or activity; null = all) to another teacher.
+     * Both teachers are locked, the whole move is checked against the max-4 rule once,
+     * then the rows move in one statement. Hours are added if the target already has
+     * the same activity on the same instance.
+     */
+    public BulkAllocationResult reassignTeacher(String fromEmploymentId,
+                                                String toEmploymentId,
+                                                int studyYear,
+                                                String studyPeriod,
+                                                String instanceId,
+                                                String activityName)
+            throws SQLException, TeacherOverloadedException {
 
-            // Check if teacher already has *any* allocation on this instance
-            boolean alreadyOnThisInstance =
-                    db.teacherAlreadyAllocatedOnInstance(instanceId, employmentId);
+        if (fromEmploymentId.equals(toEmploymentId)) {
+            throw new IllegalArgumentException("Source and target teacher must differ.");
+        }
 
-            // If this is a new instance for that teacher in that period, enforce max 4 rule
-            if (!alreadyOnThisInstance) {
-                int currentInstances = db.countTeacherInstancesInPeriod(employmentId, ip.studyYear, ip.studyPeriod);
+        final String[] overloadMessage = { null };
 
-                if (currentInstances >= 4) {
-                    overloaded[0] = true;
-                    overloadMessage[0] =
-                            "Teacher " + employmentId + " already has " +
-                            currentInstances + " course instances in period " +
-                            ip.studyPeriod + " of year " + ip.studyYear +
-                            " -> cannot allocate another instance.";
-                    // We do NOT perform any writes in this case.
-                    return null;
-                }
-            }
+        BulkAllocationResult result = db.executeInTransaction("reassign", instanceId, fromEmploymentId, () -> {
+            Long activityId = activityName == null ? null : db.getTeachingActivityIdByName(activityName);
 
-            // Rule satisfied -> perform the actual allocation
-            db.upsertPlannedActivity(instanceId, activityId, allocatedHours);
-            db.upsertAllocation(instanceId, activityId, employmentId, allocatedHours);
+            db.lockEmployees(fromEmploymentId, toEmploymentId);
+
+            int instancesAfterMove = db.maxInstancesPerPeriodAfterMove(
+                    fromEmploymentId, toEmploymentId, studyYear, studyPeriod, instanceId, activityId);
+            if (instancesAfterMove > 4) {
+                overloadMessage[0] =
+                        "Teacher " + toEmploymentId + " would have " + instancesAfterMove +
+                        " course instances in one period of year " + studyYear +
+                        " -> nothing was moved.";
+                return null;
+            }
 
-            return null;
+            BulkAllocationResult moved = new BulkAllocationResult(fromEmploymentId, toEmploymentId,
+                    db.moveAllocations(fromEmploymentId, toEmploymentId, studyYear,
+                            studyPeriod, instanceId, activityId));
+            db.audit(new AuditEvent("reassign", instanceId, fromEmploymentId, activityName,
+                    "to=" + toEmploymentId + " year=" + studyYear + " period=" + studyPeriod +
+                    " rows=" + moved.getRows().size() + " hours=" + moved.getTotalHours()));
+            return moved;
         });
 
-        // Outside the transaction, convert the overload condition to a domain exception
-        if (overloaded[0]) {
+        if (overloadMessage[0] != null) {
             throw new TeacherOverloadedException(overloadMessage[0]);
         }
+        return result;
     }
 }
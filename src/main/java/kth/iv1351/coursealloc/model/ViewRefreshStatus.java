@@ -0,0 +1,37 @@
+package kth.iv1351.coursealloc.model;
+
+/**
+ * DTO for the refresh state of one materialized view (see MaterializedViewRefresher):
+ * View, whether changes are waiting for a refresh, how many change events the
+ * refreshes absorbed, the number of refreshes, and the last refresh.
+ */
+
+public class ViewRefreshStatus {
+    private final String view;
+    private final boolean pending;
+    private final long changesCoalesced;
+    private final long refreshes;
+    private final long lastRefreshedAtMillis;   // 0 if never refreshed by this application
+    private final long lastDurationMillis;
+    private final String lastError;             // null if the last refresh succeeded
+
+    public ViewRefreshStatus(String view, boolean pending, long changesCoalesced, long refreshes,
+                             long lastRefreshedAtMillis, long lastDurationMillis, String lastError) {
+        this.view = view;
+        this.pending = pending;
+        this.changesCoalesced = changesCoalesced;
+        this.refreshes = refreshes;
+        this.lastRefreshedAtMillis = lastRefreshedAtMillis;
+        this.lastDurationMillis = lastDurationMillis;
+        this.lastError = lastError;
+    }
+
+    // Getters
+    public String getView()                { return view; }
+    public boolean isPending()             { return pending; }
+    public long getChangesCoalesced()      { return changesCoalesced; }
+    public long getRefreshes()             { return refreshes; }
+    public long getLastRefreshedAtMillis() { return lastRefreshedAtMillis; }
+    public long getLastDurationMillis()    { return lastDurationMillis; }
+    public String getLastError()           { return lastError; }
+}
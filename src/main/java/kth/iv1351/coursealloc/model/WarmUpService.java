@@ -0,0 +1,92 @@
+package kth.iv1351.coursealloc.model;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Year;
+
+import kth.iv1351.coursealloc.integration.DBHandler;
+import kth.iv1351.coursealloc.integration.WarmStateFile;
+
+/**
+ * WarmUpService
+ * Domain-layer service that prepares everything the first use cases need,
+ * so it can run in the background while the user already sees the prompt:
+ *   - Open the database connection and create missing study_year partitions.
+ *   - Load reference data (activity ids, instance periods of this year).
+ *   - Load the reporting snapshot.
+ * With a warm-state file the last two steps are replaced by mapping the file
+ * saved at the previous shutdown, as long as the database change marker it was
+ * saved with is still current; otherwise the database is read as before.
+ * Every step goes through DBHandler.executeInTransaction(...), so it is
+ * serialized with whatever the user runs in the meantime.
+ */
+public class WarmUpService {
+    private final DBHandler db;
+    private final ReportingService reportingService;
+    private final WarmStateFile warmState; // null: no warm-state file
+
+    public WarmUpService(DBHandler db, ReportingService reportingService, WarmStateFile warmState) {
+        this.db = db;
+        this.reportingService = reportingService;
+        this.warmState = warmState;
+    }
+
+    // Use case: warm up the caches. Each step is independent; the first failure stops the rest.
+    public void warmUp() throws SQLException {
+        db.ensureYearPartitions();
+        if (restoreWarmState()) {
+            return;
+        }
+        db.warmReferenceData(Year.now().getValue());
+        reportingService.refreshSnapshot();
+    }
+
+    /**
+     * Use case: fill the caches from the warm-state file if its change marker
+     * equals the database's. Returns false (nothing restored) if there is no usable file.
+     */
+    public boolean restoreWarmState() throws SQLException {
+        if (warmState == null) {
+            return false;
+        }
+        WarmStateFile.WarmState state = warmState.load();
+        if (state == null || state.snapshot == null) {
+            return false;
+        }
+        String marker = db.executeInTransaction("warm_up", null, null, db::readChangeMarker);
+        if (!marker.equals(state.changeMarker)) {
+            return false;
+        }
+        db.restoreReferenceData(state.activityIds, state.instancePeriods);
+        reportingService.adoptSnapshot(state.snapshot, state.changeMarker);
+        return true;
+    }
+
+    /**
+     * Use case: save the warm state for the next start (on shutdown).
+     * A snapshot that changes have made stale, or that was read while a write was
+     * still in progress (no marker), is reloaded first, so the file always describes
+     * the database at its marker. If that still fails, or the database moves on
+     * while saving, the file is removed instead: a restart must not trust it.
+     * Returns false if nothing was saved.
+     */
+    public boolean saveWarmState() throws SQLException, IOException {
+        if (warmState == null) {
+            return false;
+        }
+        AllocationHoursSnapshot snapshot = reportingService.unchangedSnapshot();
+        String marker = reportingService.getSnapshotMarker();
+        if (snapshot == null || marker == null) {
+            snapshot = reportingService.refreshSnapshot();
+            marker = reportingService.getSnapshotMarker();
+        }
+
+        String current = db.executeInTransaction("warm_up", null, null, db::readChangeMarker);
+        if (marker == null || !marker.equals(current) || snapshot != reportingService.unchangedSnapshot()) {
+            warmState.delete();
+            return false;
+        }
+        warmState.save(marker, db.cachedActivityIds(), db.cachedInstancePeriods(), snapshot);
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package kth.iv1351.coursealloc.tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Writes one CSV file per table into a directory, shaped like seeds_csvs/,
+ * so the result can be loaded with sql/seeds.sql (point its \cd there).
+ */
+public class CsvRowSink implements RowSink {
+    private final Map<SeedTable, BufferedWriter> writers = new EnumMap<>(SeedTable.class);
+
+    public CsvRowSink(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (SeedTable table : SeedTable.values()) {
+            BufferedWriter w = Files.newBufferedWriter(directory.resolve(table.getFileName()), StandardCharsets.UTF_8);
+            w.write(table.getColumns());
+            w.write('\n');
+            writers.put(table, w);
+        }
+    }
+
+    @Override
+    public void write(SeedTable table, CharSequence csvLines) throws IOException {
+        writers.get(table).append(csvLines);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        for (BufferedWriter w : writers.values()) {
+            w.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedWriter w : writers.values()) {
+            w.close();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package kth.iv1351.coursealloc.tools;
+
+import java.nio.file.Path;
+import java.time.Year;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deterministic synthetic data generator.
+ * Produces referentially consistent departments, persons, employees, salaries
+ * (with history), skills, course layouts (versioned), course instances over
+ * many years and periods, planned activities and allocations that obey the
+ * max-4-instances-per-period rule.
+ *
+ * Sizes grow linearly with the scale factor (1x = 20 employees, 12 courses):
+ *   mvn exec:java -Dexec.mainClass=kth.iv1351.coursealloc.tools.DataGenerator \
+ *       -Dexec.args="--seed 42 --scale 100 --threads 8 --csv target/gen"
+ *   mvn exec:java -Dexec.mainClass=kth.iv1351.coursealloc.tools.DataGenerator \
+ *       -Dexec.args="--seed 42 --scale 10000 --db jdbc:postgresql://localhost:5432/iv1351_big postgres secret"
+ *
+ * Determinism: work is split into independent units (employee chunks, course chunks,
+ * (year, period, course chunk) instance units), each with its own random stream derived
+ * from (seed, unit). Units run in parallel, but their output is written in unit order,
+ * so the same seed and scale give byte-identical output for any thread count.
+ */
+public class DataGenerator {
+
+    private static final String[] ACTIVITIES = { "Lecture", "Lab", "Tutorial", "Seminar", "Others" };
+    private static final double[] FACTORS = { 3.6, 2.4, 2.4, 1.8, 1.0 };
+    private static final int[][] PLANNED_HOURS = { { 10, 50 }, { 10, 60 }, { 10, 80 }, { 5, 20 }, { 2, 20 } };
+    private static final String[] SKILLS = {
+            "Database Design", "Theoritical Math", "Data Analysis",
+            "Programming", "Machine Learning", "Web Development" };
+    private static final String[] JOB_TITLES = { "Professor", "Senior Lecturer", "Lecturer", "Teaching Assistant" };
+    private static final String[] SKILL_LEVELS = { "beginner", "intermediate", "advanced" };
+    private static final String[] PERIODS = { "P1", "P2", "P3", "P4" };
+    private static final String[] FIRST_NAMES = {
+            "Ada", "Nils", "Sara", "Erik", "Elin", "Lars", "Maja", "Oskar", "Ebba", "Hugo",
+            "Alva", "Karl", "Wilma", "Axel", "Freja", "Liam", "Saga", "Emil", "Stina", "Olof" };
+    private static final String[] LAST_NAMES = {
+            "Lovelace", "Holm", "Lind", "Nyberg", "Akesson", "Berg", "Strand", "Lund", "Ek", "Sjoberg",
+            "Dahl", "Forsberg", "Wikstrom", "Hedlund", "Bjork", "Sandberg", "Nilsson", "Falk", "Moberg", "Kvist" };
+    private static final String[] STREETS = {
+            "Sveavagen", "Vasagatan", "Hornsgatan", "Birger Jarlsgatan", "Sodermannagatan", "Drottninggatan" };
+    private static final String[] COURSE_WORDS = {
+            "Data", "Storage", "Discrete", "Calculus", "Machine", "Learning", "Web", "Systems",
+            "Networks", "Algorithms", "Signals", "Physics", "Statistics", "Compilers", "Security" };
+
+    private static final int EMPLOYEE_CHUNK = 10_000;
+    private static final int COURSE_CHUNK = 2_000;
+    private static final int MAX_TEACHERS_PER_INSTANCE = 3;
+    private static final int MAX_INSTANCES_PER_PERIOD = 4; // the max-4 rule
+
+    private final long seed;
+    private final int departments;
+    private final int employees;
+    private final int courses;
+    private final int fromYear;
+    private final int toYear;
+
+    public DataGenerator(long seed, double scale, int fromYear, int toYear) {
+        this.seed = seed;
+        this.departments = Math.max(2, (int) Math.round(2 * Math.sqrt(scale)));
+        this.employees = Math.max(5, (int) Math.round(20 * scale));
+        this.courses = Math.max(4, (int) Math.round(12 * scale));
+        this.fromYear = fromYear;
+        this.toYear = toYear;
+
+        // Every teacher slot of a (year, period) must fit under the max-4 rule (see teacherFor)
+        int instancesPerPeriod = (courses + PERIODS.length - 1) / PERIODS.length;
+        if ((long) instancesPerPeriod * MAX_TEACHERS_PER_INSTANCE > (long) employees * MAX_INSTANCES_PER_PERIOD) {
+            throw new IllegalArgumentException("Not enough teachers for the max-4 rule at this scale.");
+        }
+    }
+
+    // ============================================================================
+    //  COMMAND LINE
+    // ============================================================================
+
+    public static void main(String[] args) throws Exception {
+        long seed = 42;
+        double scale = 1.0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int toYear = Year.now().getValue();
+        int fromYear = toYear - 5;
+        Path csvDir = null;
+        String[] db = null;
+        boolean skipTriggers = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seed":     seed = Long.parseLong(args[++i]); break;
+                case "--scale":    scale = Double.parseDouble(args[++i]); break;
+                case "--threads":  threads = Integer.parseInt(args[++i]); break;
+                case "--from-year": fromYear = Integer.parseInt(args[++i]); break;
+                case "--to-year":  toYear = Integer.parseInt(args[++i]); break;
+                case "--csv":      csvDir = Path.of(args[++i]); break;
+                case "--db":       db = new String[] { args[++i], args[++i], args[++i] }; break;
+                case "--skip-triggers": skipTriggers = true; break;
+                default:
+                    printUsage();
+                    return;
+            }
+        }
+        if ((csvDir == null) == (db == null) || fromYear > toYear) {
+            printUsage();
+            return;
+        }
+
+        DataGenerator generator = new DataGenerator(seed, scale, fromYear, toYear);
+        List<Integer> years = new ArrayList<>();
+        for (int y = fromYear; y <= toYear; y++) {
+            years.add(y);
+        }
+
+        long start = System.nanoTime();
+        try (RowSink sink = csvDir != null
+                ? new CsvRowSink(csvDir)
+                : new StageCopyRowSink(db[0], db[1], db[2], years, skipTriggers)) {
+            generator.generate(sink, threads);
+            System.out.println("Loading/flushing output...");
+            sink.finish();
+        }
+        System.out.printf("Done: seed %d, scale %s, %d employees, %d courses, years %d-%d in %,d ms%n",
+                seed, scale, generator.employees, generator.courses, fromYear, toYear,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: DataGenerator [--seed N] [--scale F] [--threads T]");
+        System.out.println("                     [--from-year Y] [--to-year Y]");
+        System.out.println("                     (--csv <dir> | --db <url> <user> <password> [--skip-triggers])");
+    }
+
+    // ============================================================================
+    //  UNIT SCHEDULING (parallel generation, ordered output)
+    // ============================================================================
+
+    /** Rows of one unit, per table, as CSV text. */
+    private static class Batch {
+        final Map<SeedTable, StringBuilder> rows = new EnumMap<>(SeedTable.class);
+
+        StringBuilder to(SeedTable table) {
+            return rows.computeIfAbsent(table, t -> new StringBuilder());
+        }
+    }
+
+    public void generate(RowSink sink, int threads) throws Exception {
+        List<Callable<Batch>> units = new ArrayList<>();
+        units.add(this::referenceData);
+        for (int from = 0; from < employees; from += EMPLOYEE_CHUNK) {
+            int f = from;
+            units.add(() -> employeeChunk(f, Math.min(f + EMPLOYEE_CHUNK, employees)));
+        }
+        for (int from = 0; from < courses; from += COURSE_CHUNK) {
+            int f = from;
+            units.add(() -> layoutChunk(f, Math.min(f + COURSE_CHUNK, courses)));
+        }
+        for (int year = fromYear; year <= toYear; year++) {
+            for (int period = 0; period < PERIODS.length; period++) {
+                int instances = instancesInPeriod(period);
+                for (int from = 0; from < instances; from += COURSE_CHUNK) {
+                    int y = year, p = period, f = from;
+                    units.add(() -> instanceUnit(y, p, f, Math.min(f + COURSE_CHUNK, instances)));
+                }
+            }
+        }
+
+        // Bounded window of in-flight units keeps memory flat at large scales
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            Deque<Future<Batch>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            int done = 0;
+            while (done < units.size()) {
+                while (next < units.size() && inFlight.size() < threads * 2) {
+                    inFlight.add(pool.submit(units.get(next++)));
+                }
+                Batch batch = inFlight.poll().get();
+                for (SeedTable table : SeedTable.values()) {
+                    StringBuilder rows = batch.rows.get(table);
+                    if (rows != null) {
+                        sink.write(table, rows);
+                    }
+                }
+                done++;
+                if (done % 50 == 0 || done == units.size()) {
+                    System.out.printf("  generated %d/%d units%n", done, units.size());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // ============================================================================
+    //  UNITS
+    // ============================================================================
+
+    private Batch referenceData() {
+        Batch b = new Batch();
+        for (int d = 0; d < departments; d++) {
+            // The first employee of each department manages it
+            String manager = d < employees ? employmentId(d) : "";
+            b.to(SeedTable.DEPARTMENT).append(departmentName(d)).append(',').append(manager).append('\n');
+        }
+        for (int a = 0; a < ACTIVITIES.length; a++) {
+            b.to(SeedTable.TEACHING_ACTIVITY).append(ACTIVITIES[a]).append(',').append(FACTORS[a]).append('\n');
+        }
+        for (String skill : SKILLS) {
+            b.to(SeedTable.SKILL).append(skill).append('\n');
+        }
+        return b;
+    }
+
+    private Batch employeeChunk(int from, int to) {
+        Batch b = new Batch();
+        SplittableRandom rnd = random(1, from, 0, 0);
+        for (int e = from; e < to; e++) {
+            String id = employmentId(e);
+            long personalNumber = 190_000_000_000L + e;
+            String title = JOB_TITLES[rnd.nextInt(JOB_TITLES.length)];
+
+            b.to(SeedTable.PERSON)
+                    .append(personalNumber).append(',')
+                    .append(FIRST_NAMES[rnd.nextInt(FIRST_NAMES.length)]).append(',')
+                    .append(LAST_NAMES[rnd.nextInt(LAST_NAMES.length)]).append(",\"")
+                    .append(STREETS[rnd.nextInt(STREETS.length)]).append(' ').append(1 + rnd.nextInt(120))
+                    .append(", 1").append(10 + rnd.nextInt(90)).append(' ').append(10 + rnd.nextInt(90))
+                    .append(" Stockholm\"\n");
+
+            b.to(SeedTable.EMPLOYEE)
+                    .append(id).append(',').append(personalNumber).append(',')
+                    .append(departmentName(e % departments)).append(',')
+                    .append(title).append(',')
+                    .append(SKILL_LEVELS[rnd.nextInt(SKILL_LEVELS.length)]).append('\n');
+
+            b.to(SeedTable.JOB_TITLE).append(id).append(',').append(title).append('\n');
+
+            // Salary history: 1-3 versions, yearly raises, the last one current
+            int versions = 1 + rnd.nextInt(3);
+            int salary = 20_000 + 1_000 * rnd.nextInt(50);
+            for (int v = 0; v < versions; v++) {
+                int year = fromYear - versions + 1 + v;
+                b.to(SeedTable.SALARY)
+                        .append(id).append(',').append(salary).append(',')
+                        .append(year).append("-01-01 00:00:00,")
+                        .append(v == versions - 1).append('\n');
+                salary += 500 + 500 * rnd.nextInt(6);
+            }
+
+            // 1-3 distinct skills (ids are the 1-based positions in SKILLS)
+            int first = rnd.nextInt(SKILLS.length);
+            int count = 1 + rnd.nextInt(3);
+            for (int k = 0; k < count; k++) {
+                b.to(SeedTable.EMPLOYEE_SKILLS)
+                        .append(id).append(',').append(1 + (first + k) % SKILLS.length).append('\n');
+            }
+        }
+        return b;
+    }
+
+    private Batch layoutChunk(int from, int to) {
+        Batch b = new Batch();
+        for (int c = from; c < to; c++) {
+            SplittableRandom rnd = random(2, c, 0, 0);
+            String name = COURSE_WORDS[rnd.nextInt(COURSE_WORDS.length)] + " "
+                    + COURSE_WORDS[rnd.nextInt(COURSE_WORDS.length)] + " " + (c + 1);
+            int min = 20 + rnd.nextInt(40);
+            int max = min + 50 + rnd.nextInt(200);
+            int[] versionYears = layoutVersionYears(c);
+            for (int v = 0; v < versionYears.length; v++) {
+                double hp = (v == 0) ? 7.5 : 15.0;
+                b.to(SeedTable.COURSE_LAYOUT)
+                        .append(courseCode(c)).append(',').append(name).append(',')
+                        .append(min).append(',').append(max).append(',').append(hp).append(',')
+                        .append(layoutCreatedAt(versionYears[v])).append('\n');
+            }
+        }
+        return b;
+    }
+
+    /**
+     * One (year, period) and a range of the instances running in it.
+     * Instance j of a period is the course j * 4 + period.
+     */
+    private Batch instanceUnit(int year, int period, int from, int to) {
+        Batch b = new Batch();
+        SplittableRandom rnd = random(3, year, period, from);
+        for (int j = from; j < to; j++) {
+            int c = j * PERIODS.length + period;
+            String instanceId = String.format("%d-%07d", year, c);
+            int students = 20 + rnd.nextInt(230);
+
+            b.to(SeedTable.COURSE_INSTANCE)
+                    .append(instanceId).append(',').append(year).append(',').append(PERIODS[period]).append(',')
+                    .append(students).append(',').append(courseCode(c)).append(',')
+                    .append(layoutCreatedAt(layoutYearFor(c, year))).append(",\n");
+
+            int teachers = 1 + rnd.nextInt(MAX_TEACHERS_PER_INSTANCE);
+            for (int a = 0; a < ACTIVITIES.length; a++) {
+                if (a > 0 && rnd.nextInt(4) == 0) {
+                    continue; // Lecture always, other activities usually
+                }
+                int[] range = PLANNED_HOURS[a];
+                int hours = range[0] + rnd.nextInt(range[1] - range[0] + 1);
+                b.to(SeedTable.PLANNED_ACTIVITY)
+                        .append(instanceId).append(',').append(ACTIVITIES[a]).append(',').append(hours).append('\n');
+
+                int slot = rnd.nextInt(teachers);
+                b.to(SeedTable.ALLOCATIONS)
+                        .append(instanceId).append(',').append(ACTIVITIES[a]).append(',')
+                        .append(employmentId(teacherFor(year, period, j, slot))).append(',')
+                        .append(hours).append('\n');
+            }
+        }
+        return b;
+    }
+
+    // ============================================================================
+    //  DETERMINISTIC HELPERS
+    // ============================================================================
+
+    private int instancesInPeriod(int period) {
+        return (courses - period + PERIODS.length - 1) / PERIODS.length;
+    }
+
+    /**
+     * Teacher of slot s (0..2) of instance j in a (year, period).
+     * Global slot numbers j * 3 + s are packed four per teacher and rotated per
+     * (year, period); since the number of slots never exceeds 4 * employees
+     * (checked in the constructor), no teacher gets more than 4 instances.
+     */
+    private int teacherFor(int year, int period, int j, int slot) {
+        long globalSlot = (long) j * MAX_TEACHERS_PER_INSTANCE + slot;
+        long offset = Math.floorMod(mix(seed, 4, year, period), (long) employees);
+        return (int) ((globalSlot / MAX_INSTANCES_PER_PERIOD + offset) % employees);
+    }
+
+    // Years in which course c got a new layout version (1 or 2 versions).
+    private int[] layoutVersionYears(int c) {
+        SplittableRandom rnd = random(5, c, 0, 0);
+        if (rnd.nextInt(10) < 3 && toYear > fromYear) {
+            return new int[] { fromYear - 1, fromYear + 1 + rnd.nextInt(toYear - fromYear) };
+        }
+        return new int[] { fromYear - 1 };
+    }
+
+    // The layout version an instance in the given year binds to (latest created before that year).
+    private int layoutYearFor(int c, int year) {
+        int[] versions = layoutVersionYears(c);
+        int chosen = versions[0];
+        for (int v : versions) {
+            if (v < year) {
+                chosen = v;
+            }
+        }
+        return chosen;
+    }
+
+    private static String layoutCreatedAt(int year) {
+        return year + "-01-15T09:00:00+01:00";
+    }
+
+    private static String employmentId(int e) {
+        return String.format("S%07d", e);
+    }
+
+    private static String departmentName(int d) {
+        return "Department " + (d + 1);
+    }
+
+    // Course codes fit VARCHAR(6): two letters + four digits (AA0000 .. ZZ9999).
+    private static String courseCode(int c) {
+        int block = c / 10_000;
+        return "" + (char) ('A' + block / 26 % 26) + (char) ('A' + block % 26) + String.format("%04d", c % 10_000);
+    }
+
+    private SplittableRandom random(long kind, long a, long b, long c) {
+        return new SplittableRandom(mix(seed, kind, a, b) * 31 + c);
+    }
+
+    // splitmix64-style mixing, so neighbouring unit keys give unrelated streams
+    private static long mix(long seed, long kind, long a, long b) {
+        long z = seed;
+        for (long v : new long[] { kind, a, b }) {
+            z += 0x9E3779B97F4A7C15L + v;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+        }
+        return z;
+    }
+}
@@ -0,0 +1,20 @@
+package kth.iv1351.coursealloc.tools;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Destination for generated rows. Rows arrive as ready-made CSV lines
+ * (without line terminator), grouped per table, in a deterministic order.
+ */
+public interface RowSink extends AutoCloseable {
+
+    /** Appends a block of CSV lines (each ending with '\n') to the given table. */
+    void write(SeedTable table, CharSequence csvLines) throws IOException, SQLException;
+
+    /** Completes the output (flush files / run the load transaction). */
+    void finish() throws IOException, SQLException;
+
+    @Override
+    void close() throws IOException, SQLException;
+}
@@ -0,0 +1,35 @@
+package kth.iv1351.coursealloc.tools;
+
+/**
+ * The CSV shapes of seeds_csvs/ (file name, header) and the matching
+ * staging table of sql/seeds.sql. Generated rows always use these shapes,
+ * so the same output can be loaded by seeds.sql or streamed into the database.
+ */
+public enum SeedTable {
+    DEPARTMENT("department.csv", "stage.department", "department_name,manager_employment_id"),
+    JOB_TITLE("job_titles.csv", "stage.job_title", "employment_id,job_title"),
+    TEACHING_ACTIVITY("teaching_activity.csv", "stage.teaching_activity", "activity_name,factor"),
+    SKILL("skills.csv", "stage.skill", "name"),
+    PERSON("person.csv", "stage.person", "personal_number,first_name,last_name,address"),
+    EMPLOYEE("employee.csv", "stage.employee", "employment_id,personal_number,department_name,job_title,skill_level"),
+    SALARY("salary.csv", "stage.salary", "employment_id,salary,created_at,is_current"),
+    EMPLOYEE_SKILLS("employee_skills.csv", "stage.employee_skills", "employment_id,skill_id"),
+    COURSE_LAYOUT("course_layout.csv", "stage.course_layout", "course_code,course_name,min_students,max_students,hp,created_at"),
+    COURSE_INSTANCE("course_instance.csv", "stage.course_instance", "instance_id,study_year,study_period,num_students,course_code,layout_created_at,use_current"),
+    PLANNED_ACTIVITY("planned_activity.csv", "stage.planned_activity", "instance_id,activity_name,planned_hours"),
+    ALLOCATIONS("allocations.csv", "stage.allocations", "instance_id,activity_name,employment_id,allocated_hours");
+
+    private final String fileName;
+    private final String stageTable;
+    private final String columns;
+
+    SeedTable(String fileName, String stageTable, String columns) {
+        this.fileName = fileName;
+        this.stageTable = stageTable;
+        this.columns = columns;
+    }
+
+    public String getFileName()   { return fileName; }
+    public String getStageTable() { return stageTable; }
+    public String getColumns()    { return columns; }
+}
@@ -0,0 +1,203 @@
+package kth.iv1351.coursealloc.tools;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.*;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Streams generated rows straight into the database:
+ *   1. COPY every block into (unlogged) staging tables shaped like seeds_csvs/.
+ *   2. finish(): one transaction resolves natural keys to ids and inserts into
+ *      the real tables parent -> child, the same way sql/seeds.sql does.
+ *
+ * The target database must contain the schema (schema.sql, functions.sql,
+ * triggers.sql, optionally partitioning.sql) but no data yet.
+ * With skipTriggers the load transaction runs with session_replication_role = replica
+ * (superuser only): no per-row trigger or FK checks, the generator already
+ * guarantees the max-4 rule and referential consistency.
+ */
+public class StageCopyRowSink implements RowSink {
+
+    private static final String[] STAGE_DDL = {
+            "CREATE SCHEMA IF NOT EXISTS stage",
+            "DROP TABLE IF EXISTS stage.department, stage.job_title, stage.teaching_activity, stage.skill, " +
+            "  stage.person, stage.employee, stage.salary, stage.employee_skills, stage.course_layout, " +
+            "  stage.course_instance, stage.planned_activity, stage.allocations CASCADE",
+            "CREATE UNLOGGED TABLE stage.department (department_name VARCHAR(500), manager_employment_id VARCHAR(500))",
+            "CREATE UNLOGGED TABLE stage.job_title (employment_id VARCHAR(500), job_title VARCHAR(500))",
+            "CREATE UNLOGGED TABLE stage.teaching_activity (activity_name VARCHAR(500), factor DOUBLE PRECISION)",
+            "CREATE UNLOGGED TABLE stage.skill (name VARCHAR(200))",
+            "CREATE UNLOGGED TABLE stage.person (personal_number BIGINT, first_name VARCHAR(500), " +
+            "  last_name VARCHAR(500), address VARCHAR(500))",
+            "CREATE UNLOGGED TABLE stage.employee (employment_id VARCHAR(500), personal_number BIGINT, " +
+            "  department_name VARCHAR(500), job_title VARCHAR(500), skill_level skill_level_t)",
+            "CREATE UNLOGGED TABLE stage.salary (employment_id VARCHAR(500), salary NUMERIC(10,2), " +
+            "  created_at TIMESTAMP, is_current BOOLEAN)",
+            "CREATE UNLOGGED TABLE stage.employee_skills (employment_id VARCHAR(500), skill_id INT)",
+            "CREATE UNLOGGED TABLE stage.course_layout (course_code VARCHAR(6), course_name VARCHAR(500), " +
+            "  min_students INT, max_students INT, hp DOUBLE PRECISION, created_at TIMESTAMPTZ)",
+            "CREATE UNLOGGED TABLE stage.course_instance (instance_id VARCHAR(100), study_year INT, " +
+            "  study_period study_period_t, num_students INT, course_code VARCHAR(6), " +
+            "  layout_created_at TIMESTAMPTZ, use_current BOOLEAN)",
+            "CREATE UNLOGGED TABLE stage.planned_activity (instance_id VARCHAR(100), activity_name VARCHAR(500), " +
+            "  planned_hours DOUBLE PRECISION)",
+            "CREATE UNLOGGED TABLE stage.allocations (instance_id VARCHAR(100), activity_name VARCHAR(500), " +
+            "  employment_id VARCHAR(500), allocated_hours DOUBLE PRECISION)"
+    };
+
+    // Same transformations as section 4 of sql/seeds.sql (parents -> children)
+    private static final String[] LOAD_SQL = {
+            "INSERT INTO person (personal_number, first_name, last_name, address) " +
+            "SELECT personal_number, first_name, last_name, address FROM stage.person",
+
+            "INSERT INTO department (department_name) SELECT department_name FROM stage.department",
+
+            "INSERT INTO job_title (job_title) SELECT DISTINCT job_title FROM stage.job_title",
+
+            "INSERT INTO teaching_activity (activity_name, factor) " +
+            "SELECT activity_name, factor FROM stage.teaching_activity " +
+            "ON CONFLICT (activity_name) DO NOTHING",
+
+            // Same minimum skill levels as sql/seeds.sql
+            "UPDATE teaching_activity SET min_skill_level = CASE activity_name " +
+            "  WHEN 'Lecture' THEN 'advanced'::skill_level_t WHEN 'Seminar' THEN 'intermediate'::skill_level_t " +
+            "  WHEN 'Lab' THEN 'beginner'::skill_level_t WHEN 'Tutorial' THEN 'beginner'::skill_level_t END",
+
+            // Chronological per course, so set_current_layout leaves the newest version current
+            "INSERT INTO course_layout (course_code, course_name, min_students, max_students, hp, created_at) " +
+            "SELECT course_code, course_name, min_students, max_students, hp, created_at " +
+            "FROM stage.course_layout ORDER BY course_code, created_at",
+
+            // Also correct when triggers are skipped
+            "UPDATE course_layout cl SET is_current = (cl.created_at = m.latest) " +
+            "FROM (SELECT course_code, MAX(created_at) AS latest FROM course_layout GROUP BY course_code) m " +
+            "WHERE m.course_code = cl.course_code",
+
+            "INSERT INTO course_instance (instance_id, num_students, study_period, study_year, course_layout_id) " +
+            "SELECT si.instance_id, si.num_students, si.study_period, si.study_year, cl.id " +
+            "FROM stage.course_instance si " +
+            "JOIN course_layout cl ON cl.course_code = si.course_code AND cl.created_at = si.layout_created_at",
+
+            "INSERT INTO planned_activity (instance_id, teaching_activity_id, planned_hours, study_year) " +
+            "SELECT pa.instance_id, ta.id, pa.planned_hours, ci.study_year " +
+            "FROM stage.planned_activity pa " +
+            "JOIN teaching_activity ta ON ta.activity_name = pa.activity_name " +
+            "JOIN course_instance   ci ON ci.instance_id   = pa.instance_id",
+
+            "INSERT INTO employee (employment_id, person_id, skill_level, department_id, job_title_id) " +
+            "SELECT se.employment_id, p.id, se.skill_level, d.id, jt.id " +
+            "FROM stage.employee se " +
+            "JOIN person p     ON p.personal_number = se.personal_number " +
+            "JOIN department d ON d.department_name = se.department_name " +
+            "JOIN job_title jt ON jt.job_title      = se.job_title",
+
+            "UPDATE department d SET manager_employment_id = sd.manager_employment_id " +
+            "FROM stage.department sd WHERE d.department_name = sd.department_name",
+
+            // History first, current last, so the salary trigger sees them in order
+            "INSERT INTO salary (employment_id, salary, created_at, is_current) " +
+            "SELECT employment_id, salary, created_at, is_current FROM stage.salary " +
+            "ORDER BY employment_id, created_at, is_current",
+
+            "UPDATE salary s SET valid_to = v.next_created_at " +
+            "FROM (SELECT id, LEAD(created_at) OVER (PARTITION BY employment_id " +
+            "                                        ORDER BY created_at, is_current, id) AS next_created_at " +
+            "      FROM salary) v " +
+            "WHERE v.id = s.id AND NOT s.is_current AND v.next_created_at IS NOT NULL",
+
+            "INSERT INTO allocations (instance_id, teaching_activity_id, employment_id, allocated_hours, study_year) " +
+            "SELECT al.instance_id, ta.id, al.employment_id, al.allocated_hours, pa.study_year " +
+            "FROM stage.allocations al " +
+            "JOIN teaching_activity ta ON ta.activity_name = al.activity_name " +
+            "JOIN planned_activity  pa ON pa.instance_id = al.instance_id AND pa.teaching_activity_id = ta.id",
+
+            // Heap order of a freshly loaded table = generator order, so skill ids match employee_skills
+            "INSERT INTO skill (name) SELECT name FROM stage.skill",
+
+            "INSERT INTO employee_skills (employment_id, skill_id) " +
+            "SELECT ses.employment_id, ses.skill_id FROM stage.employee_skills ses " +
+            "JOIN skill s ON s.id = ses.skill_id " +
+            "ON CONFLICT (employment_id, skill_id) DO NOTHING"
+    };
+
+    private final Connection connection;
+    private final CopyManager copyManager;
+    private final List<Integer> studyYears;
+    private final boolean skipTriggers;
+
+    public StageCopyRowSink(String url, String user, String password,
+                            List<Integer> studyYears, boolean skipTriggers) throws SQLException {
+        this.connection = DriverManager.getConnection(url, user, password);
+        this.connection.setAutoCommit(false);
+        this.copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        this.studyYears = studyYears;
+        this.skipTriggers = skipTriggers;
+
+        requireEmptyDatabase();
+        try (Statement st = connection.createStatement()) {
+            for (String ddl : STAGE_DDL) {
+                st.execute(ddl);
+            }
+        }
+        connection.commit();
+    }
+
+    // Generated ids (skills, layouts) only line up on an empty database
+    private void requireEmptyDatabase() throws SQLException {
+        String sql = "SELECT (SELECT COUNT(*) FROM person) + (SELECT COUNT(*) FROM skill) " +
+                     "     + (SELECT COUNT(*) FROM course_layout) AS cnt";
+        try (PreparedStatement ps = connection.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            if (rs.getLong("cnt") > 0) {
+                throw new SQLException("Target database already contains data; "
+                        + "load generated data into a freshly created schema.");
+            }
+        }
+    }
+
+    @Override
+    public void write(SeedTable table, CharSequence csvLines) throws IOException, SQLException {
+        if (csvLines.length() == 0) {
+            return;
+        }
+        String copySql = "COPY " + table.getStageTable() + " (" + table.getColumns() + ") FROM STDIN (FORMAT csv)";
+        copyManager.copyIn(copySql, new StringReader(csvLines.toString()));
+    }
+
+    @Override
+    public void finish() throws SQLException {
+        connection.commit(); // staging data is complete
+
+        try (Statement st = connection.createStatement()) {
+            if (skipTriggers) {
+                st.execute("SET LOCAL session_replication_role = replica");
+            }
+            try (PreparedStatement ps = connection.prepareStatement("SELECT create_study_year_partitions(?)")) {
+                for (int year : studyYears) {
+                    ps.setInt(1, year);
+                    ps.execute();
+                }
+            }
+            for (String sql : LOAD_SQL) {
+                long start = System.nanoTime();
+                int rows = st.executeUpdate(sql);
+                System.out.printf("  %-60.60s %,10d rows %,8d ms%n",
+                        sql, rows, (System.nanoTime() - start) / 1_000_000);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+}
@@ -0,0 +1,259 @@
+package kth.iv1351.coursealloc.tools;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import kth.iv1351.coursealloc.controller.Controller;
+import kth.iv1351.coursealloc.integration.ShardRouter;
+import kth.iv1351.coursealloc.integration.WorkloadTrace;
+import kth.iv1351.coursealloc.integration.WorkloadTrace.Call;
+
+/**
+ * Replays a recorded workload (Controller.startRecording, CLI "record") against a
+ * database and compares the latency distributions of two runs:
+ *   mvn exec:java -Dexec.mainClass=kth.iv1351.coursealloc.tools.WorkloadReplay \
+ *       -Dexec.args="replay target/monday.trace --speed 4 --db jdbc:postgresql://localhost:5432/iv1351_copy postgres secret"
+ *   mvn exec:java -Dexec.mainClass=kth.iv1351.coursealloc.tools.WorkloadReplay \
+ *       -Dexec.args="compare target/monday.trace target/monday.trace.replay"
+ *
+ * Every recorded session (calling thread) is replayed by its own thread, so calls
+ * that overlapped in the recording overlap again. Timing:
+ *   --speed 1 (default)  every call starts at its original offset,
+ *   --speed N            N times faster,
+ *   --max                each session runs its calls back to back.
+ * The replay is itself recorded (--record, default <trace>.replay) and then compared
+ * with the trace it replayed: per use case calls, p50 / p95 / p99 / max latency and failures.
+ * With shards.properties present the calls are routed to its shards instead of --db.
+ *
+ * Allocations, deallocations and student counts are executed for real, so replay
+ * against a copy of the database taken when the recording started.
+ */
+public class WorkloadReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("compare")) {
+            compare(WorkloadTrace.read(Path.of(args[1])), WorkloadTrace.read(Path.of(args[2])),
+                    args[1], args[2]);
+            return;
+        }
+        if (args.length < 2 || !args[0].equals("replay")) {
+            printUsage();
+            return;
+        }
+
+        Path trace = Path.of(args[1]);
+        Path out = Path.of(args[1] + ".replay");
+        double speed = 1.0;
+        boolean max = false;
+        String[] db = null;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speed":  speed = Double.parseDouble(args[++i]); break;
+                case "--max":    max = true; break;
+                case "--record": out = Path.of(args[++i]); break;
+                case "--db":     db = new String[] { args[++i], args[++i], args[++i] }; break;
+                default:
+                    printUsage();
+                    return;
+            }
+        }
+        if (db == null || !(speed > 0)) {
+            printUsage();
+            return;
+        }
+
+        List<Call> calls = WorkloadTrace.read(trace);
+        System.out.printf("Replaying %,d calls from %s (%s)%n",
+                calls.size(), trace, max ? "as fast as possible" : "speed x" + speed);
+
+        ShardRouter router = ShardRouter.fromConfig(db[0], db[1], db[2], false);
+        router.start();
+        long start = System.nanoTime();
+        long skipped;
+        try {
+            Controller contr = new Controller(router);
+            contr.startRecording(out);
+            skipped = replay(contr, calls, speed, max);
+            contr.stopRecording();
+        } finally {
+            router.stop();
+        }
+        System.out.printf("Done in %,d ms%s, replay recorded to %s%n",
+                (System.nanoTime() - start) / 1_000_000,
+                skipped > 0 ? " (" + skipped + " calls of unknown use cases skipped)" : "", out);
+
+        compare(calls, WorkloadTrace.read(out), trace.toString(), out.toString());
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: WorkloadReplay replay <trace> [--speed N | --max] [--record <out_trace>]");
+        System.out.println("                      --db <url> <user> <password>");
+        System.out.println("       WorkloadReplay compare <baseline_trace> <trace>");
+    }
+
+    // ============================================================================
+    //  REPLAY
+    // ============================================================================
+
+    // One thread per recorded session; returns the number of calls that could not be replayed.
+    private static long replay(Controller contr, List<Call> calls, double speed, boolean max) throws Exception {
+        Map<Integer, List<Call>> sessions = new LinkedHashMap<>();
+        for (Call call : calls) {
+            sessions.computeIfAbsent(call.session, k -> new ArrayList<>()).add(call);
+        }
+
+        AtomicLong skipped = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, sessions.size()), r -> {
+            Thread t = new Thread(r, "replay-session");
+            t.setDaemon(true);
+            return t;
+        });
+        long replayStart = System.nanoTime();
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (List<Call> session : sessions.values()) {
+                running.add(pool.submit(() -> {
+                    for (Call call : session) {
+                        if (!max) {
+                            sleepUntil(replayStart + (long) (call.offsetMicros * 1_000 / speed));
+                        }
+                        try {
+                            if (!invoke(contr, call)) {
+                                skipped.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            // the outcome is in the replay trace, like in the recording
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : running) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return skipped.get();
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long wait;
+        while ((wait = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    // Same op names and argument order as Controller records them; false for unknown ops.
+    private static boolean invoke(Controller contr, Call call) throws Exception {
+        String[] a = call.args;
+        switch (call.op) {
+            case "cost":          contr.computeCourseCost(a[0]); return true;
+            case "cost_as_of":    contr.computeCourseCostAsOf(a[0], LocalDateTime.parse(a[1])); return true;
+            case "inc_students":  contr.increaseStudents(a[0], Integer.parseInt(a[1])); return true;
+            case "add_exercise":  contr.addExercise(a[0], a[1], Double.parseDouble(a[2])); return true;
+            case "alloc":         contr.allocateTeaching(a[0], a[1], a[2], Double.parseDouble(a[3])); return true;
+            case "dealloc":       contr.deallocateTeaching(a[0], a[1], a[2]); return true;
+            case "reassign":      contr.reassignTeacher(a[0], a[1], Integer.parseInt(a[2]), a[3], a[4], a[5]); return true;
+            case "dealloc_all":   contr.deallocateAll(a[0], Integer.parseInt(a[1]), a[2], a[3], a[4]); return true;
+            case "candidates":    contr.candidates(a[0], a[1], Integer.parseInt(a[2])); return true;
+            case "snap_cost":     contr.computeCourseCostFromSnapshot(a[0]); return true;
+            case "teacher_hours": contr.teacherHours(a[0], Integer.parseInt(a[1])); return true;
+            case "period_load":   contr.periodLoad(Integer.parseInt(a[0]), a[1]); return true;
+            default:              return false;
+        }
+    }
+
+    // ============================================================================
+    //  LATENCY COMPARISON
+    // ============================================================================
+
+    /** Latency distribution of one use case in one run. */
+    private static class Distribution {
+        private long[] micros = new long[16];
+        private int count;
+        private int failed;
+
+        void add(Call call) {
+            if (count == micros.length) {
+                micros = Arrays.copyOf(micros, count * 2);
+            }
+            micros[count++] = call.latencyMicros;
+            if (call.outcome != WorkloadTrace.OK) {
+                failed++;
+            }
+        }
+
+        void sort() {
+            Arrays.sort(micros, 0, count);
+        }
+
+        // Nearest-rank percentile in ms; call sort() first
+        double percentileMillis(double p) {
+            if (count == 0) {
+                return 0.0;
+            }
+            int rank = (int) Math.ceil(p * count);
+            return micros[Math.max(0, rank - 1)] / 1000.0;
+        }
+    }
+
+    private static Map<String, Distribution> distributions(List<Call> calls) {
+        Map<String, Distribution> byOp = new TreeMap<>();
+        Distribution all = new Distribution();
+        for (Call call : calls) {
+            byOp.computeIfAbsent(call.op, k -> new Distribution()).add(call);
+            all.add(call);
+        }
+        byOp.put("(all)", all);
+        byOp.values().forEach(Distribution::sort);
+        return byOp;
+    }
+
+    private static void compare(List<Call> baseline, List<Call> run, String baselineName, String runName) {
+        Map<String, Distribution> a = distributions(baseline);
+        Map<String, Distribution> b = distributions(run);
+        TreeMap<String, Boolean> ops = new TreeMap<>();
+        a.keySet().forEach(op -> ops.put(op, true));
+        b.keySet().forEach(op -> ops.put(op, true));
+
+        System.out.println("A = " + baselineName);
+        System.out.println("B = " + runName);
+        System.out.println("------------------------------------------------------------------------------------------------------");
+        System.out.printf("| %-14s | %-3s | %-8s | %-9s | %-9s | %-9s | %-9s | %-6s | %-7s |%n",
+                "Use case", "Run", "Calls", "p50 ms", "p95 ms", "p99 ms", "Max ms", "Failed", "p95 B/A");
+        System.out.println("------------------------------------------------------------------------------------------------------");
+        for (String op : ops.keySet()) {
+            Distribution da = a.get(op);
+            Distribution db = b.get(op);
+            printRow(op, "A", da, "");
+            String ratio = da != null && db != null && da.percentileMillis(0.95) > 0
+                    ? String.format("x%.2f", db.percentileMillis(0.95) / da.percentileMillis(0.95)) : "";
+            printRow("", "B", db, ratio);
+        }
+        System.out.println("------------------------------------------------------------------------------------------------------");
+    }
+
+    private static void printRow(String op, String run, Distribution d, String ratio) {
+        if (d == null) {
+            System.out.printf("| %-14s | %-3s | %-8s | %-9s | %-9s | %-9s | %-9s | %-6s | %-7s |%n",
+                    op, run, "-", "-", "-", "-", "-", "-", ratio);
+            return;
+        }
+        System.out.printf("| %-14s | %-3s | %-8d | %-9.2f | %-9.2f | %-9.2f | %-9.2f | %-6d | %-7s |%n",
+                op, run, d.count,
+                d.percentileMillis(0.50), d.percentileMillis(0.95),
+                d.percentileMillis(0.99), d.percentileMillis(1.0),
+                d.failed, ratio);
+    }
+}
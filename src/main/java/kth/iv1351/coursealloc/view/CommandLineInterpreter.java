@@ -1,17 +1,49 @@
 package kth.iv1351.coursealloc.view;
 
 import kth.iv1351.coursealloc.controller.Controller;
+import kth.iv1351.coursealloc.model.AllocationHoursSnapshot;
+import kth.iv1351.coursealloc.model.AllocationSummary;
+import kth.iv1351.coursealloc.model.ArchiveResult;
+import kth.iv1351.coursealloc.model.BrowsingService;
+import kth.iv1351.coursealloc.model.BulkAllocationResult;
 import kth.iv1351.coursealloc.model.CourseInstanceCost;
 import kth.iv1351.coursealloc.model.ExerciseAllocationInfo;
+import kth.iv1351.coursealloc.model.InstanceSummary;
+import kth.iv1351.coursealloc.model.LatencyBudget;
+import kth.iv1351.coursealloc.model.LockProfile;
+import kth.iv1351.coursealloc.model.Page;
+import kth.iv1351.coursealloc.model.SalaryRevisionResult;
+import kth.iv1351.coursealloc.model.TeacherCandidate;
 import kth.iv1351.coursealloc.model.TeacherOverloadedException;
+import kth.iv1351.coursealloc.model.TeacherPeriodLoad;
+import kth.iv1351.coursealloc.model.TeacherSummary;
+import kth.iv1351.coursealloc.model.ViewRefreshStatus;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Consumer;
 
 public class CommandLineInterpreter {
+    private static final int PAGE_SIZE = BrowsingService.DEFAULT_PAGE_SIZE;
+
     private final Controller contr;
     private final Scanner in = new Scanner(System.in);
 
+    // Fetches the page after the given item (null = first page).
+    private interface PageFetcher<T> {
+        Page<T> fetch(T after) throws SQLException;
+    }
+
     public CommandLineInterpreter(Controller contr) {
         this.contr = contr;
     }
@@ -57,6 +89,76 @@ public class CommandLineInterpreter {
                         handleDealloc(tokens);
                         break;
 
+                    case "reassign":
+                        handleReassign(tokens);
+                        break;
+                    case "dealloc_all":
+                        handleDeallocAll(tokens);
+                        break;
+
+                    case "snapshot":
+                        handleSnapshot(tokens);
+                        break;
+
+                    case "snap_cost":
+                        handleSnapshotCost(tokens);
+                        break;
+
+                    case "teacher_hours":
+                        handleTeacherHours(tokens);
+                        break;
+
+                    case "period_load":
+                        handlePeriodLoad(tokens);
+                        break;
+
+                    case "watch":
+                        handleWatch(tokens);
+                        break;
+
+                    case "instances":
+                        handleInstances(tokens);
+                        break;
+
+                    case "allocations":
+                        handleAllocations(tokens);
+                        break;
+
+                    case "teachers":
+                        handleTeachers(tokens);
+                        break;
+
+                    case "candidates":
+                        handleCandidates(tokens);
+                        break;
+
+                    case "archive":
+                        handleArchive(tokens);
+                        break;
+
+                    case "raise":
+                        handleRaise(tokens);
+                        break;
+                    case "salary_table":
+                        handleSalaryTable(tokens);
+                        break;
+
+                    case "locks":
+                        handleLocks(tokens);
+                        break;
+
+                    case "views":
+                        handleViews(tokens);
+                        break;
+
+                    case "budgets":
+                        handleBudgets(tokens);
+                        break;
+
+                    case "record":
+                        handleRecord(tokens);
+                        break;
+
                     default:
                         System.out.println("Unknown command. Type 'help'.");
                 }
@@ -71,25 +173,70 @@ public class CommandLineInterpreter {
 
     private void printHelp() {
         System.out.println("Commands:");
-        System.out.println("  cost <instance_id>");
+        System.out.println("  cost <instance_id> [as_of]    (as_of: 2024-06-01 or 2024-06-01T12:00)");
         System.out.println("  inc_students <instance_id> <delta>");
         System.out.println("  add_exercise <instance_id> <employment_id> <planned_hours>");
         System.out.println("  alloc <instance_id> <employment_id> <activity_name> <hours>");
         System.out.println("  dealloc <instance_id> <employment_id> <activity_name>");
+        System.out.println("  reassign <from_employment_id> <to_employment_id> <year> [period] [instance=<id>] [activity=<name>]");
+        System.out.println("  dealloc_all <employment_id> <year> [period] [instance=<id>] [activity=<name>]");
+        System.out.println("  snapshot                      (reload the in-memory report snapshot and skill index)");
+        System.out.println("  snap_cost <instance_id>       (cost from the snapshot)");
+        System.out.println("  teacher_hours <employment_id> [year]");
+        System.out.println("  period_load <year> <period>");
+        System.out.println("  watch                         (show live changes, Enter to stop)");
+        System.out.println("  instances <year> [period]");
+        System.out.println("  allocations teacher <employment_id> | allocations instance <instance_id>");
+        System.out.println("  teachers dept <department_name> | teachers skill <skill_name>");
+        System.out.println("  candidates <instance_id> <activity_name> [limit]  (eligible teachers, least loaded first)");
+        System.out.println("  archive <year>                (move a closed study year to the archive tables)");
+        System.out.println("  raise <percent> [department_name]  (raise all current salaries, e.g. raise 2.5 Mathematics)");
+        System.out.println("  salary_table <job_title>=<salary>[, <job_title>=<salary> ...] [dept=<department_name>]");
+        System.out.println("  locks [on|off|reset]          (lock-wait profiling; no argument: report)");
+        System.out.println("  views [refresh]               (state of the materialized report views)");
+        System.out.println("  budgets [set <use_case> <ms> | reset]  (latency budgets per use case; 0 ms = none)");
+        System.out.println("  record [start <trace_file> | stop]  (record use case calls for WorkloadReplay)");
         System.out.println("  help");
         System.out.println("  quit");
     }
 
 
     private void handleCost(String[] tokens) throws SQLException {
-        if (tokens.length != 2) {
-            System.out.println("Usage: cost <instance_id>");
+        if (tokens.length != 2 && tokens.length != 3) {
+            System.out.println("Usage: cost <instance_id> [as_of]");
             return;
         }
         String instanceId = tokens[1];
+
+        if (tokens.length == 3) {
+            LocalDateTime asOf;
+            try {
+                asOf = parseAsOf(tokens[2]);
+            } catch (DateTimeParseException e) {
+                System.out.println("as_of must be a date or date-time, e.g. 2024-06-01 or 2024-06-01T12:00");
+                return;
+            }
+            printCost(contr.computeCourseCostAsOf(instanceId, asOf));
+            System.out.println("(salaries as of " + asOf + ")");
+            return;
+        }
     
         CourseInstanceCost cost = contr.computeCourseCost(instanceId);
-    
+        printCost(cost);
+        if (cost.isFromCache()) {
+            System.out.println("(latency budget exceeded: cost from the report snapshot, may miss recent changes)");
+        }
+    }
+
+    // Accepts 2024-06-01 (start of that day) or 2024-06-01T12:00[:00].
+    private LocalDateTime parseAsOf(String text) {
+        if (text.contains("T")) {
+            return LocalDateTime.parse(text);
+        }
+        return LocalDate.parse(text).atStartOfDay();
+    }
+
+    private void printCost(CourseInstanceCost cost) {
         System.out.println("-----------------------------------------------------------------------------------------");
         System.out.printf("| %-11s | %-15s | %-6s | %-21s | %-21s |%n",
             "Course Code",
@@ -220,5 +367,588 @@ public class CommandLineInterpreter {
     }
 
 
+    private void handleReassign(String[] tokens) throws SQLException {
+        String usage = "Usage: reassign <from_employment_id> <to_employment_id> <year> [period] [instance=<id>] [activity=<name>]";
+        if (tokens.length < 4) {
+            System.out.println(usage);
+            return;
+        }
+
+        String fromEmploymentId = tokens[1];
+        String toEmploymentId   = tokens[2];
+        int year;
+        try {
+            year = Integer.parseInt(tokens[3]);
+        } catch (NumberFormatException e) {
+            System.out.println("year must be an integer, e.g. 2025");
+            return;
+        }
+        String[] filter = parseBulkFilter(tokens, 4);
+        if (filter == null) {
+            System.out.println(usage);
+            return;
+        }
+
+        try {
+            BulkAllocationResult result =
+                    contr.reassignTeacher(fromEmploymentId, toEmploymentId, year, filter[0], filter[1], filter[2]);
+            System.out.println("Moved from " + fromEmploymentId + " to " + toEmploymentId + ":");
+            printBulkResult(result);
+        } catch (TeacherOverloadedException e) {
+            System.out.println("Cannot reassign: " + e.getMessage());
+        }
+    }
+
 
-}
\ No newline at end of file
+    private void handleDeallocAll(String[] tokens) throws SQLException {
+        String usage = "Usage: dealloc_all <employment_id> <year> [period] [instance=<id>] [activity=<name>]";
+        if (tokens.length < 3) {
+            System.out.println(usage);
+            return;
+        }
+
+        String employmentId = tokens[1];
+        int year;
+        try {
+            year = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            System.out.println("year must be an integer, e.g. 2025");
+            return;
+        }
+        String[] filter = parseBulkFilter(tokens, 3);
+        if (filter == null) {
+            System.out.println(usage);
+            return;
+        }
+
+        BulkAllocationResult result = contr.deallocateAll(employmentId, year, filter[0], filter[1], filter[2]);
+        System.out.println("Removed from " + employmentId + ":");
+        printBulkResult(result);
+    }
+
+    // Optional filters after the fixed arguments -> {period, instance, activity}; null entries = no filter.
+    // Returns null if a token is not understood.
+    private String[] parseBulkFilter(String[] tokens, int from) {
+        String[] filter = new String[3];
+        for (int i = from; i < tokens.length; i++) {
+            String t = tokens[i];
+            if (t.matches("(?i)P[1-4]")) {
+                filter[0] = t.toUpperCase();
+            } else if (t.startsWith("instance=")) {
+                filter[1] = t.substring("instance=".length());
+            } else if (t.startsWith("activity=")) {
+                filter[2] = t.substring("activity=".length());
+            } else {
+                return null;
+            }
+        }
+        return filter;
+    }
+
+    private void printBulkResult(BulkAllocationResult result) {
+        System.out.println("----------------------------------------------------------");
+        System.out.printf("| %-4s | %-15s | %-14s | %-12s |%n",
+                "Year", "Instance ID", "Activity", "Hours");
+        System.out.println("----------------------------------------------------------");
+        for (AllocationSummary row : result.getRows()) {
+            System.out.printf("| %-4d | %-15s | %-14s | %-12.1f |%n",
+                    row.getStudyYear(),
+                    row.getInstanceId(),
+                    row.getActivityName(),
+                    row.getAllocatedHours());
+        }
+        System.out.println("----------------------------------------------------------");
+        System.out.printf("%d allocations on %d instances, %.1f hours.%n",
+                result.getRows().size(), result.getInstanceCount(), result.getTotalHours());
+    }
+
+
+    private void handleSnapshot(String[] tokens) throws SQLException {
+        if (tokens.length != 1) {
+            System.out.println("Usage: snapshot");
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<AllocationHoursSnapshot> snapshots = contr.refreshSnapshot();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // One snapshot per shard (database)
+        System.out.println("Snapshot loaded in " + elapsedMs + " ms:");
+        for (AllocationHoursSnapshot snapshot : snapshots) {
+            System.out.println("  version " + snapshot.getVersion() + ": "
+                    + snapshot.getRowCount() + " rows, "
+                    + snapshot.getInstanceCount() + " instances, "
+                    + snapshot.getTeacherCount() + " teachers.");
+        }
+    }
+
+
+    private void handleSnapshotCost(String[] tokens) throws SQLException {
+        if (tokens.length != 2) {
+            System.out.println("Usage: snap_cost <instance_id>");
+            return;
+        }
+
+        long start = System.nanoTime();
+        CourseInstanceCost cost = contr.computeCourseCostFromSnapshot(tokens[1]);
+        long elapsedUs = (System.nanoTime() - start) / 1_000;
+
+        printCost(cost);
+        System.out.println("(answered from snapshot in " + elapsedUs + " us)");
+    }
+
+
+    private void handleCandidates(String[] tokens) throws SQLException {
+        if (tokens.length != 3 && tokens.length != 4) {
+            System.out.println("Usage: candidates <instance_id> <activity_name> [limit]");
+            return;
+        }
+
+        int limit = 10;
+        if (tokens.length == 4) {
+            try {
+                limit = Integer.parseInt(tokens[3]);
+            } catch (NumberFormatException e) {
+                System.out.println("limit must be an integer");
+                return;
+            }
+            if (limit < 1) {
+                System.out.println("limit must be at least 1");
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        List<TeacherCandidate> candidates = contr.candidates(tokens[1], tokens[2], limit);
+        long elapsedUs = (System.nanoTime() - start) / 1_000;
+
+        System.out.println("---------------------------------------------------------------------------------");
+        System.out.printf("| %-13s | %-20s | %-12s | %-9s | %-7s | %-3s |%n",
+                "Employment ID", "Teacher", "Skill level", "Instances", "Hours", "On");
+        System.out.println("---------------------------------------------------------------------------------");
+        for (TeacherCandidate c : candidates) {
+            System.out.printf("| %-13s | %-20s | %-12s | %-9d | %-7.1f | %-3s |%n",
+                    c.getEmploymentId(),
+                    c.getTeacherName(),
+                    c.getSkillLevel(),
+                    c.getInstancesInPeriod(),
+                    c.getHoursInYear(),
+                    c.isOnInstance() ? "yes" : "");
+        }
+        System.out.println("---------------------------------------------------------------------------------");
+        System.out.println("(" + candidates.size() + " candidates in " + elapsedUs + " us)");
+    }
+
+
+    private void handleArchive(String[] tokens) throws SQLException {
+        if (tokens.length != 2) {
+            System.out.println("Usage: archive <year>");
+            return;
+        }
+
+        int year;
+        try {
+            year = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("year must be an integer, e.g. 2023");
+            return;
+        }
+
+        for (ArchiveResult result : contr.archiveYear(year)) {
+            System.out.printf("Archived %d: %d instances (%d rows), %d salary versions, %d course layouts in %d ms.%n",
+                    result.getStudyYear(), result.getInstances(), result.getAllocationRows(),
+                    result.getSalaries(), result.getCourseLayouts(), result.getElapsedMillis());
+        }
+    }
+
+
+    private void handleRaise(String[] tokens) throws SQLException {
+        if (tokens.length < 2) {
+            System.out.println("Usage: raise <percent> [department_name]");
+            return;
+        }
+
+        double percent;
+        try {
+            percent = Double.parseDouble(tokens[1].endsWith("%")
+                    ? tokens[1].substring(0, tokens[1].length() - 1) : tokens[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("percent must be a number, e.g. 2.5");
+            return;
+        }
+        // Department names may contain spaces
+        String department = tokens.length > 2 ? String.join(" ", Arrays.copyOfRange(tokens, 2, tokens.length)) : null;
+
+        printSalaryRevision(contr.raiseSalaries(department, percent));
+    }
+
+
+    private void handleSalaryTable(String[] tokens) throws SQLException {
+        String usage = "Usage: salary_table <job_title>=<salary>[, <job_title>=<salary> ...] [dept=<department_name>]";
+        // Job titles and department names may contain spaces: parse the rest of the line
+        String rest = String.join(" ", Arrays.copyOfRange(tokens, 1, tokens.length));
+        String department = null;
+        int dept = rest.indexOf("dept=");
+        if (dept >= 0) {
+            department = rest.substring(dept + "dept=".length()).trim();
+            rest = rest.substring(0, dept);
+        }
+
+        Map<String, Double> table = new LinkedHashMap<>();
+        for (String entry : rest.split(",")) {
+            int eq = entry.lastIndexOf('=');
+            if (eq <= 0) {
+                System.out.println(usage);
+                return;
+            }
+            try {
+                table.put(entry.substring(0, eq).trim(), Double.parseDouble(entry.substring(eq + 1).trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("salary must be a number: " + entry.trim());
+                return;
+            }
+        }
+        if (department != null && department.isEmpty()) {
+            System.out.println(usage);
+            return;
+        }
+
+        printSalaryRevision(contr.setSalariesByJobTitle(department, table));
+    }
+
+    private void printSalaryRevision(List<SalaryRevisionResult> results) {
+        for (SalaryRevisionResult result : results) {
+            System.out.printf("Salary revision %s (%s): %d employees in %d ms.%n",
+                    result.getRevision(),
+                    result.getDepartmentName() == null ? "all departments" : result.getDepartmentName(),
+                    result.getEmployees(), result.getElapsedMillis());
+        }
+    }
+
+
+    private void handleViews(String[] tokens) {
+        if (tokens.length == 2 && tokens[1].equalsIgnoreCase("refresh")) {
+            contr.refreshViews();
+            System.out.println("Refresh of all materialized views scheduled.");
+            return;
+        }
+        if (tokens.length != 1) {
+            System.out.println("Usage: views [refresh]");
+            return;
+        }
+
+        System.out.println("------------------------------------------------------------------------------");
+        System.out.printf("| %-8s | %-7s | %-9s | %-9s | %-12s | %-14s |%n",
+                "View", "Pending", "Changes", "Refreshes", "Last refresh", "Duration ms");
+        System.out.println("------------------------------------------------------------------------------");
+        for (ViewRefreshStatus v : contr.viewStatus()) {
+            System.out.printf("| %-8s | %-7s | %-9d | %-9d | %-12s | %-14s |%n",
+                    v.getView(),
+                    v.isPending() ? "yes" : "no",
+                    v.getChangesCoalesced(),
+                    v.getRefreshes(),
+                    v.getLastRefreshedAtMillis() == 0 ? "-" : String.format("%tT", v.getLastRefreshedAtMillis()),
+                    v.getLastRefreshedAtMillis() == 0 ? "-" : String.valueOf(v.getLastDurationMillis()));
+            if (v.getLastError() != null) {
+                System.out.println("  last error: " + v.getLastError());
+            }
+        }
+        System.out.println("------------------------------------------------------------------------------");
+    }
+
+
+    private void handleBudgets(String[] tokens) {
+        if (tokens.length == 2 && tokens[1].equalsIgnoreCase("reset")) {
+            contr.resetLatencyCounters();
+            System.out.println("Latency counters cleared.");
+            return;
+        }
+        if (tokens.length == 4 && tokens[1].equalsIgnoreCase("set")) {
+            long millis;
+            try {
+                millis = Long.parseLong(tokens[3]);
+            } catch (NumberFormatException e) {
+                System.out.println("ms must be an integer, e.g. 2000");
+                return;
+            }
+            contr.setLatencyBudget(tokens[2], millis);
+            System.out.println(millis > 0
+                    ? "Budget of " + tokens[2] + " set to " + millis + " ms."
+                    : "Budget of " + tokens[2] + " removed.");
+            return;
+        }
+        if (tokens.length != 1) {
+            System.out.println("Usage: budgets [set <use_case> <ms> | reset]");
+            return;
+        }
+
+        System.out.println("-------------------------------------------------------------------------------------");
+        System.out.printf("| %-18s | %-9s | %-12s | %-9s | %-9s | %-9s |%n",
+                "Use case", "Budget ms", "Transactions", "Max ms", "Exceeded", "Fallbacks");
+        System.out.println("-------------------------------------------------------------------------------------");
+        for (LatencyBudget b : contr.latencyBudgets()) {
+            System.out.printf("| %-18s | %-9s | %-12d | %-9d | %-9d | %-9d |%n",
+                    b.getUseCase(),
+                    b.getBudgetMillis() == 0 ? "-" : String.valueOf(b.getBudgetMillis()),
+                    b.getTransactions(),
+                    b.getMaxMillis(),
+                    b.getExceeded(),
+                    b.getFallbacks());
+        }
+        System.out.println("-------------------------------------------------------------------------------------");
+    }
+
+
+    private void handleRecord(String[] tokens) {
+        try {
+            if (tokens.length == 3 && tokens[1].equalsIgnoreCase("start")) {
+                contr.startRecording(Path.of(tokens[2]));
+                System.out.println("Recording use case calls to " + tokens[2] + ".");
+                return;
+            }
+            if (tokens.length == 2 && tokens[1].equalsIgnoreCase("stop")) {
+                long calls = contr.stopRecording();
+                System.out.println(calls < 0 ? "Not recording." : "Recording stopped, " + calls + " calls recorded.");
+                return;
+            }
+        } catch (IOException e) {
+            System.out.println("Trace file error: " + e.getMessage());
+            return;
+        }
+        if (tokens.length != 1) {
+            System.out.println("Usage: record [start <trace_file> | stop]");
+            return;
+        }
+        Path path = contr.recordingPath();
+        System.out.println(path == null ? "Not recording." : "Recording to " + path + ".");
+    }
+
+
+    private void handleLocks(String[] tokens) {
+        if (tokens.length > 2) {
+            System.out.println("Usage: locks [on|off|reset]");
+            return;
+        }
+        if (tokens.length == 2) {
+            switch (tokens[1].toLowerCase()) {
+                case "on":
+                    contr.setLockProfiling(true);
+                    System.out.println("Lock profiling on. Run the workload, then 'locks' for the report.");
+                    return;
+                case "off":
+                    contr.setLockProfiling(false);
+                    System.out.println("Lock profiling off.");
+                    return;
+                case "reset":
+                    contr.resetLockProfiles();
+                    System.out.println("Lock profiles cleared.");
+                    return;
+                default:
+                    System.out.println("Usage: locks [on|off|reset]");
+                    return;
+            }
+        }
+
+        for (LockProfile profile : contr.lockProfiles()) {
+            System.out.printf("Lock profile (%s, %.1f s sampled):%n",
+                    profile.isRunning() ? "running" : "stopped", profile.getSampledSeconds());
+            System.out.println("------------------------------------------------------------------------------------------");
+            System.out.printf("| %-16s | %-6s | %-10s | %-10s | %-10s | %-22s |%n",
+                    "Use case", "Txns", "Total ms", "Queue ms", "Lock ms", "Mostly waits on");
+            System.out.println("------------------------------------------------------------------------------------------");
+            for (LockProfile.UseCase u : profile.getUseCases()) {
+                System.out.printf("| %-16s | %-6d | %-10.1f | %-10.1f | %-10.1f | %-22s |%n",
+                        u.getUseCase(), u.getTransactions(), u.getTotalMillis(),
+                        u.getQueueWaitMillis(), u.getLockWaitMillis(),
+                        u.getMostWaitedOn() == null ? "" : u.getMostWaitedOn());
+            }
+            System.out.println("------------------------------------------------------------------------------------------");
+            if (profile.getHotKeys().isEmpty()) {
+                System.out.println("No lock waits sampled.");
+                continue;
+            }
+            System.out.println("Hottest keys:");
+            for (LockProfile.HotKey k : profile.getHotKeys()) {
+                System.out.printf("  %-8s %-14s %10.1f ms waited, mostly behind %s%n",
+                        k.getKind(), k.getKey(), k.getLockWaitMillis(), k.getTopBlocker());
+            }
+        }
+    }
+
+
+    private void handleTeacherHours(String[] tokens) throws SQLException {
+        if (tokens.length != 2 && tokens.length != 3) {
+            System.out.println("Usage: teacher_hours <employment_id> [year]");
+            return;
+        }
+
+        String employmentId = tokens[1];
+        int year = Year.now().getValue();
+        if (tokens.length == 3) {
+            try {
+                year = Integer.parseInt(tokens[2]);
+            } catch (NumberFormatException e) {
+                System.out.println("year must be an integer, e.g. 2025");
+                return;
+            }
+        }
+
+        double hours = contr.teacherHours(employmentId, year);
+        System.out.printf("Teacher %s has %.2f allocated hours in %d.%n", employmentId, hours, year);
+    }
+
+
+    private void handlePeriodLoad(String[] tokens) throws SQLException {
+        if (tokens.length != 3) {
+            System.out.println("Usage: period_load <year> <period>");
+            return;
+        }
+
+        int year;
+        try {
+            year = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("year must be an integer, e.g. 2025");
+            return;
+        }
+        String period = tokens[2].toUpperCase();
+
+        List<TeacherPeriodLoad> loads = contr.periodLoad(year, period);
+
+        System.out.println("---------------------------------------------------------------------");
+        System.out.printf("| %-13s | %-20s | %-6s | %-9s | %-7s |%n",
+                "Employment ID", "Teacher", "Period", "Instances", "Hours");
+        System.out.println("---------------------------------------------------------------------");
+        for (TeacherPeriodLoad load : loads) {
+            System.out.printf("| %-13s | %-20s | %-6s | %-9d | %-7.1f |%n",
+                    load.getEmploymentId(),
+                    load.getTeacherName(),
+                    load.getPeriod(),
+                    load.getNumInstances(),
+                    load.getAllocatedHours());
+        }
+        System.out.println("---------------------------------------------------------------------");
+    }
+
+
+    private void handleWatch(String[] tokens) throws Exception {
+        if (tokens.length != 1) {
+            System.out.println("Usage: watch");
+            return;
+        }
+
+        System.out.println("Watching changes from all sessions. Press Enter to stop.");
+        AutoCloseable subscription = contr.watchChanges(event ->
+                System.out.printf("[%tT] %s%n", event.getReceivedAtMillis(), event));
+        try {
+            in.nextLine();
+        } finally {
+            subscription.close();
+        }
+        System.out.println("Stopped watching.");
+    }
+
+
+    private void handleInstances(String[] tokens) throws SQLException {
+        if (tokens.length != 2 && tokens.length != 3) {
+            System.out.println("Usage: instances <year> [period]");
+            return;
+        }
+
+        int year;
+        try {
+            year = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("year must be an integer, e.g. 2025");
+            return;
+        }
+        String period = tokens.length == 3 ? tokens[2].toUpperCase() : null;
+
+        System.out.println("----------------------------------------------------------------");
+        System.out.printf("| %-15s | %-4s | %-6s | %-11s | %-12s |%n",
+                "Instance ID", "Year", "Period", "Course Code", "Num Students");
+        System.out.println("----------------------------------------------------------------");
+        PageFetcher<InstanceSummary> fetcher = after -> contr.listInstances(year, period, after, PAGE_SIZE);
+        browse(fetcher,
+                row -> System.out.printf("| %-15s | %-4d | %-6s | %-11s | %-12d |%n",
+                        row.getInstanceId(),
+                        row.getStudyYear(),
+                        row.getPeriod(),
+                        row.getCourseCode(),
+                        row.getNumStudents()));
+    }
+
+
+    private void handleAllocations(String[] tokens) throws SQLException {
+        if (tokens.length != 3 || !(tokens[1].equalsIgnoreCase("teacher") || tokens[1].equalsIgnoreCase("instance"))) {
+            System.out.println("Usage: allocations teacher <employment_id> | allocations instance <instance_id>");
+            return;
+        }
+
+        String key = tokens[2];
+        PageFetcher<AllocationSummary> fetcher = tokens[1].equalsIgnoreCase("teacher")
+                ? after -> contr.listAllocationsByTeacher(key, after, PAGE_SIZE)
+                : after -> contr.listAllocationsByInstance(key, after, PAGE_SIZE);
+
+        System.out.println("-------------------------------------------------------------------------------------------");
+        System.out.printf("| %-4s | %-15s | %-14s | %-13s | %-20s | %-7s |%n",
+                "Year", "Instance ID", "Activity", "Employment ID", "Teacher", "Hours");
+        System.out.println("-------------------------------------------------------------------------------------------");
+        browse(fetcher,
+                row -> System.out.printf("| %-4d | %-15s | %-14s | %-13s | %-20s | %-7.1f |%n",
+                        row.getStudyYear(),
+                        row.getInstanceId(),
+                        row.getActivityName(),
+                        row.getEmploymentId(),
+                        row.getTeacherName(),
+                        row.getAllocatedHours()));
+    }
+
+
+    private void handleTeachers(String[] tokens) throws SQLException {
+        if (tokens.length < 3 || !(tokens[1].equalsIgnoreCase("dept") || tokens[1].equalsIgnoreCase("skill"))) {
+            System.out.println("Usage: teachers dept <department_name> | teachers skill <skill_name>");
+            return;
+        }
+
+        // Department and skill names may contain spaces
+        String name = String.join(" ", Arrays.copyOfRange(tokens, 2, tokens.length));
+        PageFetcher<TeacherSummary> fetcher = tokens[1].equalsIgnoreCase("dept")
+                ? after -> contr.listTeachersByDepartment(name, after, PAGE_SIZE)
+                : after -> contr.listTeachersBySkill(name, after, PAGE_SIZE);
+
+        System.out.println("------------------------------------------------------------------------------------------------");
+        System.out.printf("| %-13s | %-20s | %-20s | %-20s | %-12s |%n",
+                "Employment ID", "Teacher", "Department", "Job Title", "Skill Level");
+        System.out.println("------------------------------------------------------------------------------------------------");
+        browse(fetcher,
+                row -> System.out.printf("| %-13s | %-20s | %-20s | %-20s | %-12s |%n",
+                        row.getEmploymentId(),
+                        row.getTeacherName(),
+                        row.getDepartmentName(),
+                        row.getJobTitle(),
+                        row.getSkillLevel()));
+    }
+
+    // Prints one page at a time; Enter fetches the next page (continuing after its last row), 'q' stops.
+    private <T> void browse(PageFetcher<T> fetcher, Consumer<T> printRow) throws SQLException {
+        T after = null;
+        int shown = 0;
+        while (true) {
+            Page<T> page = fetcher.fetch(after);
+            page.getItems().forEach(printRow);
+            shown += page.getItems().size();
+
+            if (!page.hasMore()) {
+                System.out.println("(" + shown + " rows)");
+                return;
+            }
+            System.out.print("-- " + shown + " rows shown, Enter for more, q to stop -- ");
+            if (in.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            after = page.getLast();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package kth.iv1351.coursealloc.integration;
+
+import kth.iv1351.coursealloc.model.ChangeEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Decoding of the change feed payloads sent by the notify triggers
+ * ("<table>|<op>|<instance_id>|<employment_id>", see sql/functions.sql).
+ */
+class ChangeListenerTest {
+
+    @Test
+    void decodesAllocationChangeWithBothKeys() {
+        ChangeEvent e = ChangeListener.decode("A|I|2025-50001|500123");
+
+        assertEquals(ChangeEvent.Table.ALLOCATIONS, e.getTable());
+        assertEquals(ChangeEvent.Operation.INSERT, e.getOperation());
+        assertEquals("2025-50001", e.getInstanceId());
+        assertEquals("500123", e.getEmploymentId());
+        assertFalse(e.isResync());
+        assertFalse(e.isFromOtherShard());
+    }
+
+    @Test
+    void decodesEveryTableAndOperation() {
+        assertEquals(ChangeEvent.Table.PLANNED_ACTIVITY, ChangeListener.decode("P|U|2025-1|").getTable());
+        assertEquals(ChangeEvent.Table.COURSE_INSTANCE, ChangeListener.decode("I|D|2025-1|").getTable());
+        assertEquals(ChangeEvent.Table.SALARY, ChangeListener.decode("S|U||500123").getTable());
+        assertEquals(ChangeEvent.Table.SKILLS, ChangeListener.decode("K|I||").getTable());
+
+        assertEquals(ChangeEvent.Operation.UPDATE, ChangeListener.decode("P|U|2025-1|").getOperation());
+        assertEquals(ChangeEvent.Operation.DELETE, ChangeListener.decode("I|D|2025-1|").getOperation());
+    }
+
+    @Test
+    void emptyKeysBecomeNull() {
+        // A salary statement that changed several employees names none of them
+        ChangeEvent e = ChangeListener.decode("S|U||");
+
+        assertNull(e.getInstanceId());
+        assertNull(e.getEmploymentId());
+    }
+
+    @Test
+    void rejectsPayloadsItDoesNotUnderstand() {
+        assertNull(ChangeListener.decode("X|I|2025-1|500123"));   // unknown table
+        assertNull(ChangeListener.decode("A|X|2025-1|500123"));   // unknown operation
+        assertNull(ChangeListener.decode("AL|I|2025-1|500123"));  // table code too long
+        assertNull(ChangeListener.decode("A|INSERT|2025-1|1"));   // operation code too long
+        assertNull(ChangeListener.decode("A|I|2025-1"));          // too few parts
+        assertNull(ChangeListener.decode("A|I|2025-1|500123|x")); // too many parts
+        assertNull(ChangeListener.decode(""));
+    }
+}
@@ -0,0 +1,69 @@
+package kth.iv1351.coursealloc.integration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transaction labels (application_name, at most 63 characters) and how the
+ * sampler reads them back.
+ */
+class LockProfilerTest {
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    @Test
+    void shortLabelKeepsEverything() {
+        String label = LockProfiler.label("cost", "2025-50001", "500123");
+
+        assertEquals("coursealloc|cost|2025-50001|500123", label);
+        assertArrayEquals(new String[] { "cost", "2025-50001", "500123" }, LockProfiler.parseLabel(label));
+    }
+
+    @Test
+    void nullUseCaseAndKeysAreEmpty() {
+        String label = LockProfiler.label(null, null, null);
+
+        assertEquals("coursealloc|||", label);
+        assertArrayEquals(new String[] { "other", "", "" }, LockProfiler.parseLabel(label));
+    }
+
+    @Test
+    void longInstanceKeyIsNotCutOff() {
+        String instanceId = "instance-" + "x".repeat(60);
+        String label = LockProfiler.label("alloc", instanceId, "500123");
+
+        assertTrue(label.length() <= MAX_LABEL_LENGTH, label);
+        assertTrue(label.endsWith("|500123"), label);
+        assertArrayEquals(new String[] { "alloc", instanceId, "500123" }, LockProfiler.parseLabel(label));
+    }
+
+    @Test
+    void twoLongKeysAreBothKeptWhole() {
+        String instanceId = "i".repeat(40);
+        String employmentId = "e".repeat(45);
+        String label = LockProfiler.label("reassign", instanceId, employmentId);
+
+        assertTrue(label.length() <= MAX_LABEL_LENGTH, label);
+        assertArrayEquals(new String[] { "reassign", instanceId, employmentId }, LockProfiler.parseLabel(label));
+    }
+
+    @Test
+    void onlyTheUseCaseIsShortened() {
+        String useCase = "u".repeat(80);
+        String label = LockProfiler.label(useCase, "2025-50001", "500123");
+
+        assertEquals(MAX_LABEL_LENGTH, label.length());
+        String[] parsed = LockProfiler.parseLabel(label);
+        assertTrue(useCase.startsWith(parsed[0]));
+        assertEquals("2025-50001", parsed[1]);
+        assertEquals("500123", parsed[2]);
+    }
+
+    @Test
+    void otherSessionsAreExternal() {
+        assertArrayEquals(new String[] { "external", "", "" }, LockProfiler.parseLabel("psql"));
+        assertArrayEquals(new String[] { "external", "", "" }, LockProfiler.parseLabel(null));
+    }
+}
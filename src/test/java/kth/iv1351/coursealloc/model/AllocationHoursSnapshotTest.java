@@ -0,0 +1,136 @@
+package kth.iv1351.coursealloc.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The in-memory snapshot must give the numbers of the database path:
+ * planned cost as in DBHandler.fetchPlannedPart, actual cost as query2
+ * (v_instance_teacher_hours joined with the current salaries).
+ */
+class AllocationHoursSnapshotTest {
+    private static final int YEAR = 2025;
+    private static final double DELTA = 1e-9;
+
+    // Instance 2025-1: 7.5 hp, 100 students; teachers T1 and T2 with salaries, T3 without,
+    // and a planned seminar nobody teaches yet. Exercise does not count in query2's hours.
+    private static AllocationHoursSnapshot.Builder sample() {
+        return new AllocationHoursSnapshot.Builder()
+                .addRow("2025-1", "IV1351", 7.5, YEAR, "P2", 100, "Lecture", 20, 10, "T1", "Ada Lovelace")
+                .addRow("2025-1", "IV1351", 7.5, YEAR, "P2", 100, "Lab", 30, 12, "T2", "Alan Turing")
+                .addRow("2025-1", "IV1351", 7.5, YEAR, "P2", 100, "Lab", 30, 6, "T1", "Ada Lovelace")
+                .addRow("2025-1", "IV1351", 7.5, YEAR, "P2", 100, "Exercise", 5, 4, "T2", "Alan Turing")
+                .addRow("2025-1", "IV1351", 7.5, YEAR, "P2", 100, "Seminar", 8, 0, null, null)
+                .addRow("2025-1", "IV1351", 7.5, YEAR, "P2", 100, "Lecture", 20, 3, "T3", "Grace Hopper")
+                .addRow("2025-2", "ID2214", 15, YEAR, "P3", 40, "Lecture", 10, 10, "T2", "Alan Turing")
+                .addRow("2024-9", "IV1351", 7.5, YEAR - 1, "P2", 80, "Lecture", 20, 20, "T1", "Ada Lovelace")
+                .setTeacherSalary("T1", 500)
+                .setTeacherSalary("T2", 400)
+                .setAverageHourlySalary(450);
+    }
+
+    @Test
+    void instanceCostMatchesQuery2() {
+        AllocationHoursSnapshot snapshot = sample().build(1, YEAR);
+
+        CourseInstanceCost cost = snapshot.instanceCost("2025-1");
+
+        // query2: Admin and Exam are split over the teacher groups of the instance
+        // (T1, T2, T3 and the unallocated one), "Total Hours" is rounded to 2 decimals
+        int teacherCount = 4;
+        double admin = (2 * 7.5 + 28 + 0.2 * 100) / teacherCount;
+        double exam = (32 + 0.725 * 100) / teacherCount;
+        double t1Total = round2(10 + 6 + admin + exam);   // Lecture + Lab
+        double t2Total = round2(12 + admin + exam);       // Lab; Exercise is not in query2
+        // T3 has no current salary and the unallocated group no employee: both drop out of the join
+        double actualKsek = (t1Total * 500 + t2Total * 400) / 1000.0;
+        double plannedKsek = (20 + 30 + 30 + 5 + 8 + 20) * 450 / 1000.0;
+
+        assertEquals(57.88, t1Total, DELTA);
+        assertEquals(53.88, t2Total, DELTA);
+        assertEquals("IV1351", cost.getCourseCode());
+        assertEquals("P2", cost.getPeriod());
+        assertEquals(plannedKsek, cost.getPlannedCostKsek(), DELTA);
+        assertEquals(actualKsek, cost.getActualCostKsek(), DELTA);
+    }
+
+    @Test
+    void singleTeacherGetsAllAdminAndExamHours() {
+        CourseInstanceCost cost = sample().build(1, YEAR).instanceCost("2025-2");
+
+        double total = round2(10 + (2 * 15 + 28 + 0.2 * 40) + (32 + 0.725 * 40));
+        assertEquals(total * 400 / 1000.0, cost.getActualCostKsek(), DELTA);
+        assertEquals(10 * 450 / 1000.0, cost.getPlannedCostKsek(), DELTA);
+    }
+
+    @Test
+    void onlyInstancesOfTheCurrentYearHaveACost() {
+        AllocationHoursSnapshot snapshot = sample().build(1, YEAR);
+
+        assertNull(snapshot.instanceCost("2024-9"));
+        assertNull(snapshot.instanceCost("no-such-instance"));
+    }
+
+    @Test
+    void roundTripThroughBinaryFormKeepsEverything() throws IOException {
+        AllocationHoursSnapshot original = sample().build(7, YEAR);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            original.writeTo(out);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        AllocationHoursSnapshot restored = AllocationHoursSnapshot.readFrom(in).build(7, YEAR);
+
+        assertEquals(0, in.remaining());
+        assertEquals(original.getRowCount(), restored.getRowCount());
+        assertEquals(original.getInstanceCount(), restored.getInstanceCount());
+        assertEquals(original.getTeacherCount(), restored.getTeacherCount());
+        for (String instanceId : List.of("2025-1", "2025-2")) {
+            CourseInstanceCost a = original.instanceCost(instanceId);
+            CourseInstanceCost b = restored.instanceCost(instanceId);
+            assertNotNull(b);
+            assertEquals(a.getCourseCode(), b.getCourseCode());
+            assertEquals(a.getPeriod(), b.getPeriod());
+            assertEquals(a.getPlannedCostKsek(), b.getPlannedCostKsek(), 0.0);
+            assertEquals(a.getActualCostKsek(), b.getActualCostKsek(), 0.0);
+        }
+        for (String teacher : List.of("T1", "T2", "T3")) {
+            assertEquals(original.teacherId(teacher), restored.teacherId(teacher));
+            assertEquals(original.teacherHours(teacher, YEAR), restored.teacherHours(teacher, YEAR), 0.0);
+            assertEquals(original.teacherHours(teacher, YEAR - 1), restored.teacherHours(teacher, YEAR - 1), 0.0);
+        }
+        assertEquals(loads(original.periodLoad(YEAR, "P2")), loads(restored.periodLoad(YEAR, "P2")));
+    }
+
+    @Test
+    void damagedBufferIsRejected() {
+        ByteBuffer truncated = ByteBuffer.wrap(new byte[] { 0, 0, 0 });
+
+        assertThrows(BufferUnderflowException.class, () -> AllocationHoursSnapshot.readFrom(truncated));
+    }
+
+    private static String loads(List<TeacherPeriodLoad> loads) {
+        StringBuilder sb = new StringBuilder();
+        for (TeacherPeriodLoad l : loads) {
+            sb.append(l.getEmploymentId()).append(':').append(l.getNumInstances())
+                    .append(':').append(l.getAllocatedHours()).append(';');
+        }
+        return sb.toString();
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
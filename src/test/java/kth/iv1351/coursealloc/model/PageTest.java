@@ -0,0 +1,63 @@
+package kth.iv1351.coursealloc.model;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Merging of keyset pages from several shards, in the order of ORDER BY ... COLLATE "C".
+ */
+class PageTest {
+    // U+FFFD (one UTF-16 unit) sorts before U+1F600 (a surrogate pair) by code point,
+    // but after it by String.compareTo, which compares the high surrogate 0xD83D.
+    private static final String REPLACEMENT = "\uFFFD";
+    private static final String GRINNING_FACE = new String(Character.toChars(0x1F600));
+
+    @Test
+    void codePointOrderDiffersFromStringCompareAboveBmp() {
+        assertTrue(REPLACEMENT.compareTo(GRINNING_FACE) > 0);
+        assertTrue(Page.CODE_POINT_ORDER.compare(REPLACEMENT, GRINNING_FACE) < 0);
+        assertTrue(Page.CODE_POINT_ORDER.compare("a", "ab") < 0);
+        assertEquals(0, Page.CODE_POINT_ORDER.compare(GRINNING_FACE, new String(Character.toChars(0x1F600))));
+    }
+
+    @Test
+    void mergesInCodePointOrderAndCutsToPageSize() {
+        Page<String> east = new Page<>(List.of("Anna", "Z" + REPLACEMENT, "Z" + GRINNING_FACE + "z"), true);
+        Page<String> west = new Page<>(List.of("Bo", "Z" + GRINNING_FACE), false);
+
+        Page<String> merged = Page.merge(List.of(east, west), Page.CODE_POINT_ORDER, 4);
+
+        assertEquals(List.of("Anna", "Bo", "Z" + REPLACEMENT, "Z" + GRINNING_FACE), merged.getItems());
+        assertTrue(merged.hasMore()); // the last key of east is left over
+        assertEquals("Z" + GRINNING_FACE, merged.getLast());
+    }
+
+    @Test
+    void hasMoreIfAnyShardHasMore() {
+        Page<String> east = new Page<>(List.of("a"), true);
+        Page<String> west = new Page<>(List.of("b"), false);
+
+        Page<String> merged = Page.merge(List.of(east, west), Page.CODE_POINT_ORDER, 10);
+
+        assertEquals(List.of("a", "b"), merged.getItems());
+        assertTrue(merged.hasMore());
+    }
+
+    @Test
+    void lastPageOfAllShards() {
+        Page<String> east = new Page<>(List.of(), false);
+        Page<String> west = new Page<>(List.of("b"), false);
+
+        Page<String> merged = Page.merge(List.of(east, west), Page.CODE_POINT_ORDER, 10);
+
+        assertEquals(List.of("b"), merged.getItems());
+        assertFalse(merged.hasMore());
+        assertNull(new Page<String>(List.of(), false).getLast());
+    }
+}